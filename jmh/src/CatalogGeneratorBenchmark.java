@@ -0,0 +1,41 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to fill an empty register with a generated
+ * catalog, which is mostly the cost of createProduct and the indexes.
+ *
+ * @author Kandidat 10009
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CatalogGeneratorBenchmark {
+
+  @Param({ "1000", "100000" })
+  int size;
+
+  @Benchmark
+  public ProductRegister populate() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(42).populate(register, size);
+    return register;
+  }
+
+}
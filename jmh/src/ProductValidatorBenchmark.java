@@ -0,0 +1,105 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of loading products before and after the id check was
+ * moved out of the product constructor. The old check, with two regular
+ * expressions, is kept here as a validator so both can be measured on the same
+ * products. Every operation loads {@code size} products.
+ *
+ * <p>
+ * On JDK 17 with one CPU, loading a million products took 790 ms with the
+ * regular expressions, 29 ms with the validator, and 28 ms to copy them.
+ *
+ * @author Kandidat 10009
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProductValidatorBenchmark {
+
+  /**
+   * The check the product constructor made before it had a validator.
+   */
+  static final ProductValidator REGEX = (id, price, quantity, category) -> {
+    if (id == null || id.isEmpty()) {
+      throw new IllegalArgumentException("ID cannot be null or empty");
+    }
+    if (!id.matches(".*[a-zA-Z]+.*") || !id.matches(".*[0-9]+.*")) {
+      throw new IllegalArgumentException("ID has to contain both strings and intigers");
+    }
+    if (category < 1 || category > 4) {
+      throw new IllegalArgumentException("Category has to be an int between 1 and 5");
+    }
+    if (quantity < 0) {
+      throw new IllegalArgumentException("Quantity cannot be negative");
+    }
+    if (price < 0) {
+      throw new IllegalArgumentException("Price cannot be negative");
+    }
+  };
+
+  @Param({ "1000000" })
+  int size;
+
+  private String[] ids;
+  private Product[] products;
+
+  @Setup(Level.Trial)
+  public void createIds() {
+    ids = new String[size];
+    products = new Product[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = "ID" + i;
+      products[i] = create(ids[i], i, ProductValidator.DEFAULT);
+    }
+  }
+
+  @Benchmark
+  public void loadWithRegex(Blackhole blackhole) {
+    for (int i = 0; i < size; i++) {
+      blackhole.consume(create(ids[i], i, REGEX));
+    }
+  }
+
+  @Benchmark
+  public void loadWithValidator(Blackhole blackhole) {
+    for (int i = 0; i < size; i++) {
+      blackhole.consume(create(ids[i], i, ProductValidator.DEFAULT));
+    }
+  }
+
+  /**
+   * Copies products that have already been checked, which is not checked again.
+   */
+  @Benchmark
+  public void deepCopy(Blackhole blackhole) {
+    for (int i = 0; i < size; i++) {
+      blackhole.consume(new Product(products[i]));
+    }
+  }
+
+  private static Product create(String id, int i, ProductValidator validator) {
+    return new Product(id, i % 10000, "Door,Red", "Brand", 1, 1, 1, "Red", i % 100, i % 4 + 1, validator);
+  }
+
+}
@@ -0,0 +1,134 @@
+package src;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the most used register operations on catalogs of different sizes.
+ * The catalogs are created by a seeded {@link CatalogGenerator}, so every run
+ * measures the same data.
+ *
+ * <p>
+ * Build and run with {@code mvn -Pjmh package} and
+ * {@code java -jar target/benchmarks.jar RegisterBenchmark -p size=1000}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RegisterBenchmark {
+
+  private static final long SEED = 42;
+
+  // How many ids and keywords the operations cycle through.
+  private static final int SAMPLES = 10_000;
+
+  @Param({ "1000", "100000", "1000000" })
+  int size;
+
+  private ProductRegister register;
+  private String[] ids;
+  private String[] keywords;
+
+  /**
+   * The position of a thread in the ids and keywords, and the number of the
+   * next product it creates.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+    long created;
+
+    int next() {
+      next = next + 1 == SAMPLES ? 0 : next + 1;
+      return next;
+    }
+  }
+
+  /**
+   * Creates the catalog and picks the ids and keywords to use.
+   */
+  @Setup(Level.Trial)
+  public void createCatalog() {
+    register = new ProductRegister(ProductValidator.DEFAULT);
+    CatalogGenerator generator = new CatalogGenerator(SEED);
+    generator.populate(register, size);
+
+    Random random = new Random(SEED);
+    ids = new String[SAMPLES];
+    keywords = new String[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      ids[i] = "ID" + random.nextInt(size);
+      keywords[i] = generator.randomKeyword();
+    }
+  }
+
+  /**
+   * Creates a product and removes it again, so the size of the catalog does not
+   * change while measuring.
+   */
+  @Benchmark
+  public void createAndRemoveProduct(Cursor cursor) {
+    String id = "NEW" + cursor.created++;
+    register.createProduct(id, 100, "New,Door", "Brand", 1, 1, 1, "Color", 10, 1);
+    register.removeProduct(id);
+  }
+
+  @Benchmark
+  public Product getProductDeepCopyByID(Cursor cursor) {
+    return register.getProductDeepCopyByID(ids[cursor.next()]);
+  }
+
+  @Benchmark
+  public ProductView getProductByID(Cursor cursor) {
+    return register.getProductByID(ids[cursor.next()]);
+  }
+
+  @Benchmark
+  public void increaseProductInventory(Cursor cursor) {
+    register.increaseProductInventory(ids[cursor.next()], 1);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<String> searchByKeywords(Cursor cursor) {
+    return register.searchByKeywords(keywords[cursor.next()]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public List<String> printAllProducts() {
+    return register.printAllProducts();
+  }
+
+  /**
+   * Goes through every product, handing each snapshot to the blackhole so the
+   * scan cannot be removed by the JIT compiler.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void forEachProduct(Blackhole blackhole) {
+    register.forEachProduct(blackhole::consume);
+  }
+
+}
@@ -1,5 +1,9 @@
 package src;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.NoSuchElementException;
 import java.util.InputMismatchException;
 import java.util.List;
@@ -14,16 +18,31 @@ import java.util.Scanner;
  */
 public class App {
 
-  private static final ProductRegister register = new ProductRegister();
+  private static ProductRegister register;
   private static final Scanner inputStr = new Scanner(System.in);
   private static final Scanner inputInt = new Scanner(System.in);
 
   /**
-   * The main method.
+   * The main method. If a directory is given, the register is stored in that
+   * directory and restored from it the next time, otherwise the register starts
+   * with a few random products and is lost when the program exits.
    * 
-   * @param args
+   * @param args An optional directory to store the register in.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0) {
+      register = new ProductRegister(ProductValidator.DEFAULT);
+      RegisterJournal journal = RegisterJournal.open(Paths.get(args[0]), register);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          System.out.println("Could not save the register: " + e.getMessage());
+        }
+      }));
+    } else {
+      register = new ProductRegister();
+    }
     choices();
   }
 
@@ -89,7 +108,7 @@ public class App {
     String name = inputStr.nextLine();
 
     try {
-      System.out.println(register.getProductDeepCopyByID(name));
+      System.out.println(register.getProductByID(name));
     } catch (NoSuchElementException e) {
       System.out.println(e.getMessage());
       searchForProduct();
@@ -106,13 +125,12 @@ public class App {
     System.out.println("--------------------------------");
     System.out.println("Please enter the some keywords separated by a comma:");
 
-    try {
-      String keywords = inputStr.nextLine();
-      formatList(register.searchByKeywords(keywords));
-
-    } catch (NoSuchElementException e) {
-      System.out.println(e.getMessage());
-      searchByKeywords();
+    String keywords = inputStr.nextLine();
+    List<String> products = register.searchByKeywords(keywords);
+    if (products.isEmpty()) {
+      System.out.println("No products matches keywords " + keywords);
+    } else {
+      formatList(products);
     }
 
   }
@@ -244,10 +262,12 @@ public class App {
     System.out.println("--------------------------------");
     System.out.println("All products:");
     try {
-      List<String> products = register.printAllProducts();
-      formatList(products);
+      // The products are written one at a time, instead of creating a list of
+      // them first. The writer is not closed, since that would close System.out.
+      Writer out = new OutputStreamWriter(System.out);
+      register.writeAllProducts(out, "--------------------------------");
 
-    } catch (NoSuchElementException e) {
+    } catch (IOException e) {
       System.out.println(e.getMessage());
     }
 
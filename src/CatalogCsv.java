@@ -0,0 +1,391 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Imports and exports the products of a register as CSV files, one product per
+ * row. The columns are the same as the parameters of
+ * {@link ProductRegister#createProduct}, and the first row is a header.
+ *
+ * <p>
+ * Files are processed as streams, so the memory used does not depend on the
+ * size of the file. An import reads a chunk of rows at a time and validates the
+ * rows of a chunk in parallel. Rows that cannot be imported are written to an
+ * error file together with the reason, and the import goes on with the next
+ * row. A row longer than {@link #MAX_ROW_CHARS} characters, or a quoted field
+ * that is never closed, is rejected too, so one broken quote cannot make the
+ * import read the rest of the file into memory.
+ *
+ * <p>
+ * A value that is null is written as an empty field, and an empty string as a
+ * pair of quotes, so both read back as they were written.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class CatalogCsv {
+
+  static final String HEADER = "id,price,description,brandName,weight,length,height,color,quantity,category";
+  private static final int COLUMNS = 10;
+
+  // The longest row that is read. No field can be longer than the longest
+  // string the register keeps.
+  static final int MAX_ROW_CHARS = Mutation.MAX_STRING_BYTES;
+
+  // How many rows are validated in parallel at a time.
+  private static final int CHUNK_SIZE = 8192;
+
+  /**
+   * The outcome of an import.
+   */
+  public static final class ImportResult {
+    private final long imported;
+    private final long rejected;
+
+    private ImportResult(long imported, long rejected) {
+      this.imported = imported;
+      this.rejected = rejected;
+    }
+
+    public long getImported() {
+      return imported;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+
+    @Override
+    public String toString() {
+      return imported + " imported, " + rejected + " rejected";
+    }
+  }
+
+  /**
+   * A row that has been parsed, with either a valid product or the reason it is
+   * not valid.
+   */
+  private static final class Row {
+    private final long line;
+    private final List<String> fields;
+    private Product product;
+    private String error;
+
+    private Row(long line, List<String> fields) {
+      this.line = line;
+      this.fields = fields;
+    }
+  }
+
+  private CatalogCsv() {
+  }
+
+  /**
+   * Imports the products in a CSV file into the register.
+   *
+   * @param csv      The file to import.
+   * @param errors   The file the rejected rows are written to.
+   * @param register The register to import into.
+   * @return How many rows were imported and rejected.
+   * @throws IOException If a file could not be read or written.
+   */
+  public static ImportResult importProducts(Path csv, Path errors, ProductRegister register) throws IOException {
+    long imported = 0;
+    long rejected = 0;
+
+    try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+        BufferedWriter errorOut = Files.newBufferedWriter(errors, StandardCharsets.UTF_8)) {
+      errorOut.write(HEADER + ",line,error\n");
+
+      long line = 1;
+      Row next = readRow(in, line);
+      if (next != null && next.error == null && "id".equalsIgnoreCase(next.fields.get(0))) {
+        // Skip the header
+        line++;
+        next = readRow(in, line);
+      }
+
+      List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+      while (next != null) {
+        // Empty lines are skipped
+        if (next.error != null || next.fields.size() > 1 || next.fields.get(0) != null) {
+          chunk.add(next);
+        }
+        line++;
+        next = readRow(in, line);
+
+        if (chunk.size() == CHUNK_SIZE || next == null) {
+          List<Row> rows = chunk.parallelStream()
+              .map(row -> validate(row, register.getValidator()))
+              .collect(Collectors.toList());
+
+          // Products are added in the order of the file, so the first of two
+          // rows with the same id is the one that is kept.
+          for (Row row : rows) {
+            if (row.product != null) {
+              try {
+                register.add(row.product);
+              } catch (IllegalArgumentException e) {
+                row.error = e.getMessage();
+              }
+            }
+            if (row.error == null) {
+              imported++;
+            } else {
+              rejected++;
+              writeError(errorOut, row);
+            }
+          }
+          chunk.clear();
+        }
+      }
+    }
+    return new ImportResult(imported, rejected);
+  }
+
+  /**
+   * Writes all the products in the register to a channel as CSV. The products
+   * are read from a snapshot, so the file shows the register at one point in
+   * time. Each row is formatted into the same buffer and encoded straight into
+   * the output buffer, so no string is created for the rows.
+   *
+   * @param register The register to export.
+   * @param channel  Where the CSV is written.
+   * @throws IOException If the channel could not be written to.
+   */
+  public static void exportProducts(ProductRegister register, WritableByteChannel channel) throws IOException {
+    CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+    StringBuilder row = new StringBuilder(256);
+
+    row.append(HEADER).append('\n');
+    encode(encoder, row, out, channel);
+
+    try (RegisterSnapshot snapshot = register.snapshot()) {
+      for (ProductView product : snapshot) {
+        row.setLength(0);
+        appendField(row, product.getID()).append(',');
+        row.append(product.getPrice()).append(',');
+        appendField(row, product.getDescription()).append(',');
+        appendField(row, product.getBrandName()).append(',');
+        row.append(product.getWeight()).append(',');
+        row.append(product.getLength()).append(',');
+        row.append(product.getHeight()).append(',');
+        appendField(row, product.getColor()).append(',');
+        row.append(product.getQuantity()).append(',');
+        row.append(product.getCategory().getValue()).append('\n');
+        encode(encoder, row, out, channel);
+      }
+    }
+
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+  }
+
+  /**
+   * Parses a row and creates the product, which checks the values.
+   */
+  private static Row validate(Row row, ProductValidator validator) {
+    List<String> fields = row.fields;
+    if (row.error != null) {
+      // The row could not be read
+      return row;
+    }
+    if (fields.size() != COLUMNS) {
+      row.error = "Expected " + COLUMNS + " columns, found " + fields.size();
+      return row;
+    }
+
+    try {
+      row.product = new Product(
+          fields.get(0),
+          Integer.parseInt(number(fields.get(1))),
+          fields.get(2),
+          fields.get(3),
+          Double.parseDouble(number(fields.get(4))),
+          Double.parseDouble(number(fields.get(5))),
+          Double.parseDouble(number(fields.get(6))),
+          fields.get(7),
+          Integer.parseInt(number(fields.get(8))),
+          Integer.parseInt(number(fields.get(9))),
+          validator);
+    } catch (NumberFormatException e) {
+      row.error = "Not a number: " + e.getMessage();
+    } catch (IllegalArgumentException e) {
+      row.error = e.getMessage();
+    }
+    return row;
+  }
+
+  /**
+   * Returns the text of a number field, where a missing value is empty.
+   */
+  private static String number(String field) {
+    return field == null ? "" : field.trim();
+  }
+
+  private static void writeError(Writer out, Row row) throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (String field : row.fields) {
+      appendField(line, field).append(',');
+    }
+    line.append(row.line).append(',');
+    appendField(line, row.error).append('\n');
+    out.write(line.toString());
+  }
+
+  /**
+   * Reads one record, where fields are separated by commas. A field in double
+   * quotes may contain commas, line breaks and doubled quotes. An empty field
+   * without quotes is read as null.
+   *
+   * <p>
+   * A record that is longer than {@link #MAX_ROW_CHARS} is not kept: the rest
+   * of its line is skipped, and the row is returned with an error and without
+   * fields. A quoted field that is still open at the end of the input also
+   * gives a row with an error.
+   *
+   * @param in   The input.
+   * @param line The number of the row, for the error file.
+   * @return The row, or null at the end of the input.
+   */
+  private static Row readRow(Reader in, long line) throws IOException {
+    List<String> fields = new ArrayList<>(COLUMNS);
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    boolean wasQuoted = false;
+    boolean any = false;
+    int length = 0;
+
+    int c;
+    while ((c = in.read()) != -1) {
+      any = true;
+      if (++length > MAX_ROW_CHARS) {
+        // The line break may be inside the quotes that made the row this
+        // long, so the next row starts at the next line break of any kind
+        while (c != -1 && c != '\n') {
+          c = in.read();
+        }
+        Row row = new Row(line, new ArrayList<>());
+        row.error = "The row is longer than " + MAX_ROW_CHARS + " characters";
+        return row;
+      }
+      if (quoted) {
+        if (c == '"') {
+          in.mark(1);
+          int next = in.read();
+          if (next == '"') {
+            field.append('"');
+          } else {
+            quoted = false;
+            if (next != -1) {
+              in.reset();
+            }
+          }
+        } else {
+          field.append((char) c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+        wasQuoted = true;
+      } else if (c == ',') {
+        fields.add(field(field, wasQuoted));
+        field.setLength(0);
+        wasQuoted = false;
+      } else if (c == '\n') {
+        break;
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+    }
+
+    if (!any) {
+      return null;
+    }
+    fields.add(field(field, wasQuoted));
+    Row row = new Row(line, fields);
+    if (quoted) {
+      row.error = "A quoted field is not closed";
+    }
+    return row;
+  }
+
+  /**
+   * Returns the value of a field that has been read, where an empty field
+   * without quotes is null.
+   */
+  private static String field(StringBuilder field, boolean wasQuoted) {
+    return field.length() == 0 && !wasQuoted ? null : field.toString();
+  }
+
+  /**
+   * Appends a field, in quotes if it contains a character that has a meaning in
+   * CSV. A null field is written as an empty field, and an empty string as a
+   * pair of quotes.
+   */
+  private static StringBuilder appendField(StringBuilder row, String value) {
+    if (value == null) {
+      return row;
+    }
+
+    boolean quote = value.isEmpty();
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      return row.append(value);
+    }
+
+    row.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        row.append('"');
+      }
+      row.append(c);
+    }
+    return row.append('"');
+  }
+
+  /**
+   * Encodes the characters into the output buffer, writing the buffer to the
+   * channel whenever it is full.
+   */
+  private static void encode(CharsetEncoder encoder, CharSequence text, ByteBuffer out,
+      WritableByteChannel channel) throws IOException {
+    CharBuffer in = CharBuffer.wrap(text);
+    while (true) {
+      CoderResult result = encoder.encode(in, out, false);
+      if (result.isOverflow()) {
+        out.flip();
+        while (out.hasRemaining()) {
+          channel.write(out);
+        }
+        out.clear();
+      } else if (result.isUnderflow()) {
+        return;
+      } else {
+        result.throwException();
+      }
+    }
+  }
+
+}
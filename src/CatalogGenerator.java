@@ -0,0 +1,77 @@
+package src;
+
+import java.util.Random;
+
+/**
+ * Generates products with random values. The generator is seeded, so the same
+ * seed always gives the same catalog, which makes it usable for benchmarks.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class CatalogGenerator {
+
+  // The words the descriptions are made of.
+  static final String[] DESCRIPTION_WORDS = { "Green", "Brown", "Yellow", "White", "Window", "Door", "Lumber",
+      "Floor Laminate", "New", "Cool", "Amazing" };
+
+  // How many different brands and colors there are. Real catalogs have far
+  // fewer brands and colors than products.
+  private static final int BRANDS = 100;
+  private static final int COLORS = 20;
+
+  private final Random random;
+
+  /**
+   * Constructor for a generator.
+   * 
+   * @param seed The seed of the random values.
+   */
+  public CatalogGenerator(long seed) {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Adds products with the ids "ID0" to "ID(amount - 1)" to the register.
+   * 
+   * @param register The register to add the products to.
+   * @param amount   The amount of products to be added.
+   */
+  public void populate(ProductRegister register, int amount) {
+    populate(register, "ID", amount);
+  }
+
+  /**
+   * Adds products with the ids prefix + "0" to prefix + "(amount - 1)" to the
+   * register.
+   * 
+   * @param register The register to add the products to.
+   * @param prefix   The start of the ids, has to contain a letter.
+   * @param amount   The amount of products to be added.
+   */
+  public void populate(ProductRegister register, String prefix, int amount) {
+    for (int i = 0; i < amount; i++) {
+      register.createProduct(
+          prefix + i,
+          random.nextInt(10000),
+          randomKeyword() + "," + randomKeyword(),
+          "Brand" + (i % BRANDS),
+          random.nextDouble() * 100,
+          random.nextDouble() * 100,
+          random.nextDouble() * 100,
+          "Color" + (i % COLORS),
+          random.nextInt(100),
+          random.nextInt(4) + 1);
+    }
+  }
+
+  /**
+   * Returns one of the words the descriptions are made of.
+   * 
+   * @return A random description word.
+   */
+  public String randomKeyword() {
+    return DESCRIPTION_WORDS[random.nextInt(DESCRIPTION_WORDS.length)];
+  }
+
+}
@@ -13,6 +13,10 @@ public enum Category {
 
   private int value;
 
+  // The categories in the order of their values, so a category can be found
+  // without copying the array from values() every time.
+  private static final Category[] CATEGORIES = values();
+
   private Category(int value) {
     this.value = value;
   }
@@ -22,7 +26,7 @@ public enum Category {
   }
 
   public static Category findByValue(int value) {
-    for (Category category : Category.values()) {
+    for (Category category : CATEGORIES) {
       if (category.getValue() == value) {
         return category;
       }
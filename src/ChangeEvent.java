@@ -0,0 +1,46 @@
+package src;
+
+/**
+ * This class represents a change to the register with its place in the change
+ * stream.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class ChangeEvent {
+
+  private final long sequence;
+  private final long timestamp;
+  private final Mutation mutation;
+
+  ChangeEvent(long sequence, long timestamp, Mutation mutation) {
+    this.sequence = sequence;
+    this.timestamp = timestamp;
+    this.mutation = mutation;
+  }
+
+  /**
+   * Returns the number of the change. Changes are numbered from 1 without gaps,
+   * in the order they were made.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Returns when the change was made, in milliseconds since 1970.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public Mutation getMutation() {
+    return mutation;
+  }
+
+  @Override
+  public String toString() {
+    return sequence + ": " + mutation;
+  }
+
+}
@@ -0,0 +1,184 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes every change in a change stream to a file, so the changes can be read
+ * again after they have left the ring buffer of the stream, for example by a
+ * subscriber that did not keep up.
+ *
+ * <p>
+ * The sink is not a subscriber of the stream, since a subscriber can be left
+ * behind and would leave gaps in the file. Every change is written while it
+ * is published, so the register waits for the sink, but only for a write to a
+ * memory buffer. The buffer is written to the file every 100 milliseconds, and
+ * by {@link #flush()}. Changes of different products can be in the file out
+ * of order, but the changes of one product are in the order they were made.
+ *
+ * <p>
+ * If the file cannot be written, the error is thrown to the thread that made
+ * the change, and from every later change, {@link #flush()} and
+ * {@link #close()}, so a gap in the file never goes unnoticed.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ChangeFileSink implements Consumer<ChangeEvent>, Closeable {
+
+  private final ChangeStream stream;
+  private final DataOutputStream out;
+  private final ScheduledExecutorService flusher;
+
+  // The first error from writing the file, after which nothing more is
+  // written. Guarded by the lock of the sink.
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Starts writing the changes of a stream, from the next change on, to the end
+   * of a file.
+   *
+   * @param stream The stream to write.
+   * @param path   The file to write to. It is created if it does not exist.
+   * @throws IOException If the file could not be opened.
+   */
+  public ChangeFileSink(ChangeStream stream, Path path) throws IOException {
+    this.stream = stream;
+    this.out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "change-file-sink");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushInBackground, 100, 100, TimeUnit.MILLISECONDS);
+    stream.addSink(this);
+  }
+
+  /**
+   * Reads the changes in a file written by a sink, starting from the given
+   * sequence number.
+   *
+   * @param path         The file to read.
+   * @param fromSequence The first change to give to the action.
+   * @param action       The action to run for each change.
+   * @return The sequence number after the newest change that was read.
+   * @throws IOException If the file could not be read.
+   */
+  public static long read(Path path, long fromSequence, Consumer<ChangeEvent> action) throws IOException {
+    long next = fromSequence;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      while (true) {
+        long sequence;
+        long timestamp;
+        Mutation mutation;
+        try {
+          sequence = in.readLong();
+          timestamp = in.readLong();
+          mutation = Mutation.readFrom(in);
+        } catch (EOFException e) {
+          // The end of the file, or a change that was only partly written
+          return next;
+        }
+        if (sequence >= fromSequence) {
+          action.accept(new ChangeEvent(sequence, timestamp, mutation));
+          next = Math.max(next, sequence + 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a change to the file. Called by the stream.
+   *
+   * @throws UncheckedIOException If the file could not be written, now or
+   *                              before.
+   */
+  @Override
+  public synchronized void accept(ChangeEvent event) {
+    if (closed) {
+      return;
+    }
+    if (failure != null) {
+      throw new UncheckedIOException("The change file has failed", failure);
+    }
+    try {
+      out.writeLong(event.getSequence());
+      out.writeLong(event.getTimestamp());
+      event.getMutation().writeTo(out);
+    } catch (IOException e) {
+      failure = e;
+      throw new UncheckedIOException("Could not write the change file", e);
+    }
+  }
+
+  /**
+   * Writes the changes so far to the file.
+   *
+   * @throws IOException If the file could not be written, now or before.
+   */
+  public synchronized void flush() throws IOException {
+    if (failure != null) {
+      throw new IOException("The change file has failed", failure);
+    }
+    if (closed) {
+      return;
+    }
+    try {
+      out.flush();
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the sink, and writes the changes so far to the file.
+   *
+   * @throws IOException If the file could not be written, now or before.
+   */
+  @Override
+  public void close() throws IOException {
+    stream.removeSink(this);
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      try {
+        flush();
+      } finally {
+        closed = true;
+        out.close();
+      }
+    }
+  }
+
+  private void flushInBackground() {
+    try {
+      flush();
+    } catch (IOException e) {
+      // Kept in the failure, and thrown to the next change
+    }
+  }
+
+}
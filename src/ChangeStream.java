@@ -0,0 +1,283 @@
+package src;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An ordered, numbered stream of the changes to a register, which other parts
+ * of the system can follow to keep a copy of the register up to date.
+ *
+ * <p>
+ * The latest changes are kept in a ring buffer of fixed size. A subscriber can
+ * start from any change that is still in the buffer, so a subscriber that
+ * restarts can go on from the last change it saw.
+ *
+ * <p>
+ * Publishing a change to the ring never waits and takes no lock: the change is
+ * given the next sequence number and written to its place in the ring. The
+ * register is never held up by a subscriber. A subscriber that falls so far
+ * behind that the changes it has not read yet have been overwritten is
+ * disconnected, and has to read the changes it missed from a
+ * {@link ChangeFileSink} or start again from a snapshot.
+ *
+ * <p>
+ * A sink, like {@link ChangeFileSink}, is not a subscriber: it is given every
+ * change while the change is published, so it can never fall behind. Instead
+ * the register waits for the sinks.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ChangeStream implements MutationListener, Closeable {
+
+  private final ProductRegister register;
+  private final AtomicReferenceArray<ChangeEvent> ring;
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final List<Consumer<ChangeEvent>> sinks = new CopyOnWriteArrayList<>();
+
+  // The sequence number the next change will get.
+  private final AtomicLong next = new AtomicLong(1);
+  private volatile boolean closed;
+
+  /**
+   * A subscriber's position in the stream. A subscription is read by one
+   * thread at a time.
+   */
+  public final class Subscription implements Closeable {
+
+    // The sequence number of the next change to read.
+    private volatile long position;
+    private volatile boolean closed;
+
+    // The thread that waits for the next change, so it can be woken up.
+    private volatile Thread waiter;
+
+    private Subscription(long position) {
+      this.position = position;
+    }
+
+    /**
+     * Returns the next change, waiting until there is one.
+     *
+     * @return The next change.
+     * @throws InterruptedException  If the thread is interrupted while waiting.
+     * @throws IllegalStateException If the subscription was disconnected for
+     *                               not keeping up, or closed.
+     */
+    public ChangeEvent take() throws InterruptedException {
+      return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the next change, waiting up to the given time until there is one.
+     *
+     * @param timeout How long to wait.
+     * @param unit    The unit of the timeout.
+     * @return The next change, or null if there was none in time.
+     * @throws InterruptedException  If the thread is interrupted while waiting.
+     * @throws IllegalStateException If the subscription was disconnected for
+     *                               not keeping up, or closed.
+     */
+    public ChangeEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+      while (true) {
+        ChangeEvent event = read();
+        if (event != null) {
+          return event;
+        }
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          return null;
+        }
+
+        // Check again after saying we are waiting, so a change that was
+        // published in between is not missed
+        waiter = Thread.currentThread();
+        try {
+          event = read();
+          if (event != null) {
+            return event;
+          }
+          LockSupport.parkNanos(ChangeStream.this, left);
+        } finally {
+          waiter = null;
+        }
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    /**
+     * Returns the sequence number of the next change this subscription reads.
+     */
+    public long getPosition() {
+      return position;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      subscriptions.remove(this);
+      wake();
+    }
+
+    /**
+     * Returns the change at the position and moves past it, or null if it has
+     * not been published yet.
+     */
+    private ChangeEvent read() {
+      if (closed) {
+        throw new IllegalStateException("The subscription is closed");
+      }
+      long wanted = position;
+      ChangeEvent event = ring.get(index(wanted));
+      if (event == null || event.getSequence() < wanted) {
+        return null;
+      }
+      if (event.getSequence() > wanted) {
+        close();
+        throw new IllegalStateException("The subscription did not keep up, subscribe again from "
+            + wanted + " using a change file");
+      }
+      position = wanted + 1;
+      return event;
+    }
+
+    private void wake() {
+      Thread thread = waiter;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  /**
+   * Creates a change stream and starts following the register.
+   *
+   * @param register The register to follow.
+   * @param capacity How many changes the ring buffer holds. A subscriber that
+   *                 falls this many changes behind is disconnected.
+   */
+  public ChangeStream(ProductRegister register, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity has to be at least 1");
+    }
+    this.register = register;
+    this.ring = new AtomicReferenceArray<>(capacity);
+    register.addMutationListener(this);
+  }
+
+  /**
+   * Starts reading the stream from the given change.
+   *
+   * @param fromSequence The sequence number of the first change to read. Use
+   *                     {@link #getNextSequence()} to only read new changes.
+   * @return The subscription.
+   * @throws IllegalArgumentException If the change is no longer in the buffer,
+   *                                  or has not been made yet.
+   */
+  public Subscription subscribe(long fromSequence) {
+    if (fromSequence < getOldestSequence() || fromSequence > getNextSequence()) {
+      throw new IllegalArgumentException("Change " + fromSequence + " is not available, the stream has "
+          + getOldestSequence() + " to " + (getNextSequence() - 1));
+    }
+    Subscription subscription = new Subscription(fromSequence);
+    if (closed) {
+      subscription.closed = true;
+    } else {
+      subscriptions.add(subscription);
+    }
+    return subscription;
+  }
+
+  /**
+   * Adds a sink, which is given every change from now on while the change is
+   * published, on the thread that made the change and while the changed product
+   * is locked. Changes of different products can arrive out of order. An error
+   * thrown by the sink is thrown to the thread that made the change.
+   *
+   * @param sink The sink.
+   */
+  void addSink(Consumer<ChangeEvent> sink) {
+    sinks.add(sink);
+  }
+
+  /**
+   * Removes a sink added with {@link #addSink(Consumer)}.
+   */
+  void removeSink(Consumer<ChangeEvent> sink) {
+    sinks.remove(sink);
+  }
+
+  /**
+   * Returns the sequence number the next change will get.
+   */
+  public long getNextSequence() {
+    return next.get();
+  }
+
+  /**
+   * Returns the sequence number of the oldest change still in the buffer.
+   */
+  public long getOldestSequence() {
+    return Math.max(1, next.get() - ring.length());
+  }
+
+  @Override
+  public void onMutation(Mutation mutation) {
+    long sequence = next.getAndIncrement();
+    ChangeEvent event = new ChangeEvent(sequence, System.currentTimeMillis(), mutation);
+    try {
+      // The sinks have the change before any subscriber can read it, so a
+      // subscriber that is disconnected finds everything it missed there
+      for (Consumer<ChangeEvent> sink : sinks) {
+        sink.accept(event);
+      }
+    } finally {
+      // The change is put in the ring even if a sink failed, since the
+      // subscribers wait for every sequence number
+      publish(event);
+    }
+  }
+
+  private void publish(ChangeEvent event) {
+    // A publisher that was delayed must not overwrite a newer change that
+    // went round the ring past it
+    int index = index(event.getSequence());
+    ChangeEvent old;
+    do {
+      old = ring.get(index);
+      if (old != null && old.getSequence() > event.getSequence()) {
+        break;
+      }
+    } while (!ring.compareAndSet(index, old, event));
+
+    for (Subscription subscription : subscriptions) {
+      subscription.wake();
+    }
+  }
+
+  /**
+   * Stops following the register, and closes all subscriptions.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    register.removeMutationListener(this);
+    for (Subscription subscription : subscriptions) {
+      subscription.close();
+    }
+  }
+
+  private int index(long sequence) {
+    return (int) (sequence % ring.length());
+  }
+
+}
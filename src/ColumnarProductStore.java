@@ -0,0 +1,338 @@
+package src;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A product store that keeps every value in its own column, an array with one
+ * element per product. Numbers are stored in primitive arrays, and the brand
+ * name and color, which repeat a lot, as numbers in a dictionary of strings, so
+ * apart from its description a product takes a few dozen bytes instead of
+ * several objects. Descriptions are mostly different from each other, and are
+ * changed, so they are kept in a column of strings, where a replaced
+ * description can be collected like any other string. A scan reads
+ * only the columns it needs, from start to end, which is what processors are
+ * fastest at, and the aggregations create no objects at all.
+ *
+ * <p>
+ * The rows are kept without gaps: when a product is removed, the last product
+ * is moved into its row.
+ *
+ * <p>
+ * The store can be used by several threads. Reads and scans run at the same
+ * time, while a change waits for them to finish.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ColumnarProductStore implements ProductStore {
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // The row of every product, keyed on the normalized id.
+  private final RowIndex rows = new RowIndex(row -> this.id[row]);
+
+  private final StringDictionary strings = new StringDictionary();
+
+  private int size;
+  private String[] id;
+  private int[] price;
+  private int[] quantity;
+  private String[] description;
+  private int[] brandName;
+  private int[] color;
+  private double[] weight;
+  private double[] length;
+  private double[] height;
+  private byte[] category;
+  private long[] version;
+
+  /**
+   * Creates an empty store.
+   */
+  public ColumnarProductStore() {
+    this(1024);
+  }
+
+  /**
+   * Creates an empty store with room for the given number of products before
+   * the columns have to grow.
+   *
+   * @param capacity The expected number of products.
+   */
+  public ColumnarProductStore(int capacity) {
+    capacity = Math.max(16, capacity);
+    id = new String[capacity];
+    price = new int[capacity];
+    quantity = new int[capacity];
+    description = new String[capacity];
+    brandName = new int[capacity];
+    color = new int[capacity];
+    weight = new double[capacity];
+    length = new double[capacity];
+    height = new double[capacity];
+    category = new byte[capacity];
+    version = new long[capacity];
+  }
+
+  /**
+   * Creates a store with all the products of a register, as they are at one
+   * point in time.
+   *
+   * @param register The register to copy.
+   * @return The new store.
+   */
+  public static ColumnarProductStore copyOf(ProductRegister register) {
+    try (RegisterSnapshot snapshot = register.snapshot()) {
+      ColumnarProductStore store = new ColumnarProductStore();
+      snapshot.forEach(store::add);
+      return store;
+    }
+  }
+
+  @Override
+  public void add(ProductView product) {
+    String key = ProductRegister.normalizeId(product.getID());
+    lock.writeLock().lock();
+    try {
+      if (rows.get(key) >= 0) {
+        throw new IllegalArgumentException("ID already exists");
+      }
+      if (size == id.length) {
+        grow();
+      }
+      int row = size++;
+      id[row] = product.getID();
+      price[row] = product.getPrice();
+      quantity[row] = product.getQuantity();
+      description[row] = product.getDescription();
+      brandName[row] = strings.encode(product.getBrandName());
+      color[row] = strings.encode(product.getColor());
+      weight[row] = product.getWeight();
+      length[row] = product.getLength();
+      height[row] = product.getHeight();
+      category[row] = (byte) product.getCategory().getValue();
+      version[row] = product.getVersion();
+      rows.put(key, row);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ProductView get(String id) {
+    lock.readLock().lock();
+    try {
+      return view(row(id));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String id) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      rows.remove(ProductRegister.normalizeId(id));
+
+      // Move the last product into the row, so there are no gaps
+      int last = --size;
+      if (row != last) {
+        this.id[row] = this.id[last];
+        price[row] = price[last];
+        quantity[row] = quantity[last];
+        description[row] = description[last];
+        brandName[row] = brandName[last];
+        color[row] = color[last];
+        weight[row] = weight[last];
+        length[row] = length[last];
+        height[row] = height[last];
+        category[row] = category[last];
+        version[row] = version[last];
+        rows.move(last, row);
+      }
+      this.id[last] = null;
+      description[last] = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setPrice(String id, int price) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      this.price[row] = price;
+      version[row]++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setQuantity(String id, int quantity) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      this.quantity[row] = quantity;
+      version[row]++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setDescription(String id, String description) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      this.description[row] = description;
+      version[row]++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEach(Consumer<ProductView> action) {
+    lock.readLock().lock();
+    try {
+      for (int row = 0; row < size; row++) {
+        action.accept(view(row));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEachMatching(ProductQuery query, Consumer<ProductView> action) {
+    lock.readLock().lock();
+    try {
+      for (int row = 0; row < size; row++) {
+        if (matches(query, row)) {
+          action.accept(view(row));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int count(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      int count = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(query, row)) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long totalQuantity(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      long total = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(query, row)) {
+          total += quantity[row];
+        }
+      }
+      return total;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long stockValue(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      long total = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(query, row)) {
+          total += (long) price[row] * quantity[row];
+        }
+      }
+      return total;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if the product in a row meets all the conditions of the query.
+   * The caller has to hold a lock.
+   */
+  private boolean matches(ProductQuery query, int row) {
+    return query.matches(Category.findByValue(category[row]), price[row], quantity[row]);
+  }
+
+  /**
+   * Returns the row of the product with the given id. The caller has to hold a
+   * lock.
+   */
+  private int row(String id) {
+    int row = id == null ? -1 : rows.get(ProductRegister.normalizeId(id));
+    if (row < 0) {
+      throw new NoSuchElementException("No product with id " + id + " exists");
+    }
+    return row;
+  }
+
+  /**
+   * Creates a snapshot of the product in a row. The caller has to hold a lock.
+   */
+  private ProductView view(int row) {
+    return new ProductView(
+        id[row],
+        price[row],
+        description[row],
+        strings.decode(brandName[row]),
+        weight[row],
+        length[row],
+        height[row],
+        strings.decode(color[row]),
+        quantity[row],
+        Category.findByValue(category[row]),
+        version[row]);
+  }
+
+  private void grow() {
+    int capacity = id.length * 2;
+    id = Arrays.copyOf(id, capacity);
+    price = Arrays.copyOf(price, capacity);
+    quantity = Arrays.copyOf(quantity, capacity);
+    description = Arrays.copyOf(description, capacity);
+    brandName = Arrays.copyOf(brandName, capacity);
+    color = Arrays.copyOf(color, capacity);
+    weight = Arrays.copyOf(weight, capacity);
+    length = Arrays.copyOf(length, capacity);
+    height = Arrays.copyOf(height, capacity);
+    category = Arrays.copyOf(category, capacity);
+    version = Arrays.copyOf(version, capacity);
+  }
+
+}
@@ -0,0 +1,62 @@
+package src;
+
+/**
+ * The standard product rules. The id is checked in a single pass over its
+ * characters instead of with regular expressions, since a regular expression is
+ * compiled every time {@link String#matches(String)} is called.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+class DefaultProductValidator implements ProductValidator {
+
+  @Override
+  public void validate(String id, int price, int quantity, int category) {
+
+    // The id cannot be null or empty, otherwise throw an exception
+    if (id == null || id.isEmpty()) {
+      throw new IllegalArgumentException("ID cannot be null or empty");
+    }
+
+    // The id has to contain BOTH strings and intigers for it to be valid, otherwise
+    // throw an exception
+    if (!hasLetterAndDigit(id)) {
+      throw new IllegalArgumentException("ID has to contain both strings and intigers");
+    }
+
+    // The category has to be an int between 1 and 5, otherwise throw an exception
+    if (category < 1 || category > 4) {
+      throw new IllegalArgumentException("Category has to be an int between 1 and 5");
+    }
+
+    // The quantity cannot be negative, otherwise throw an exception
+    if (quantity < 0) {
+      throw new IllegalArgumentException("Quantity cannot be negative");
+    }
+
+    // The price cannot be negative, otherwise throw an exception
+    if (price < 0) {
+      throw new IllegalArgumentException("Price cannot be negative");
+    }
+  }
+
+  /**
+   * Returns true if the id contains at least one letter from a to z (upper or
+   * lower case) and at least one digit from 0 to 9.
+   */
+  private static boolean hasLetterAndDigit(String id) {
+    boolean letter = false;
+    boolean digit = false;
+
+    for (int i = 0; i < id.length() && !(letter && digit); i++) {
+      char c = id.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        letter = true;
+      } else if (c >= '0' && c <= '9') {
+        digit = true;
+      }
+    }
+    return letter && digit;
+  }
+
+}
@@ -0,0 +1,158 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring, which decides which of a number of nodes owns a key.
+ * Every node is placed on the ring at many points, its virtual nodes, and a
+ * key is owned by the first virtual node after the hash of the key. When a
+ * node is added it only takes over the keys just before its own points, and
+ * when a node is removed only its own keys move, so most keys keep their owner.
+ *
+ * <p>
+ * The ring is not safe to use from several threads without a lock.
+ *
+ * @author Kandidat 10009
+ */
+class HashRing<T> {
+
+  private final int virtualNodes;
+
+  // The virtual nodes, keyed on their place on the ring.
+  private final TreeMap<Long, String> ring = new TreeMap<>();
+
+  // The nodes, keyed on their name, in the order they were added.
+  private final Map<String, T> nodes = new LinkedHashMap<>();
+
+  /**
+   * Creates an empty ring.
+   *
+   * @param virtualNodes The number of points on the ring for each node.
+   */
+  HashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("There has to be at least one virtual node");
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  /**
+   * Adds a node to the ring.
+   *
+   * @param name The name of the node, which decides its places on the ring.
+   * @param node The node.
+   */
+  void add(String name, T node) {
+    if (nodes.containsKey(name)) {
+      throw new IllegalArgumentException("The node " + name + " already exists");
+    }
+    nodes.put(name, node);
+    for (int i = 0; i < virtualNodes; i++) {
+      // Two names can in rare cases hash to the same place; the first keeps it
+      ring.putIfAbsent(hash(name + "#" + i), name);
+    }
+  }
+
+  /**
+   * Removes a node from the ring.
+   *
+   * @param name The name of the node.
+   * @return The node.
+   */
+  T remove(String name) {
+    T node = nodes.remove(name);
+    if (node == null) {
+      throw new NoSuchElementException("No node " + name + " exists");
+    }
+    ring.values().removeIf(name::equals);
+    return node;
+  }
+
+  /**
+   * Returns a new ring with the same nodes, which can be changed without
+   * changing this one. The nodes are added in the same order, so every key has
+   * the same owner in both.
+   */
+  HashRing<T> copy() {
+    HashRing<T> copy = new HashRing<>(virtualNodes);
+    nodes.forEach(copy::add);
+    return copy;
+  }
+
+  /**
+   * Returns the name of the node that owns a key.
+   *
+   * @param key The key.
+   * @return The name of the node.
+   */
+  String ownerName(String key) {
+    if (ring.isEmpty()) {
+      throw new IllegalStateException("The ring has no nodes");
+    }
+    Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+    return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+  }
+
+  /**
+   * Returns the node that owns a key.
+   */
+  T owner(String key) {
+    return nodes.get(ownerName(key));
+  }
+
+  /**
+   * Returns the node with the given name, or null if there is no such node.
+   */
+  T get(String name) {
+    return nodes.get(name);
+  }
+
+  /**
+   * Returns the names of the nodes, in the order they were added.
+   */
+  List<String> names() {
+    return Collections.unmodifiableList(new ArrayList<>(nodes.keySet()));
+  }
+
+  /**
+   * Returns the nodes, in the order they were added.
+   */
+  List<T> nodes() {
+    return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Hashes a string to a place on the ring. String.hashCode() is not used,
+   * since similar strings get similar hash codes, which would put the keys and
+   * virtual nodes in clusters.
+   */
+  static long hash(String value) {
+    // FNV-1a over the characters, followed by the finalizer of MurmurHash3 to
+    // spread the bits
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+}
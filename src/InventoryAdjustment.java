@@ -0,0 +1,40 @@
+package src;
+
+/**
+ * This class represents one line of an inventory batch: a change of the
+ * quantity of one product.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class InventoryAdjustment {
+
+  private final String id;
+  private final int delta;
+
+  /**
+   * Constructor for an inventory adjustment.
+   * 
+   * @param id    The id of the product to adjust.
+   * @param delta The change in quantity. Positive to add products, negative to
+   *              remove products.
+   */
+  public InventoryAdjustment(String id, int delta) {
+    this.id = id;
+    this.delta = delta;
+  }
+
+  public String getID() {
+    return id;
+  }
+
+  public int getDelta() {
+    return delta;
+  }
+
+  @Override
+  public String toString() {
+    return id + " " + (delta < 0 ? "" : "+") + delta;
+  }
+
+}
@@ -0,0 +1,75 @@
+package src;
+
+/**
+ * This class represents the result of one line of an inventory batch.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class InventoryAdjustmentResult {
+
+  /**
+   * The outcome of a line in a batch.
+   */
+  public enum Status {
+    // The line was applied to the register.
+    APPLIED,
+    // The line is invalid, and caused the batch to be rejected.
+    REJECTED,
+    // The line is valid, but was not applied because another line was rejected.
+    NOT_APPLIED
+  }
+
+  private final InventoryAdjustment adjustment;
+  private final Status status;
+  private final int quantity;
+  private final String message;
+
+  /**
+   * Constructor for the result of a line.
+   * 
+   * @param adjustment The line the result belongs to.
+   * @param status     The outcome of the line.
+   * @param quantity   The quantity of the product after the line, or -1 if the
+   *                   product does not exist.
+   * @param message    Why the line was rejected, or null.
+   */
+  InventoryAdjustmentResult(InventoryAdjustment adjustment, Status status, int quantity, String message) {
+    this.adjustment = adjustment;
+    this.status = status;
+    this.quantity = quantity;
+    this.message = message;
+  }
+
+  public InventoryAdjustment getAdjustment() {
+    return adjustment;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Returns the quantity the product has (or would have had) after this line.
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * Returns false if the line was rejected because its product does not exist.
+   */
+  public boolean isProductFound() {
+    return quantity >= 0;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return adjustment + ": " + status + (message == null ? "" : " (" + message + ")");
+  }
+
+}
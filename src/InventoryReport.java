@@ -0,0 +1,190 @@
+package src;
+
+import java.util.Collections;
+import java.util.DoubleSummaryStatistics;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Figures about the products that meet a query, computed by going through the
+ * products, see {@link ProductRegister#aggregate(ProductQuery)}. The report has
+ * the totals of all the products and of each category, and statistics of the
+ * weight, length and height of the products, for shipping planning.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class InventoryReport {
+
+  private final InventoryTotals total;
+  private final Map<Category, InventoryTotals> byCategory;
+  private final DoubleSummaryStatistics weight;
+  private final DoubleSummaryStatistics length;
+  private final DoubleSummaryStatistics height;
+
+  private InventoryReport(InventoryTotals total, Map<Category, InventoryTotals> byCategory,
+      DoubleSummaryStatistics weight, DoubleSummaryStatistics length, DoubleSummaryStatistics height) {
+    this.total = total;
+    this.byCategory = Collections.unmodifiableMap(byCategory);
+    this.weight = weight;
+    this.length = length;
+    this.height = height;
+  }
+
+  /**
+   * Returns the totals of all the products in the report.
+   */
+  public InventoryTotals getTotal() {
+    return total;
+  }
+
+  /**
+   * Returns the totals of the products in one category.
+   *
+   * @param category The category.
+   * @return The totals, which are zero if no product in the category is in the
+   *         report.
+   */
+  public InventoryTotals getCategory(Category category) {
+    return byCategory.get(category);
+  }
+
+  /**
+   * Returns the totals of every category.
+   */
+  public Map<Category, InventoryTotals> getByCategory() {
+    return byCategory;
+  }
+
+  /**
+   * Returns statistics of the weight of the products, in kg. Each product is
+   * counted once, regardless of its quantity.
+   */
+  public DoubleSummaryStatistics getWeight() {
+    return copy(weight);
+  }
+
+  /**
+   * Returns statistics of the length of the products.
+   */
+  public DoubleSummaryStatistics getLength() {
+    return copy(length);
+  }
+
+  /**
+   * Returns statistics of the height of the products.
+   */
+  public DoubleSummaryStatistics getHeight() {
+    return copy(height);
+  }
+
+  private static DoubleSummaryStatistics copy(DoubleSummaryStatistics statistics) {
+    DoubleSummaryStatistics copy = new DoubleSummaryStatistics();
+    copy.combine(statistics);
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Total: ").append(total);
+    byCategory.forEach((category, totals) -> builder.append('\n').append(category).append(": ").append(totals));
+    return builder.toString();
+  }
+
+  /**
+   * Collects the figures of a report from a part of the products. Each thread
+   * of a parallel reduction fills its own accumulator, and the accumulators are
+   * combined at the end.
+   */
+  static final class Accumulator {
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final ProductQuery query;
+    private final long[] products = new long[CATEGORIES.length];
+    private final long[] quantity = new long[CATEGORIES.length];
+    private final long[] stockValue = new long[CATEGORIES.length];
+    private final double[] stockWeight = new double[CATEGORIES.length];
+    private final DoubleSummaryStatistics weight = new DoubleSummaryStatistics();
+    private final DoubleSummaryStatistics length = new DoubleSummaryStatistics();
+    private final DoubleSummaryStatistics height = new DoubleSummaryStatistics();
+
+    Accumulator(ProductQuery query) {
+      this.query = query;
+    }
+
+    /**
+     * Adds a product, if it meets the query. The values are read while holding
+     * the lock of the product, so they are from the same moment, but the
+     * product is not copied.
+     */
+    void add(Product product) {
+      Category category;
+      int price;
+      int count;
+      double productWeight;
+      double productLength;
+      double productHeight;
+      ProductLocks.lock(product);
+      try {
+        category = product.getCategory();
+        price = product.getPrice();
+        count = product.getQuantity();
+        productWeight = product.getWeight();
+        productLength = product.getLength();
+        productHeight = product.getHeight();
+      } finally {
+        ProductLocks.unlock(product);
+      }
+      if (!query.matches(category, price, count)) {
+        return;
+      }
+
+      int index = category.ordinal();
+      products[index]++;
+      quantity[index] += count;
+      stockValue[index] += (long) price * count;
+      stockWeight[index] += productWeight * count;
+      weight.accept(productWeight);
+      length.accept(productLength);
+      height.accept(productHeight);
+    }
+
+    /**
+     * Adds the figures of another accumulator to this one.
+     */
+    void combine(Accumulator other) {
+      for (int i = 0; i < CATEGORIES.length; i++) {
+        products[i] += other.products[i];
+        quantity[i] += other.quantity[i];
+        stockValue[i] += other.stockValue[i];
+        stockWeight[i] += other.stockWeight[i];
+      }
+      weight.combine(other.weight);
+      length.combine(other.length);
+      height.combine(other.height);
+    }
+
+    /**
+     * Creates the report.
+     */
+    InventoryReport build() {
+      Map<Category, InventoryTotals> byCategory = new EnumMap<>(Category.class);
+      long totalProducts = 0;
+      long totalQuantity = 0;
+      long totalValue = 0;
+      double totalWeight = 0;
+      for (Category category : CATEGORIES) {
+        int i = category.ordinal();
+        byCategory.put(category, new InventoryTotals(products[i], quantity[i], stockValue[i], stockWeight[i]));
+        totalProducts += products[i];
+        totalQuantity += quantity[i];
+        totalValue += stockValue[i];
+        totalWeight += stockWeight[i];
+      }
+      InventoryTotals total = new InventoryTotals(totalProducts, totalQuantity, totalValue, totalWeight);
+      return new InventoryReport(total, byCategory, weight, length, height);
+    }
+  }
+
+}
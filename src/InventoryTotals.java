@@ -0,0 +1,60 @@
+package src;
+
+/**
+ * Totals over a group of products: how many there are, how many items are in
+ * stock, and what the stock is worth and weighs. See
+ * {@link ProductRegister#getInventoryTotals()} and {@link InventoryReport}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class InventoryTotals {
+
+  private final long products;
+  private final long quantity;
+  private final long stockValue;
+  private final double stockWeight;
+
+  InventoryTotals(long products, long quantity, long stockValue, double stockWeight) {
+    this.products = products;
+    this.quantity = quantity;
+    this.stockValue = stockValue;
+    this.stockWeight = stockWeight;
+  }
+
+  /**
+   * Returns the number of products.
+   */
+  public long getProductCount() {
+    return products;
+  }
+
+  /**
+   * Returns the sum of the quantities of the products.
+   */
+  public long getTotalQuantity() {
+    return quantity;
+  }
+
+  /**
+   * Returns the value of the stock, that is the sum of price times quantity.
+   */
+  public long getStockValue() {
+    return stockValue;
+  }
+
+  /**
+   * Returns the weight of the stock in kg, that is the sum of weight times
+   * quantity.
+   */
+  public double getStockWeight() {
+    return stockWeight;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d products, %d in stock, value %d, weight %.1f kg",
+        products, quantity, stockValue, stockWeight);
+  }
+
+}
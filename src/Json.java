@@ -0,0 +1,215 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes products as JSON, and reads the small JSON objects that clients send
+ * to the {@link RegisterServer}. Only objects with strings, numbers, booleans
+ * and null as values can be read, which is all the server needs.
+ *
+ * @author Kandidat 10009
+ *
+ */
+final class Json {
+
+  private Json() {
+  }
+
+  /**
+   * Appends a product as a JSON object.
+   *
+   * @param out     The builder to append to.
+   * @param product The product.
+   * @return The builder.
+   */
+  static StringBuilder appendProduct(StringBuilder out, ProductView product) {
+    out.append("{\"id\":");
+    appendString(out, product.getID());
+    out.append(",\"price\":").append(product.getPrice());
+    out.append(",\"description\":");
+    appendString(out, product.getDescription());
+    out.append(",\"brandName\":");
+    appendString(out, product.getBrandName());
+    out.append(",\"weight\":").append(product.getWeight());
+    out.append(",\"length\":").append(product.getLength());
+    out.append(",\"height\":").append(product.getHeight());
+    out.append(",\"color\":");
+    appendString(out, product.getColor());
+    out.append(",\"quantity\":").append(product.getQuantity());
+    out.append(",\"category\":").append(product.getCategory().getValue());
+    out.append(",\"version\":").append(product.getVersion());
+    return out.append('}');
+  }
+
+  /**
+   * Appends a list of products as a JSON array.
+   *
+   * @param out      The builder to append to.
+   * @param products The products.
+   * @return The builder.
+   */
+  static StringBuilder appendProducts(StringBuilder out, List<ProductView> products) {
+    out.append('[');
+    for (int i = 0; i < products.size(); i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      appendProduct(out, products.get(i));
+    }
+    return out.append(']');
+  }
+
+  /**
+   * Appends a string as a JSON string, or null.
+   *
+   * @param out   The builder to append to.
+   * @param value The string, may be null.
+   * @return The builder.
+   */
+  static StringBuilder appendString(StringBuilder out, String value) {
+    if (value == null) {
+      return out.append("null");
+    }
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"' -> out.append("\\\"");
+        case '\\' -> out.append("\\\\");
+        case '\n' -> out.append("\\n");
+        case '\r' -> out.append("\\r");
+        case '\t' -> out.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+        }
+      }
+    }
+    return out.append('"');
+  }
+
+  /**
+   * Reads a JSON object where every value is a string, a number, a boolean or
+   * null. Numbers and booleans are returned as their text, and null as a null
+   * value.
+   *
+   * @param text The JSON text.
+   * @return The members of the object, in the order they were read.
+   * @throws IllegalArgumentException If the text is not such an object.
+   */
+  static Map<String, String> parseObject(String text) {
+    Parser parser = new Parser(text);
+    Map<String, String> members = new LinkedHashMap<>();
+
+    parser.expect('{');
+    if (!parser.consume('}')) {
+      do {
+        String name = parser.string();
+        parser.expect(':');
+        members.put(name, parser.value());
+      } while (parser.consume(','));
+      parser.expect('}');
+    }
+    parser.skipSpace();
+    if (parser.position != text.length()) {
+      throw new IllegalArgumentException("Unexpected text after the JSON object");
+    }
+    return members;
+  }
+
+  /**
+   * Reads the parts of a JSON text, one at a time.
+   */
+  private static final class Parser {
+    private final String text;
+    private int position;
+
+    private Parser(String text) {
+      this.text = text;
+    }
+
+    private void skipSpace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private boolean consume(char c) {
+      skipSpace();
+      if (position < text.length() && text.charAt(position) == c) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if (!consume(c)) {
+        throw new IllegalArgumentException("Expected '" + c + "' at position " + position);
+      }
+    }
+
+    private String value() {
+      skipSpace();
+      if (position < text.length() && text.charAt(position) == '"') {
+        return string();
+      }
+
+      int start = position;
+      while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+        position++;
+      }
+      String value = text.substring(start, position);
+      if (value.equals("null")) {
+        return null;
+      }
+      if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+        throw new IllegalArgumentException("Expected a string, number or boolean at position " + start);
+      }
+      return value;
+    }
+
+    private String string() {
+      expect('"');
+      StringBuilder value = new StringBuilder();
+      while (true) {
+        if (position >= text.length()) {
+          throw new IllegalArgumentException("Unterminated string");
+        }
+        char c = text.charAt(position++);
+        if (c == '"') {
+          return value.toString();
+        }
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        if (position >= text.length()) {
+          throw new IllegalArgumentException("Unterminated string");
+        }
+        char escaped = text.charAt(position++);
+        switch (escaped) {
+          case 'n' -> value.append('\n');
+          case 'r' -> value.append('\r');
+          case 't' -> value.append('\t');
+          case 'b' -> value.append('\b');
+          case 'f' -> value.append('\f');
+          case 'u' -> {
+            if (position + 4 > text.length()) {
+              throw new IllegalArgumentException("Unterminated string");
+            }
+            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+            position += 4;
+          }
+          default -> value.append(escaped);
+        }
+      }
+    }
+  }
+
+}
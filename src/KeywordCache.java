@@ -0,0 +1,237 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A cache of the results of keyword searches, so a search that is repeated does
+ * not have to go through the keyword index again. A search is cached under its
+ * normalized form, so "Door, green" and "door,GREEN" share an entry, and only
+ * the products are stored, not their values, so a cached result always shows
+ * the current prices and quantities.
+ *
+ * <p>
+ * The result of a search can only change when a product with a matching word
+ * in its description is added or removed, or gets a new description. When that
+ * happens, exactly the entries with a search word that matches one of the
+ * words of the description are thrown away. For a partial search, a word
+ * matches every description word that contains it.
+ *
+ * <p>
+ * The cache holds a limited number of products in total. When it is full, the
+ * entries that were used the longest time ago are thrown away first.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class KeywordCache {
+
+  // The default number of products the cache may hold, counted over all
+  // entries.
+  static final int DEFAULT_CAPACITY = 1 << 20;
+
+  // Description words longer than this are matched against the partial search
+  // words one by one, instead of looking up every part of the word.
+  private static final int MAX_SUBSTRING_LOOKUP = 32;
+
+  /**
+   * A cached search.
+   */
+  private static final class Entry {
+    private final String key;
+    private final List<String> words;
+    private final boolean partialMatch;
+    private final Product[] products;
+
+    private Entry(String key, List<String> words, boolean partialMatch, Product[] products) {
+      this.key = key;
+      this.words = words;
+      this.partialMatch = partialMatch;
+      this.products = products;
+    }
+  }
+
+  private final int capacity;
+
+  // The entries, with the one used the longest time ago first.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  // Search word -> entries of searches that contain the word, for whole words
+  // and for parts of words.
+  private final Map<String, Set<Entry>> wholeWords = new HashMap<>();
+  private final Map<String, Set<Entry>> partialWords = new HashMap<>();
+
+  // The number of products held by all entries.
+  private long size;
+
+  // Goes up by one on every invalidation, so a search that ran while the index
+  // changed is not cached.
+  private long generation;
+
+  private long hits;
+  private long misses;
+  private long invalidations;
+  private long evictions;
+
+  KeywordCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the products that match a search, from the cache or by running the
+   * search.
+   *
+   * @param keywords     The keywords, as in {@link KeywordIndex#find}.
+   * @param matchAll     If all keywords have to match.
+   * @param partialMatch If parts of words match.
+   * @param search       Runs the search on the index.
+   * @return The matching products.
+   */
+  Product[] get(List<String> keywords, boolean matchAll, boolean partialMatch,
+      Supplier<Collection<Product>> search) {
+    List<String> words = new ArrayList<>();
+    StringBuilder key = new StringBuilder();
+    key.append(matchAll ? 'A' : 'O').append(partialMatch ? 'P' : 'W');
+    for (String keyword : keywords) {
+      List<String> tokens = KeywordIndex.tokenize(keyword);
+      if (!tokens.isEmpty()) {
+        // The whole keyword, since a phrase only matches its own characters
+        key.append(',').append(keyword.toLowerCase(Locale.ROOT));
+        words.addAll(tokens);
+      }
+    }
+    String normalized = key.toString();
+
+    long started;
+    synchronized (this) {
+      Entry entry = entries.get(normalized);
+      if (entry != null) {
+        hits++;
+        return entry.products;
+      }
+      misses++;
+      started = generation;
+    }
+
+    Product[] products = search.get().toArray(new Product[0]);
+
+    synchronized (this) {
+      // If the index changed while searching, the result may already be stale
+      if (generation == started && products.length <= capacity && !entries.containsKey(normalized)) {
+        Entry entry = new Entry(normalized, words, partialMatch, products);
+        entries.put(normalized, entry);
+        Map<String, Set<Entry>> index = partialMatch ? partialWords : wholeWords;
+        for (String word : words) {
+          index.computeIfAbsent(word, w -> new HashSet<>()).add(entry);
+        }
+        size += products.length;
+        evict();
+      }
+    }
+    return products;
+  }
+
+  /**
+   * Throws away the searches that a description may be part of the result of.
+   * Must be called after the keyword index has been changed.
+   *
+   * @param description The description of a product that was added or removed,
+   *                    or the old or new description of a changed product.
+   */
+  void invalidate(String description) {
+    synchronized (this) {
+      generation++;
+      if (entries.isEmpty()) {
+        return;
+      }
+
+      List<String> tokens = KeywordIndex.tokenize(description);
+
+      Set<Entry> affected = new HashSet<>();
+      for (String token : tokens) {
+        Set<Entry> whole = wholeWords.get(token);
+        if (whole != null) {
+          affected.addAll(whole);
+        }
+        if (partialWords.isEmpty()) {
+          continue;
+        }
+        if (token.length() <= MAX_SUBSTRING_LOOKUP) {
+          for (int start = 0; start < token.length(); start++) {
+            for (int end = start + 1; end <= token.length(); end++) {
+              Set<Entry> partial = partialWords.get(token.substring(start, end));
+              if (partial != null) {
+                affected.addAll(partial);
+              }
+            }
+          }
+        } else {
+          partialWords.forEach((word, partial) -> {
+            if (token.contains(word)) {
+              affected.addAll(partial);
+            }
+          });
+        }
+      }
+
+      for (Entry entry : affected) {
+        remove(entry);
+        invalidations++;
+      }
+    }
+  }
+
+  /**
+   * Returns the statistics of the cache.
+   *
+   * @return A copy of the current numbers.
+   */
+  synchronized SearchCacheStats stats() {
+    return new SearchCacheStats(hits, misses, invalidations, evictions, entries.size(), size);
+  }
+
+  /**
+   * Throws away the entries used the longest time ago until the cache is no
+   * longer too full.
+   */
+  private void evict() {
+    Iterator<Entry> oldest = entries.values().iterator();
+    while (size > capacity && oldest.hasNext()) {
+      Entry entry = oldest.next();
+      oldest.remove();
+      unlink(entry);
+      evictions++;
+    }
+  }
+
+  private void remove(Entry entry) {
+    if (entries.remove(entry.key) != null) {
+      unlink(entry);
+    }
+  }
+
+  /**
+   * Removes an entry from the word indexes, after it has been removed from the
+   * entries.
+   */
+  private void unlink(Entry entry) {
+    Map<String, Set<Entry>> index = entry.partialMatch ? partialWords : wholeWords;
+    for (String word : entry.words) {
+      Set<Entry> set = index.get(word);
+      if (set != null && set.remove(entry) && set.isEmpty()) {
+        index.remove(word);
+      }
+    }
+    size -= entry.products.length;
+  }
+
+}
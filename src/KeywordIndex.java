@@ -0,0 +1,241 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index over the descriptions of the products in a register. Every
+ * word (token) of a description points to the products that contain it, so a
+ * keyword search only has to look at the products that actually match.
+ *
+ * <p>
+ * To support searching for parts of words, every token is also split into
+ * n-grams (substrings of length {@link #GRAM_LENGTH}), and every n-gram points
+ * to the tokens that contain it.
+ *
+ * <p>
+ * The index is safe to use from several threads.
+ *
+ * @author Kandidat 10009
+ */
+class KeywordIndex {
+
+  // The length of the n-grams used for partial matching.
+  static final int GRAM_LENGTH = 3;
+
+  // Token -> products whose description contains the token.
+  private final Map<String, Set<Product>> postings = new HashMap<>();
+
+  // N-gram -> tokens that contain the n-gram.
+  private final Map<String, Set<String>> grams = new HashMap<>();
+
+  /**
+   * Adds a product to the index, using its current description.
+   *
+   * @param product The product to be added.
+   */
+  synchronized void add(Product product) {
+    for (String token : tokenize(product.getDescription())) {
+      Set<Product> products = postings.get(token);
+      if (products == null) {
+        products = new LinkedHashSet<>();
+        postings.put(token, products);
+        addGrams(token);
+      }
+      products.add(product);
+    }
+  }
+
+  /**
+   * Removes a product from the index.
+   *
+   * @param product     The product to be removed.
+   * @param description The description the product was indexed with.
+   */
+  synchronized void remove(Product product, String description) {
+    for (String token : tokenize(description)) {
+      Set<Product> products = postings.get(token);
+      if (products != null && products.remove(product) && products.isEmpty()) {
+        postings.remove(token);
+        removeGrams(token);
+      }
+    }
+  }
+
+  /**
+   * Finds the products that match a list of keywords. A keyword with several
+   * words is a phrase: it matches a product only if the description has the
+   * words next to each other, in the same order and with the same characters
+   * between them. The index finds the products that have all the words, and
+   * their descriptions are then checked for the phrase.
+   *
+   * @param keywords     The keywords to search for.
+   * @param matchAll     If true, a product has to match every keyword (AND),
+   *                     otherwise it is enough to match one of them (OR).
+   * @param partialMatch If true, a word matches any token that contains it,
+   *                     otherwise the token has to be equal to the word.
+   * @return The matching products, in the order they were indexed.
+   */
+  synchronized Set<Product> find(Collection<String> keywords, boolean matchAll, boolean partialMatch) {
+    Set<Product> result = null;
+
+    for (String keyword : keywords) {
+      List<String> words = tokenize(keyword);
+      if (words.isEmpty()) {
+        continue;
+      }
+
+      Set<Product> matches = null;
+      for (String word : words) {
+        Set<Product> products = partialMatch ? findPartial(word) : postings.get(word);
+        matches = intersect(matches, products);
+      }
+      if (words.size() > 1 || !words.get(0).equals(keyword.toLowerCase(Locale.ROOT))) {
+        matches.removeIf(product -> !contains(product.getDescription(), keyword, partialMatch));
+      }
+
+      if (result == null) {
+        result = matches;
+      } else if (matchAll) {
+        result = intersect(result, matches);
+      } else {
+        result.addAll(matches);
+      }
+    }
+
+    return result == null ? new LinkedHashSet<>() : result;
+  }
+
+  /**
+   * Splits a text into lower case tokens. Everything that is not a letter or a
+   * digit separates two tokens.
+   *
+   * @param text The text to split, may be null.
+   * @return The tokens of the text, without duplicates.
+   */
+  static List<String> tokenize(String text) {
+    if (text == null || text.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Set<String> tokens = new LinkedHashSet<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean partOfToken = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (partOfToken && start < 0) {
+        start = i;
+      } else if (!partOfToken && start >= 0) {
+        tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return new ArrayList<>(tokens);
+  }
+
+  /**
+   * Checks if a description contains a keyword, without regard to case.
+   *
+   * @param description  The description, may be null.
+   * @param keyword      The keyword.
+   * @param partialMatch If false, the keyword has to start and end at the
+   *                     start and end of words.
+   * @return True if the description contains the keyword.
+   */
+  static boolean contains(String description, String keyword, boolean partialMatch) {
+    if (description == null) {
+      return false;
+    }
+    String text = description.toLowerCase(Locale.ROOT);
+    String phrase = keyword.toLowerCase(Locale.ROOT);
+    for (int i = text.indexOf(phrase); i >= 0; i = text.indexOf(phrase, i + 1)) {
+      if (partialMatch || (!isWordAt(text, i - 1) && !isWordAt(text, i + phrase.length()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWordAt(String text, int index) {
+    return index >= 0 && index < text.length() && Character.isLetterOrDigit(text.charAt(index));
+  }
+
+  /**
+   * Returns all products with a token that contains the given word.
+   */
+  private Set<Product> findPartial(String word) {
+    Set<Product> result = new LinkedHashSet<>();
+
+    if (word.length() < GRAM_LENGTH) {
+      // Too short to have an n-gram, so look through the tokens instead. There
+      // are far fewer distinct tokens than products.
+      postings.forEach((token, products) -> {
+        if (token.contains(word)) {
+          result.addAll(products);
+        }
+      });
+      return result;
+    }
+
+    Set<String> candidates = null;
+    for (int i = 0; i + GRAM_LENGTH <= word.length(); i++) {
+      Set<String> tokens = grams.get(word.substring(i, i + GRAM_LENGTH));
+      if (tokens == null) {
+        return result;
+      }
+      if (candidates == null || tokens.size() < candidates.size()) {
+        candidates = tokens;
+      }
+    }
+
+    for (String token : candidates) {
+      if (token.contains(word)) {
+        result.addAll(postings.get(token));
+      }
+    }
+    return result;
+  }
+
+  private void addGrams(String token) {
+    for (int i = 0; i + GRAM_LENGTH <= token.length(); i++) {
+      grams.computeIfAbsent(token.substring(i, i + GRAM_LENGTH), g -> new LinkedHashSet<>()).add(token);
+    }
+  }
+
+  private void removeGrams(String token) {
+    for (int i = 0; i + GRAM_LENGTH <= token.length(); i++) {
+      String gram = token.substring(i, i + GRAM_LENGTH);
+      Set<String> tokens = grams.get(gram);
+      if (tokens != null && tokens.remove(token) && tokens.isEmpty()) {
+        grams.remove(gram);
+      }
+    }
+  }
+
+  /**
+   * Returns a new set with the products that are in both sets. A null set means
+   * that nothing has been matched yet, and is treated as "everything".
+   */
+  private static Set<Product> intersect(Set<Product> first, Set<Product> second) {
+    if (second == null) {
+      return new LinkedHashSet<>();
+    }
+    if (first == null) {
+      return new LinkedHashSet<>(second);
+    }
+
+    Set<Product> result = new LinkedHashSet<>();
+    for (Product product : first) {
+      if (second.contains(product)) {
+        result.add(product);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,203 @@
+package src;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A load generator for the {@link RegisterServer}. A number of clients send
+ * requests as fast as they can for a while, and the throughput and latency
+ * percentiles are printed at the end. Most requests read a product, and the rest
+ * search for keywords and change prices.
+ *
+ * <p>
+ * Without a URL, a server with a generated register is started in the same
+ * process, which is handy for a quick check but makes the clients and the
+ * server share the processors.
+ *
+ * <p>
+ * Run with: {@code java src.LoadGenerator [clients] [seconds] [url]}
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class LoadGenerator {
+
+  private static final int PRODUCTS = 10_000;
+
+  // Of every 100 requests, this many read a product and this many search for
+  // two keywords. The rest change a price.
+  private static final int READS = 90;
+  private static final int SEARCHES = 5;
+
+  /**
+   * Counts latencies in buckets that are about 3% wide, so percentiles can be
+   * found without keeping every latency.
+   */
+  static final class LatencyHistogram {
+    // Each power of two is split into this many buckets.
+    private static final int SUB_BUCKETS = 32;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    /**
+     * Counts a latency in microseconds.
+     */
+    void record(long micros) {
+      counts.incrementAndGet(bucket(Math.max(1, micros)));
+    }
+
+    /**
+     * Returns the latency in microseconds that the given fraction of the
+     * latencies are at or below.
+     */
+    long percentile(double fraction) {
+      long total = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        total += counts.get(i);
+      }
+      long wanted = (long) Math.ceil(total * fraction);
+      long seen = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        seen += counts.get(i);
+        if (seen >= wanted && seen > 0) {
+          return upperBound(i);
+        }
+      }
+      return 0;
+    }
+
+    private static int bucket(long value) {
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      if (exponent < 5) {
+        return (int) value;
+      }
+      int fraction = (int) (value >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+      return exponent * SUB_BUCKETS + fraction;
+    }
+
+    private static long upperBound(int bucket) {
+      int exponent = bucket / SUB_BUCKETS;
+      if (exponent < 5) {
+        return bucket;
+      }
+      long fraction = bucket % SUB_BUCKETS;
+      return ((SUB_BUCKETS + fraction + 1) << (exponent - 5)) - 1;
+    }
+  }
+
+  /**
+   * Runs the load and prints the results.
+   *
+   * @param args The number of clients, the number of seconds and the URL of the
+   *             server, all optional.
+   */
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    RegisterServer local = null;
+    String url;
+    if (args.length > 2) {
+      url = args[2];
+    } else {
+      ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+      new CatalogGenerator(42).populate(register, PRODUCTS);
+      local = RegisterServer.start(register, 0);
+      url = "http://localhost:" + local.getPort();
+    }
+
+    HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    CatalogGenerator keywords = new CatalogGenerator(7);
+    String[] searches = new String[1000];
+    for (int i = 0; i < searches.length; i++) {
+      searches[i] = keywords.randomKeyword();
+    }
+
+    // Warm up the server and the client before measuring
+    run(client, url, searches, Math.min(clients, 50), 2, new LatencyHistogram(), new AtomicLong());
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    AtomicLong errors = new AtomicLong();
+    long start = System.nanoTime();
+    long requests = run(client, url, searches, clients, seconds, histogram, errors);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("%d clients, %d requests in %.1f s, %d errors%n", clients, requests, elapsed, errors.get());
+    System.out.printf("Throughput: %.0f requests/s%n", requests / elapsed);
+    System.out.printf("Latency (us): p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+        histogram.percentile(0.50), histogram.percentile(0.90), histogram.percentile(0.99),
+        histogram.percentile(0.999), histogram.percentile(1.0));
+
+    if (local != null) {
+      local.stop();
+    }
+  }
+
+  /**
+   * Lets each client send requests, one at a time, until the time is up.
+   *
+   * @return The number of requests that were sent.
+   */
+  private static long run(HttpClient client, String url, String[] searches, int clients, int seconds,
+      LatencyHistogram histogram, AtomicLong errors) throws InterruptedException {
+    AtomicLong requests = new AtomicLong();
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+    ExecutorService executor = RegisterServer.newExecutor();
+    for (int i = 0; i < clients; i++) {
+      executor.execute(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+          HttpRequest request = request(url, searches, random);
+          long sent = System.nanoTime();
+          try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 500) {
+              errors.incrementAndGet();
+            }
+          } catch (IOException e) {
+            errors.incrementAndGet();
+          } catch (InterruptedException e) {
+            return;
+          }
+          histogram.record((System.nanoTime() - sent) / 1000);
+          requests.incrementAndGet();
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    return requests.get();
+  }
+
+  private static HttpRequest request(String url, String[] searches, ThreadLocalRandom random) {
+    String id = "ID" + random.nextInt(PRODUCTS);
+    int kind = random.nextInt(100);
+    if (kind < READS) {
+      return HttpRequest.newBuilder(URI.create(url + "/products/" + id)).GET().build();
+    }
+    if (kind < READS + SEARCHES) {
+      String keywords = searches[random.nextInt(searches.length)] + "," + searches[random.nextInt(searches.length)];
+      String query = "/search?all=true&partial=false&q=" + URLEncoder.encode(keywords, StandardCharsets.UTF_8);
+      return HttpRequest.newBuilder(URI.create(url + query)).GET().build();
+    }
+    String body = "{\"price\":" + random.nextInt(1, 10_000) + "}";
+    return HttpRequest.newBuilder(URI.create(url + "/products/" + id + "/price"))
+        .PUT(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+}
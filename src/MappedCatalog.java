@@ -0,0 +1,289 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A read-only catalog of products in a compact binary file, which is mapped
+ * into memory instead of being read. Opening a catalog only maps the file, and a
+ * product is decoded from the file when it is asked for, so a catalog opens
+ * just as fast no matter how many products it has.
+ *
+ * <p>
+ * The file has four parts:
+ * <ul>
+ * <li>A header with the number of products and where the other parts start.</li>
+ * <li>One fixed-width record per product. Numbers are stored directly, and
+ * strings as references into the string table.</li>
+ * <li>A string table. Every distinct string is stored once, so brand names and
+ * colors that are shared by many products take almost no space.</li>
+ * <li>A hash table from product id to record, so a product can be found without
+ * reading the other records.</li>
+ * </ul>
+ *
+ * <p>
+ * A catalog file cannot be larger than 2 GB.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class MappedCatalog {
+
+  private static final int MAGIC = 0x50524d43;
+  private static final int HEADER_SIZE = 32;
+
+  // id, price, description, brand name, color, quantity, category (7 ints) and
+  // weight, length, height (3 doubles)
+  private static final int RECORD_SIZE = 7 * 4 + 3 * 8;
+
+  // A hash table slot is the hash of the id and the record number plus one,
+  // where zero means that the slot is empty.
+  private static final int SLOT_SIZE = 8;
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int stringTable;
+  private final int stringCount;
+  private final int hashTable;
+  private final int slots;
+
+  private MappedCatalog(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a catalog file");
+    }
+    this.size = buffer.getInt(4);
+    this.stringCount = buffer.getInt(8);
+    this.stringTable = buffer.getInt(12);
+    this.hashTable = buffer.getInt(16);
+    this.slots = buffer.getInt(20);
+  }
+
+  /**
+   * Maps a catalog file into memory.
+   *
+   * @param path The catalog file.
+   * @return The catalog.
+   * @throws IOException If the file could not be mapped, or is not a catalog.
+   */
+  public static MappedCatalog open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedCatalog(buffer);
+    }
+  }
+
+  /**
+   * Writes all the products in a register to a catalog file.
+   *
+   * @param register The register to write.
+   * @param path     The catalog file.
+   * @throws IOException If the file could not be written.
+   */
+  public static void write(ProductRegister register, Path path) throws IOException {
+    List<ProductView> products = new ArrayList<>();
+    try (RegisterSnapshot snapshot = register.snapshot()) {
+      snapshot.forEach(products::add);
+    }
+
+    // Give every distinct string a number
+    Map<String, Integer> strings = new HashMap<>();
+    List<String> table = new ArrayList<>();
+    for (ProductView product : products) {
+      for (String value : new String[] { product.getID(), product.getDescription(), product.getBrandName(),
+          product.getColor() }) {
+        if (value != null && !strings.containsKey(value)) {
+          strings.put(value, table.size());
+          table.add(value);
+        }
+      }
+    }
+
+    List<byte[]> encoded = new ArrayList<>(table.size());
+    long stringBytes = 0;
+    for (String value : table) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      encoded.add(bytes);
+      stringBytes += 4 + bytes.length;
+    }
+
+    int slots = Integer.highestOneBit(Math.max(1, products.size()) * 2) * 2;
+    long stringTable = HEADER_SIZE + (long) products.size() * RECORD_SIZE;
+    long hashTable = stringTable + 4L * table.size() + stringBytes;
+    long total = hashTable + (long) slots * SLOT_SIZE;
+    if (total > Integer.MAX_VALUE) {
+      throw new IOException("The catalog is too large for one file");
+    }
+
+    // Build the hash table
+    int[] hashes = new int[slots];
+    int[] records = new int[slots];
+    for (int i = 0; i < products.size(); i++) {
+      int hash = hash(ProductRegister.normalizeId(products.get(i).getID()));
+      int slot = hash & (slots - 1);
+      while (records[slot] != 0) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      hashes[slot] = hash;
+      records[slot] = i + 1;
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(products.size());
+      out.writeInt(table.size());
+      out.writeInt((int) stringTable);
+      out.writeInt((int) hashTable);
+      out.writeInt(slots);
+      out.writeLong(0);
+
+      for (ProductView product : products) {
+        out.writeInt(reference(strings, product.getID()));
+        out.writeInt(product.getPrice());
+        out.writeInt(reference(strings, product.getDescription()));
+        out.writeInt(reference(strings, product.getBrandName()));
+        out.writeInt(reference(strings, product.getColor()));
+        out.writeInt(product.getQuantity());
+        out.writeInt(product.getCategory().getValue());
+        out.writeDouble(product.getWeight());
+        out.writeDouble(product.getLength());
+        out.writeDouble(product.getHeight());
+      }
+
+      // The offsets of the strings, followed by the strings
+      int offset = (int) (stringTable + 4L * table.size());
+      for (byte[] bytes : encoded) {
+        out.writeInt(offset);
+        offset += 4 + bytes.length;
+      }
+      for (byte[] bytes : encoded) {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      for (int slot = 0; slot < slots; slot++) {
+        out.writeInt(hashes[slot]);
+        out.writeInt(records[slot]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of products in the catalog.
+   *
+   * @return The number of products.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finds a product by its id, without regard to case.
+   *
+   * @param id The id of the product.
+   * @return The product, or null if there is no product with the id.
+   */
+  public ProductView get(String id) {
+    String key = ProductRegister.normalizeId(id);
+    int hash = hash(key);
+    int slot = hash & (slots - 1);
+
+    while (true) {
+      int position = hashTable + slot * SLOT_SIZE;
+      int record = buffer.getInt(position + 4);
+      if (record == 0) {
+        return null;
+      }
+      if (buffer.getInt(position) == hash) {
+        String candidate = string(buffer.getInt(recordPosition(record - 1)));
+        if (ProductRegister.normalizeId(candidate).equals(key)) {
+          return get(record - 1);
+        }
+      }
+      slot = (slot + 1) & (slots - 1);
+    }
+  }
+
+  /**
+   * Decodes the product with the given record number.
+   *
+   * @param index The record number, from 0 to size() - 1.
+   * @return The product.
+   */
+  public ProductView get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("No record " + index);
+    }
+
+    int position = recordPosition(index);
+    return new ProductView(
+        string(buffer.getInt(position)),
+        buffer.getInt(position + 4),
+        string(buffer.getInt(position + 8)),
+        string(buffer.getInt(position + 12)),
+        buffer.getDouble(position + 28),
+        buffer.getDouble(position + 36),
+        buffer.getDouble(position + 44),
+        string(buffer.getInt(position + 16)),
+        buffer.getInt(position + 20),
+        Category.findByValue(buffer.getInt(position + 24)));
+  }
+
+  /**
+   * Decodes every product in the catalog and gives it to the action.
+   *
+   * @param action The action to run for each product.
+   */
+  public void forEach(Consumer<ProductView> action) {
+    for (int i = 0; i < size; i++) {
+      action.accept(get(i));
+    }
+  }
+
+  private static int recordPosition(int index) {
+    return HEADER_SIZE + index * RECORD_SIZE;
+  }
+
+  /**
+   * Decodes the string with the given number from the string table.
+   */
+  private String string(int reference) {
+    if (reference < 0) {
+      return null;
+    }
+    if (reference >= stringCount) {
+      throw new IllegalStateException("No string " + reference);
+    }
+
+    int position = buffer.getInt(stringTable + reference * 4);
+    byte[] bytes = new byte[buffer.getInt(position)];
+    buffer.get(position + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int reference(Map<String, Integer> strings, String value) {
+    return value == null ? -1 : strings.get(value);
+  }
+
+  /**
+   * Spreads the bits of the hash code, so similar ids end up far apart.
+   */
+  private static int hash(String key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+}
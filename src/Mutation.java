@@ -0,0 +1,301 @@
+package src;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class represents one change to the register. Changes of values carry
+ * the new value, not the difference, so applying the same change twice gives
+ * the same result as applying it once.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public final class Mutation {
+
+  /**
+   * The kinds of changes.
+   */
+  public enum Type {
+    CREATE,
+    REMOVE,
+    PRICE,
+    DESCRIPTION,
+    QUANTITY
+  }
+
+  // The types in the order they are written, so a type can be read back from
+  // its number.
+  private static final Type[] TYPES = Type.values();
+
+  // The most bytes a string may take when it is written. Longer strings are
+  // turned away before they reach the register, so every change that is made
+  // can also be written.
+  static final int MAX_STRING_BYTES = 1 << 20;
+
+  private final Type type;
+  private final String id;
+  private final int value;
+  private final String description;
+  private final ProductView product;
+  private final long version;
+
+  // Not written, since a product never changes category. Null when the change
+  // was read back.
+  private final Category category;
+
+  private Mutation(Type type, String id, int value, String description, ProductView product, long version,
+      Category category) {
+    this.type = type;
+    this.id = id;
+    this.value = value;
+    this.description = description;
+    this.product = product;
+    this.version = version;
+    this.category = category;
+  }
+
+  /**
+   * Returns a change where a product was created.
+   * 
+   * @param product The product as it was created.
+   */
+  static Mutation create(ProductView product) {
+    return new Mutation(Type.CREATE, product.getID(), 0, null, product, product.getVersion(), product.getCategory());
+  }
+
+  /**
+   * Returns a change where a product was removed.
+   * 
+   * @param category The category of the product, or null if it is not known.
+   */
+  static Mutation remove(String id, Category category) {
+    return new Mutation(Type.REMOVE, id, 0, null, null, 0, category);
+  }
+
+  /**
+   * Returns a change where the price of a product was set.
+   * 
+   * @param version  The version of the product after the change, or 0 if it is
+   *                 not known.
+   * @param category The category of the product, or null if it is not known.
+   */
+  static Mutation price(String id, int price, long version, Category category) {
+    return new Mutation(Type.PRICE, id, price, null, null, version, category);
+  }
+
+  /**
+   * Returns a change where the description of a product was set.
+   * 
+   * @param version  The version of the product after the change, or 0 if it is
+   *                 not known.
+   * @param category The category of the product, or null if it is not known.
+   */
+  static Mutation description(String id, String description, long version, Category category) {
+    return new Mutation(Type.DESCRIPTION, id, 0, description, null, version, category);
+  }
+
+  /**
+   * Returns a change where the quantity of a product was set.
+   * 
+   * @param version  The version of the product after the change, or 0 if it is
+   *                 not known.
+   * @param category The category of the product, or null if it is not known.
+   */
+  static Mutation quantity(String id, int quantity, long version, Category category) {
+    return new Mutation(Type.QUANTITY, id, quantity, null, null, version, category);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getID() {
+    return id;
+  }
+
+  /**
+   * Returns the new price or quantity, for PRICE and QUANTITY changes.
+   */
+  public int getValue() {
+    return value;
+  }
+
+  /**
+   * Returns the new description, for DESCRIPTION changes.
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Returns the created product, for CREATE changes.
+   */
+  public ProductView getProduct() {
+    return product;
+  }
+
+  /**
+   * Returns the category of the changed product, so a listener does not have
+   * to look the product up. It is null for changes read back with
+   * {@link #readFrom(DataInput)}, since the category is not written.
+   */
+  public Category getCategory() {
+    return category;
+  }
+
+  /**
+   * Returns the version of the product after the change, or 0 if it is not
+   * known, for example for REMOVE changes.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Writes the change in a compact binary form.
+   * 
+   * @param out Where the change is written.
+   * @throws IOException If the change could not be written.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeByte(type.ordinal());
+    out.writeLong(version);
+    switch (type) {
+      case CREATE -> writeProduct(out, product);
+      case REMOVE -> writeString(out, id);
+      case PRICE, QUANTITY -> {
+        writeString(out, id);
+        out.writeInt(value);
+      }
+      case DESCRIPTION -> {
+        writeString(out, id);
+        writeString(out, description);
+      }
+      default -> throw new IllegalStateException("Unknown change " + type);
+    }
+  }
+
+  /**
+   * Reads a change written by {@link #writeTo(DataOutput)}.
+   * 
+   * @param in Where the change is read from.
+   * @return The change.
+   * @throws IOException If the change could not be read.
+   */
+  public static Mutation readFrom(DataInput in) throws IOException {
+    int number = in.readUnsignedByte();
+    if (number >= TYPES.length) {
+      throw new IOException("Unknown change " + number);
+    }
+    long version = in.readLong();
+
+    return switch (TYPES[number]) {
+      case CREATE -> create(readProduct(in, version));
+      case REMOVE -> remove(readString(in), null);
+      case PRICE -> price(readString(in), in.readInt(), version, null);
+      case QUANTITY -> quantity(readString(in), in.readInt(), version, null);
+      case DESCRIPTION -> description(readString(in), readString(in), version, null);
+    };
+  }
+
+  /**
+   * Writes all the values of a product.
+   */
+  static void writeProduct(DataOutput out, ProductView product) throws IOException {
+    writeString(out, product.getID());
+    out.writeInt(product.getPrice());
+    writeString(out, product.getDescription());
+    writeString(out, product.getBrandName());
+    out.writeDouble(product.getWeight());
+    out.writeDouble(product.getLength());
+    out.writeDouble(product.getHeight());
+    writeString(out, product.getColor());
+    out.writeInt(product.getQuantity());
+    out.writeByte(product.getCategory().getValue());
+  }
+
+  /**
+   * Reads a product written by {@link #writeProduct(DataOutput, ProductView)}.
+   * The values were valid when they were written, so they are not checked again.
+   */
+  static ProductView readProduct(DataInput in) throws IOException {
+    return readProduct(in, 1);
+  }
+
+  /**
+   * Reads a product written by {@link #writeProduct(DataOutput, ProductView)},
+   * and gives it the version that was written separately.
+   */
+  static ProductView readProduct(DataInput in, long version) throws IOException {
+    return new ProductView(
+        readString(in),
+        in.readInt(),
+        readString(in),
+        readString(in),
+        in.readDouble(),
+        in.readDouble(),
+        in.readDouble(),
+        readString(in),
+        in.readInt(),
+        Category.findByValue(in.readUnsignedByte()),
+        version);
+  }
+
+  /**
+   * Checks that a string is short enough to be written.
+   *
+   * @param name  What the string is, for the message.
+   * @param value The string, may be null.
+   * @throws IllegalArgumentException If the string is too long.
+   */
+  static void checkString(String name, String value) {
+    // A character takes at most three bytes, so most strings are not encoded
+    if (value != null && value.length() > MAX_STRING_BYTES / 3
+        && value.getBytes(StandardCharsets.UTF_8).length > MAX_STRING_BYTES) {
+      throw new IllegalArgumentException("The " + name + " is too long");
+    }
+  }
+
+  /**
+   * Writes a string that may be null, as the number of its UTF-8 bytes, or -1
+   * for null, followed by the bytes.
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutput, String)}.
+   */
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > MAX_STRING_BYTES) {
+      throw new IOException("A string of " + length + " bytes is too long");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    return switch (type) {
+      case CREATE, REMOVE -> type + " " + id;
+      case PRICE, QUANTITY -> type + " " + id + " " + value;
+      case DESCRIPTION -> type + " " + id + " \"" + description + "\"";
+    };
+  }
+
+}
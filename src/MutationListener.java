@@ -0,0 +1,24 @@
+package src;
+
+/**
+ * A listener that is told about every change to a register.
+ * 
+ * <p>
+ * The listener is called while the changed product is locked, so the changes to
+ * one product always arrive in the order they were made. The listener should
+ * return quickly, since the product cannot be changed by anyone else until it
+ * returns.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public interface MutationListener {
+
+  /**
+   * Called after a change has been made to the register.
+   * 
+   * @param mutation The change.
+   */
+  void onMutation(Mutation mutation);
+
+}
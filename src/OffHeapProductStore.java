@@ -0,0 +1,421 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A product store that keeps the products outside the Java heap, in direct
+ * byte buffers, so the garbage collector never has to look at them. Every
+ * product is a record of fixed size, and the strings are kept in a separate
+ * area of buffers that is only appended to. The heap holds only the table from
+ * id to record, which is a few int arrays, and the brand names and colors,
+ * which repeat so much that each is stored once.
+ *
+ * <p>
+ * The records are kept without gaps, like in {@link ColumnarProductStore}.
+ * The strings of removed products and replaced descriptions are not reused, so
+ * a store where descriptions change often keeps growing.
+ *
+ * <p>
+ * The direct buffers count against the limit on direct memory of the JVM,
+ * which is set with {@code -XX:MaxDirectMemorySize} and is by default as large
+ * as the heap.
+ *
+ * <p>
+ * The store can be used by several threads. Reads and scans run at the same
+ * time, while a change waits for them to finish.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class OffHeapProductStore implements ProductStore {
+
+  // The layout of a record. Strings are stored as their position in the string
+  // area, or -1 for null.
+  private static final int ID = 0;
+  private static final int DESCRIPTION = 8;
+  private static final int BRAND_NAME = 16;
+  private static final int COLOR = 24;
+  private static final int WEIGHT = 32;
+  private static final int LENGTH = 40;
+  private static final int HEIGHT = 48;
+  private static final int PRICE = 56;
+  private static final int QUANTITY = 60;
+  private static final int CATEGORY = 64;
+  private static final int VERSION = 72;
+  private static final int RECORD_SIZE = 80;
+
+  private static final int RECORDS_PER_BUFFER = 1 << 16;
+  private static final int STRING_BUFFER_SIZE = 1 << 24;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // The record of every product, keyed on the normalized id.
+  private final RowIndex rows = new RowIndex(row -> string(record(row).getLong(offset(row) + ID)));
+
+  private final List<ByteBuffer> records = new ArrayList<>();
+  private int size;
+
+  // The string area. A string is its length in bytes as an int followed by the
+  // UTF-8 bytes, and never crosses from one buffer to the next.
+  private final List<ByteBuffer> strings = new ArrayList<>();
+  private long stringEnd;
+
+  // The position of every brand name and color, so they are only stored once.
+  private final Map<String, Long> shared = new HashMap<>();
+
+  /**
+   * Creates a store with all the products of a register, as they are at one
+   * point in time.
+   *
+   * @param register The register to copy.
+   * @return The new store.
+   */
+  public static OffHeapProductStore copyOf(ProductRegister register) {
+    try (RegisterSnapshot snapshot = register.snapshot()) {
+      OffHeapProductStore store = new OffHeapProductStore();
+      snapshot.forEach(store::add);
+      return store;
+    }
+  }
+
+  @Override
+  public void add(ProductView product) {
+    String key = ProductRegister.normalizeId(product.getID());
+    lock.writeLock().lock();
+    try {
+      if (rows.get(key) >= 0) {
+        throw new IllegalArgumentException("ID already exists");
+      }
+      // The strings are stored before the row is taken, so a string that cannot
+      // be stored leaves no half written row behind
+      long id = append(product.getID());
+      long description = append(product.getDescription());
+      long brandName = appendShared(product.getBrandName());
+      long color = appendShared(product.getColor());
+      if (size == records.size() * RECORDS_PER_BUFFER) {
+        records.add(ByteBuffer.allocateDirect(RECORDS_PER_BUFFER * RECORD_SIZE).order(ByteOrder.nativeOrder()));
+      }
+
+      int row = size++;
+      ByteBuffer record = record(row);
+      int offset = offset(row);
+      record.putLong(offset + ID, id);
+      record.putLong(offset + DESCRIPTION, description);
+      record.putLong(offset + BRAND_NAME, brandName);
+      record.putLong(offset + COLOR, color);
+      record.putDouble(offset + WEIGHT, product.getWeight());
+      record.putDouble(offset + LENGTH, product.getLength());
+      record.putDouble(offset + HEIGHT, product.getHeight());
+      record.putInt(offset + PRICE, product.getPrice());
+      record.putInt(offset + QUANTITY, product.getQuantity());
+      record.put(offset + CATEGORY, (byte) product.getCategory().getValue());
+      record.putLong(offset + VERSION, product.getVersion());
+      rows.put(key, row);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ProductView get(String id) {
+    lock.readLock().lock();
+    try {
+      return view(row(id));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String id) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      rows.remove(ProductRegister.normalizeId(id));
+
+      // Move the last record into the row, so there are no gaps
+      int last = --size;
+      if (row != last) {
+        ByteBuffer from = record(last);
+        ByteBuffer to = record(row);
+        int fromOffset = offset(last);
+        int toOffset = offset(row);
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+          to.putLong(toOffset + i, from.getLong(fromOffset + i));
+        }
+        rows.move(last, row);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setPrice(String id, int price) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      record(row).putInt(offset(row) + PRICE, price);
+      changed(row);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setQuantity(String id, int quantity) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      record(row).putInt(offset(row) + QUANTITY, quantity);
+      changed(row);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void setDescription(String id, String description) {
+    lock.writeLock().lock();
+    try {
+      int row = row(id);
+      record(row).putLong(offset(row) + DESCRIPTION, append(description));
+      changed(row);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of bytes used outside the heap, for records and strings.
+   *
+   * @return The number of bytes.
+   */
+  public long getOffHeapBytes() {
+    lock.readLock().lock();
+    try {
+      return (long) records.size() * RECORDS_PER_BUFFER * RECORD_SIZE + (long) strings.size() * STRING_BUFFER_SIZE;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEach(Consumer<ProductView> action) {
+    lock.readLock().lock();
+    try {
+      for (int row = 0; row < size; row++) {
+        action.accept(view(row));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEachMatching(ProductQuery query, Consumer<ProductView> action) {
+    lock.readLock().lock();
+    try {
+      for (int row = 0; row < size; row++) {
+        if (matches(query, record(row), offset(row))) {
+          action.accept(view(row));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int count(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      int count = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(query, record(row), offset(row))) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long totalQuantity(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      long total = 0;
+      for (int row = 0; row < size; row++) {
+        ByteBuffer record = record(row);
+        int offset = offset(row);
+        if (matches(query, record, offset)) {
+          total += record.getInt(offset + QUANTITY);
+        }
+      }
+      return total;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long stockValue(ProductQuery query) {
+    lock.readLock().lock();
+    try {
+      long total = 0;
+      for (int row = 0; row < size; row++) {
+        ByteBuffer record = record(row);
+        int offset = offset(row);
+        if (matches(query, record, offset)) {
+          total += (long) record.getInt(offset + PRICE) * record.getInt(offset + QUANTITY);
+        }
+      }
+      return total;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if a record meets all the conditions of the query.
+   */
+  private static boolean matches(ProductQuery query, ByteBuffer record, int offset) {
+    return query.matches(Category.findByValue(record.get(offset + CATEGORY)), record.getInt(offset + PRICE),
+        record.getInt(offset + QUANTITY));
+  }
+
+  /**
+   * Counts up the version of the product in a row after a change. The caller
+   * has to hold the write lock.
+   */
+  private void changed(int row) {
+    ByteBuffer record = record(row);
+    int offset = offset(row);
+    record.putLong(offset + VERSION, record.getLong(offset + VERSION) + 1);
+  }
+
+  /**
+   * Returns the row of the product with the given id. The caller has to hold a
+   * lock.
+   */
+  private int row(String id) {
+    int row = id == null ? -1 : rows.get(ProductRegister.normalizeId(id));
+    if (row < 0) {
+      throw new NoSuchElementException("No product with id " + id + " exists");
+    }
+    return row;
+  }
+
+  private ByteBuffer record(int row) {
+    return records.get(row / RECORDS_PER_BUFFER);
+  }
+
+  private static int offset(int row) {
+    return (row % RECORDS_PER_BUFFER) * RECORD_SIZE;
+  }
+
+  /**
+   * Creates a snapshot of the product in a row. The caller has to hold a lock.
+   */
+  private ProductView view(int row) {
+    ByteBuffer record = record(row);
+    int offset = offset(row);
+    return new ProductView(
+        string(record.getLong(offset + ID)),
+        record.getInt(offset + PRICE),
+        string(record.getLong(offset + DESCRIPTION)),
+        string(record.getLong(offset + BRAND_NAME)),
+        record.getDouble(offset + WEIGHT),
+        record.getDouble(offset + LENGTH),
+        record.getDouble(offset + HEIGHT),
+        string(record.getLong(offset + COLOR)),
+        record.getInt(offset + QUANTITY),
+        Category.findByValue(record.get(offset + CATEGORY)),
+        record.getLong(offset + VERSION));
+  }
+
+  /**
+   * Adds a string to the string area.
+   *
+   * @return The position of the string, or -1 for null.
+   */
+  private long append(String value) {
+    if (value == null) {
+      return -1;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (4 + bytes.length > STRING_BUFFER_SIZE) {
+      throw new IllegalArgumentException("The string is too long");
+    }
+
+    long position = stringEnd;
+    int offset = (int) (position % STRING_BUFFER_SIZE);
+    if (offset + 4 + bytes.length > STRING_BUFFER_SIZE) {
+      // Go on in the next buffer, so the string does not cross from one to the
+      // next
+      position += STRING_BUFFER_SIZE - offset;
+      offset = 0;
+    }
+    int index = (int) (position / STRING_BUFFER_SIZE);
+    if (index == strings.size()) {
+      strings.add(ByteBuffer.allocateDirect(STRING_BUFFER_SIZE).order(ByteOrder.nativeOrder()));
+    }
+    ByteBuffer buffer = strings.get(index);
+    buffer.putInt(offset, bytes.length);
+    buffer.put(offset + 4, bytes);
+    stringEnd = position + 4 + bytes.length;
+    return position;
+  }
+
+  /**
+   * Adds a string that many products share, unless it is already stored.
+   */
+  private long appendShared(String value) {
+    if (value == null) {
+      return -1;
+    }
+    Long position = shared.get(value);
+    if (position == null) {
+      position = append(value);
+      shared.put(value, position);
+    }
+    return position;
+  }
+
+  /**
+   * Reads a string from the string area.
+   */
+  private String string(long position) {
+    if (position < 0) {
+      return null;
+    }
+    ByteBuffer buffer = strings.get((int) (position / STRING_BUFFER_SIZE));
+    int offset = (int) (position % STRING_BUFFER_SIZE);
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    buffer.get(offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
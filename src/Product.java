@@ -20,6 +20,26 @@ public class Product {
 
   Category category;
 
+  // Goes up by one every time the product is changed.
+  private long version = 1;
+
+  // A snapshot of the current values, created the first time it is needed and
+  // thrown away when a value changes.
+  private ProductView view;
+
+  // Used by the register to serve snapshots. The commit stamps of when the
+  // product was created, last changed and removed (0 if it has not been
+  // removed), the older values that open snapshots may still need, and the
+  // slot of the product in the register's slot table.
+  long created;
+  long stamp;
+  long removed;
+  SnapshotManager.Version older;
+  int slot = -1;
+
+  // The number of the lock of the product, see ProductLocks.
+  final int stripe;
+
   /**
    * Constructor for creating a product.
    * 
@@ -53,34 +73,37 @@ public class Product {
       String color,
       int quantity,
       int category) {
+    this(id, price, description, brandName, weight, length, height, color, quantity, category,
+        ProductValidator.DEFAULT);
+  }
 
-    // The id cannot be null or empty, otherwise throw an exception
-    if (id == null || id.isEmpty()) {
-      throw new IllegalArgumentException("ID cannot be null or empty");
-    }
-
-    // The id has to contain BOTH strings and intigers for it to be valid, otherwise
-    // throw an exception
-    if (!id.matches(".*[a-zA-Z]+.*") || !id.matches(".*[0-9]+.*")) {
-      throw new IllegalArgumentException("ID has to contain both strings and intigers");
-    }
-
-    // The category has to be an int between 1 and 5, otherwise throw an exception
-    if (category < 1 || category > 4) {
-      throw new IllegalArgumentException("Category has to be an int between 1 and 5");
-    }
-
-    // The quantity cannot be negative, otherwise throw an exception
-    if (quantity < 0) {
-      throw new IllegalArgumentException("Quantity cannot be negative");
-    }
+  /**
+   * Constructor for creating a product, where the values are checked by the
+   * given validator instead of the standard rules.
+   * 
+   * @Param validator The validator that checks the values.
+   */
+  public Product(
+      String id,
+      int price,
+      String description,
+      String brandName,
+      double weight,
+      double length,
+      double height,
+      String color,
+      int quantity,
+      int category,
+      ProductValidator validator) {
 
-    // The price cannot be negative, otherwise throw an exception
-    if (price < 0) {
-      throw new IllegalArgumentException("Price cannot be negative");
-    }
+    validator.validate(id, price, quantity, category);
+    Mutation.checkString("id", id);
+    Mutation.checkString("description", description);
+    Mutation.checkString("brand name", brandName);
+    Mutation.checkString("color", color);
 
     this.id = id;
+    this.stripe = stripeOf(id);
     this.price = price;
     this.description = description;
     this.brandName = brandName;
@@ -93,24 +116,54 @@ public class Product {
   }
 
   /**
-   * Constructor for Product.
+   * Constructor for Product. The product that is copied has already been
+   * validated, so the values are copied without being checked again.
    *
    * @Param product The product that is being copied.
    */
   public Product(Product product) {
-    this(product.getID(),
-        product.getPrice(),
-        product.getDescription(),
-        product.getBrandName(),
-        product.getWeight(),
-        product.getLength(),
-        product.getHeight(),
-        product.getColor(),
-        product.getQuantity(),
-        product.getCategory().getValue());
+    this.id = product.getID();
+    this.stripe = product.stripe;
+    this.price = product.getPrice();
+    this.description = product.getDescription();
+    this.brandName = product.getBrandName();
+    this.weight = product.getWeight();
+    this.length = product.getLength();
+    this.height = product.getHeight();
+    this.color = product.getColor();
+    this.quantity = product.getQuantity();
+    this.category = product.getCategory();
+    this.version = product.getVersion();
 
   }
 
+  /**
+   * Constructor for a product with the values of a snapshot. The snapshot was
+   * taken of a product that has already been validated, so the values are not
+   * checked again.
+   *
+   * @Param view The snapshot with the values.
+   */
+  Product(ProductView view) {
+    this.id = view.getID();
+    this.stripe = stripeOf(id);
+    this.price = view.getPrice();
+    this.description = view.getDescription();
+    this.brandName = view.getBrandName();
+    this.weight = view.getWeight();
+    this.length = view.getLength();
+    this.height = view.getHeight();
+    this.color = view.getColor();
+    this.quantity = view.getQuantity();
+    this.category = view.getCategory();
+    this.version = view.getVersion();
+    this.view = view;
+  }
+
+  private static int stripeOf(String id) {
+    return ProductLocks.stripe(id == null ? null : ProductRegister.normalizeId(id));
+  }
+
   public String getID() {
     return id;
   }
@@ -152,13 +205,39 @@ public class Product {
   }
 
   /**
-   * This function sets the quantity of a product.
+   * Returns the version of the product. The version starts at 1 and goes up by
+   * one every time the product is changed.
    */
-  public void setQuantity(int quantity) {
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns a read-only snapshot of the product. The same snapshot is returned
+   * until the product is changed.
+   * 
+   * @return A snapshot of the product.
+   */
+  ProductView view() {
+    ProductView result = view;
+    if (result == null) {
+      result = new ProductView(this);
+      view = result;
+    }
+    return result;
+  }
+
+  /**
+   * This function sets the quantity of a product. Products are only changed
+   * through the register.
+   */
+  void setQuantity(int quantity) {
     if (quantity < 0) {
       throw new IllegalArgumentException("The quantity cannot be negative");
     }
     this.quantity = quantity;
+    this.version++;
+    this.view = null;
 
   }
 
@@ -168,15 +247,28 @@ public class Product {
    * 
    * @param price The price of the item.
    */
-  public void setPrice(int price) {
+  void setPrice(int price) {
     if (price < 0) {
       throw new IllegalArgumentException("Price cannot be negative");
     }
     this.price = price;
+    this.version++;
+    this.view = null;
   }
 
-  public void setDescription(String description) {
+  void setDescription(String description) {
     this.description = description;
+    this.version++;
+    this.view = null;
+  }
+
+  /**
+   * Sets the version of the product, when a change that was made somewhere
+   * else is applied, so the product gets the same version it had there.
+   */
+  void setVersion(long version) {
+    this.version = version;
+    this.view = null;
   }
 
   @Override
@@ -0,0 +1,88 @@
+package src;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locks of the products. There is a fixed number of locks, and a product
+ * uses the lock its normalized id hashes to, so a product does not need a lock
+ * object of its own, and two products with the same id always share a lock.
+ * Two products with different ids may also share a lock, which only means that
+ * one can wait for the other.
+ *
+ * <p>
+ * The locks are reentrant, so an action that holds the lock of a product can
+ * call the register for the same product. Code that needs the locks of many
+ * products takes them with {@link #lockAll(int[])}, in the order of the lock
+ * numbers, so two such callers never wait for each other.
+ *
+ * @author Kandidat 10009
+ *
+ */
+final class ProductLocks {
+
+  // The number of locks. A power of two, so a hash is turned into a lock
+  // number with a mask.
+  static final int STRIPES = 1 << 12;
+
+  private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+  static {
+    for (int i = 0; i < STRIPES; i++) {
+      LOCKS[i] = new ReentrantLock();
+    }
+  }
+
+  private ProductLocks() {
+  }
+
+  /**
+   * Returns the number of the lock of the products with the given id.
+   *
+   * @param key The normalized id, may be null.
+   * @return The number of the lock.
+   */
+  static int stripe(String key) {
+    if (key == null) {
+      return 0;
+    }
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+  }
+
+  /**
+   * Takes the lock of a product, waiting until it is free.
+   */
+  static void lock(Product product) {
+    LOCKS[product.stripe].lock();
+  }
+
+  /**
+   * Releases the lock of a product.
+   */
+  static void unlock(Product product) {
+    LOCKS[product.stripe].unlock();
+  }
+
+  /**
+   * Takes the given locks one by one, in the order given.
+   *
+   * @param stripes The numbers of the locks, sorted and without duplicates.
+   */
+  static void lockAll(int[] stripes) {
+    for (int stripe : stripes) {
+      LOCKS[stripe].lock();
+    }
+  }
+
+  /**
+   * Releases locks taken with {@link #lockAll(int[])}.
+   *
+   * @param stripes The numbers of the locks.
+   */
+  static void unlockAll(int[] stripes) {
+    for (int i = stripes.length - 1; i >= 0; i--) {
+      LOCKS[stripes[i]].unlock();
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package src;
+
+import java.util.Comparator;
+
+/**
+ * The orders products can be listed in. Products with the same price or
+ * quantity are ordered by their id, so every order is strict.
+ * 
+ * @author Kandidat 10009
+ */
+public enum ProductOrder {
+  ID(null),
+  PRICE(Comparator.comparingInt(ProductView::getPrice)),
+  QUANTITY(Comparator.comparingInt(ProductView::getQuantity));
+
+  private final Comparator<ProductView> comparator;
+
+  private ProductOrder(Comparator<ProductView> value) {
+    Comparator<ProductView> byId = Comparator.comparing(product -> ProductRegister.normalizeId(product.getID()));
+    this.comparator = value == null ? byId : value.thenComparing(byId);
+  }
+
+  public Comparator<ProductView> comparator() {
+    return comparator;
+  }
+
+  /**
+   * Returns the value of the product that this order sorts on, apart from the
+   * id.
+   */
+  int key(ProductView product) {
+    return switch (this) {
+      case ID -> 0;
+      case PRICE -> product.getPrice();
+      case QUANTITY -> product.getQuantity();
+    };
+  }
+}
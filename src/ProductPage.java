@@ -0,0 +1,37 @@
+package src;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents one page of a listing of the products in a register.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class ProductPage {
+
+  private final List<ProductView> products;
+  private final String nextCursor;
+
+  ProductPage(List<ProductView> products, String nextCursor) {
+    this.products = Collections.unmodifiableList(products);
+    this.nextCursor = nextCursor;
+  }
+
+  /**
+   * Returns the products on this page, in the order of the listing.
+   */
+  public List<ProductView> getProducts() {
+    return products;
+  }
+
+  /**
+   * Returns the cursor that gives the next page, or null if this is the last
+   * page.
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+}
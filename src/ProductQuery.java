@@ -0,0 +1,100 @@
+package src;
+
+/**
+ * A query for products with a given category, and prices and quantities in
+ * given ranges. The conditions are combined, so a product has to meet all of
+ * them. For example, all lumber that costs less than 500:
+ * 
+ * <pre>
+ * register.query(new ProductQuery().category(Category.LUMBER).priceBetween(0, 499));
+ * </pre>
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class ProductQuery {
+
+  private Category category;
+  private int minPrice = 0;
+  private int maxPrice = Integer.MAX_VALUE;
+  private int minQuantity = 0;
+  private int maxQuantity = Integer.MAX_VALUE;
+
+  /**
+   * Only include products in the given category.
+   */
+  public ProductQuery category(Category category) {
+    this.category = category;
+    return this;
+  }
+
+  /**
+   * Only include products with a price from min to max, both included.
+   */
+  public ProductQuery priceBetween(int min, int max) {
+    this.minPrice = min;
+    this.maxPrice = max;
+    return this;
+  }
+
+  /**
+   * Only include products with a quantity from min to max, both included.
+   */
+  public ProductQuery quantityBetween(int min, int max) {
+    this.minQuantity = min;
+    this.maxQuantity = max;
+    return this;
+  }
+
+  /**
+   * Only include products with a quantity below the given amount.
+   */
+  public ProductQuery quantityBelow(int quantity) {
+    return quantityBetween(0, quantity - 1);
+  }
+
+  public Category getCategory() {
+    return category;
+  }
+
+  public int getMinPrice() {
+    return minPrice;
+  }
+
+  public int getMaxPrice() {
+    return maxPrice;
+  }
+
+  public int getMinQuantity() {
+    return minQuantity;
+  }
+
+  public int getMaxQuantity() {
+    return maxQuantity;
+  }
+
+  boolean hasPrice() {
+    return minPrice > 0 || maxPrice < Integer.MAX_VALUE;
+  }
+
+  boolean hasQuantity() {
+    return minQuantity > 0 || maxQuantity < Integer.MAX_VALUE;
+  }
+
+  /**
+   * Returns true if the product meets all the conditions.
+   */
+  boolean matches(ProductView product) {
+    return matches(product.getCategory(), product.getPrice(), product.getQuantity());
+  }
+
+  /**
+   * Returns true if a product with the given values meets all the conditions.
+   */
+  boolean matches(Category category, int price, int quantity) {
+    return (this.category == null || category == this.category)
+        && price >= minPrice && price <= maxPrice
+        && quantity >= minQuantity && quantity <= maxQuantity;
+  }
+
+}
@@ -1,11 +1,25 @@
 package src;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -13,19 +27,126 @@ import java.util.stream.Collectors;
  * handeling all the different products, and have methods to fetch, add, change
  * and remove products for the register.
  * 
+ * <p>
+ * The register can be used by several threads at the same time. Every change to
+ * a product is made while holding the lock of that product, so changes to
+ * different products never wait for each other, and a change is never lost
+ * because of another change to the same product.
+ * 
  * @author Kanditat 10009
  *
  */
 public class ProductRegister {
 
-  // Declaring a private final list of products.
-  private final List<Product> productRegister;
+  // The products in the register, keyed on the normalized (lower case) ID.
+  private final ConcurrentHashMap<String, Product> productRegister;
+
+  // An inverted index over the descriptions, used by the keyword search.
+  private final KeywordIndex keywordIndex;
+
+  // The results of recent keyword searches.
+  private final KeywordCache searchCache = new KeywordCache(KeywordCache.DEFAULT_CAPACITY);
+
+  // Indexes on the category, price and quantity, used by queries.
+  private final SecondaryIndexes indexes;
+
+  // The totals of the products per category, kept up to date on every change.
+  private final RunningTotals totals = new RunningTotals();
+
+  // Checks the values of new products.
+  private final ProductValidator validator;
+
+  // Keeps the old values that open snapshots need.
+  private final SnapshotManager versions = new SnapshotManager();
+
+  // Listeners that are told about every change.
+  private final List<MutationListener> listeners = new CopyOnWriteArrayList<>();
+
+  // A catalog file the products are loaded from when they are first used, or
+  // null when every product has been loaded.
+  private volatile MappedCatalog catalog;
 
+  // The keys of the catalog products that have been loaded or removed, so they
+  // are never loaded again.
+  private final Set<String> loadedFromCatalog = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a register with a few random products in it.
+   */
   ProductRegister() {
-    this.productRegister = new ArrayList<Product>();
+    this(ProductValidator.DEFAULT);
     populateProductRegister(5);
   }
 
+  /**
+   * Creates an empty register, where new products are checked by the given
+   * validator.
+   * 
+   * @param validator The validator that checks new products.
+   */
+  ProductRegister(ProductValidator validator) {
+    this.productRegister = new ConcurrentHashMap<String, Product>();
+    this.keywordIndex = new KeywordIndex();
+    this.indexes = new SecondaryIndexes();
+    this.validator = validator;
+  }
+
+  /**
+   * Creates a register that serves the products in a catalog file. The products
+   * are not read when the register is created: a product is read from the file
+   * the first time it is used by its id.
+   * 
+   * <p>
+   * The mapping only makes opening the register and reading single products
+   * cheap. The indexes are kept on the heap, so the first listing, search,
+   * query, total or snapshot copies every product that has not been read yet
+   * onto the heap, once, and after that the register is an ordinary register.
+   * A catalog that does not fit on the heap can be read with the methods of
+   * {@link MappedCatalog} instead.
+   * 
+   * @param validator The validator that checks new products.
+   * @param catalog   The catalog with the initial products.
+   */
+  ProductRegister(ProductValidator validator, MappedCatalog catalog) {
+    this(validator);
+    this.catalog = catalog;
+  }
+
+  /**
+   * Opens a register over a catalog file written with
+   * {@link MappedCatalog#write(ProductRegister, Path)}. The file is mapped, not
+   * read, so the register opens just as fast no matter how many products it
+   * has. Changes are made to the register, never to the file.
+   * 
+   * @param path      The catalog file.
+   * @param validator The validator that checks new products.
+   * @return The register.
+   * @throws IOException If the file could not be mapped, or is not a catalog.
+   */
+  public static ProductRegister openCatalog(Path path, ProductValidator validator) throws IOException {
+    return new ProductRegister(validator, MappedCatalog.open(path));
+  }
+
+  /**
+   * Adds a listener that is told about every change to the register from now
+   * on.
+   * 
+   * @param listener The listener to add.
+   */
+  public void addMutationListener(MutationListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener that was added with
+   * {@link #addMutationListener(MutationListener)}.
+   * 
+   * @param listener The listener to remove.
+   */
+  public void removeMutationListener(MutationListener listener) {
+    listeners.remove(listener);
+  }
+
   /**
    * Return a list of all products in the register, where each product is
    * represented as a string.
@@ -34,13 +155,154 @@ public class ProductRegister {
    */
   public List<String> printAllProducts() {
     // I chose not to deepcopy since im only fetiching and retring data
+    loadCatalog();
 
     return productRegister
+        .values()
         .stream()
-        .map(Product::toString)
+        .map(product -> view(product).toString())
         .collect(Collectors.toCollection(ArrayList::new));
   }
 
+  /**
+   * Returns one page of the products in the register, in the given order. The
+   * first page is returned when the cursor is null, and each page has a cursor
+   * to the next page. The page is read from a sorted index, starting at the
+   * cursor, so only the products on the page are looked at.
+   * 
+   * <p>
+   * A cursor points to a position in the order, not to a product, so products
+   * that are created or removed between two pages do not make the listing skip
+   * or repeat other products.
+   * 
+   * @param order  The order of the products.
+   * @param cursor The cursor from the previous page, or null for the first page.
+   * @param limit  The largest number of products on the page.
+   * @return The page.
+   */
+  public ProductPage listProducts(ProductOrder order, String cursor, int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("The limit has to be at least 1");
+    }
+
+    int key = 0;
+    String id = null;
+    if (cursor != null) {
+      int separator = cursor.indexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Invalid cursor " + cursor);
+      }
+      try {
+        key = Integer.parseInt(cursor.substring(0, separator));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor " + cursor);
+      }
+      id = cursor.substring(separator + 1);
+    }
+
+    loadCatalog();
+    NavigableMap<SecondaryIndexes.Key, Product> index = indexes.sortedBy(order);
+    if (id != null) {
+      index = index.tailMap(new SecondaryIndexes.Key(key, id), false);
+    }
+
+    List<ProductView> products = new ArrayList<>(limit);
+    Set<String> listed = new HashSet<>();
+    for (Map.Entry<SecondaryIndexes.Key, Product> entry : index.entrySet()) {
+      // A product that is being moved in the index is only listed at the place
+      // that matches its value, and only once
+      ProductView product = view(entry.getValue());
+      if (order.key(product) != entry.getKey().getValue() || !listed.add(normalizeId(product.getID()))) {
+        continue;
+      }
+      products.add(product);
+      if (products.size() == limit) {
+        break;
+      }
+    }
+
+    String next = null;
+    if (products.size() == limit) {
+      ProductView last = products.get(products.size() - 1);
+      next = order.key(last) + ":" + normalizeId(last.getID());
+    }
+    return new ProductPage(products, next);
+  }
+
+  /**
+   * Opens a snapshot of the register as it is now. The snapshot can be read
+   * while the register keeps changing, and always shows the products as they
+   * were when it was opened.
+   * 
+   * @return The snapshot, which has to be closed when it is no longer needed.
+   */
+  public RegisterSnapshot snapshot() {
+    loadCatalog();
+    return versions.open();
+  }
+
+  /**
+   * Gives a snapshot of every product in the register to the action, one at a
+   * time. Products that are created or removed while this runs may or may not
+   * be included. Use {@link #snapshot()} to see every product at the same point
+   * in time.
+   * 
+   * @param action The action to run for each product.
+   */
+  public void forEachProduct(Consumer<ProductView> action) {
+    loadCatalog();
+    productRegister.values().forEach(product -> action.accept(view(product)));
+  }
+
+  /**
+   * Returns an iterator over snapshots of the products in the register.
+   * Products that are created or removed while iterating may or may not be
+   * included.
+   * 
+   * @return An iterator over the products.
+   */
+  public Iterator<ProductView> productIterator() {
+    loadCatalog();
+    Iterator<Product> products = productRegister.values().iterator();
+    return new Iterator<ProductView>() {
+      @Override
+      public boolean hasNext() {
+        return products.hasNext();
+      }
+
+      @Override
+      public ProductView next() {
+        return view(products.next());
+      }
+    };
+  }
+
+  /**
+   * Writes every product in the register to a writer, in the same form as
+   * {@link #printAllProducts()}. The products are read from a snapshot, so the
+   * output shows the register at one point in time even if it is changed while
+   * writing. Each product is formatted in the same builder, so the memory used
+   * does not grow with the number of products.
+   * 
+   * @param out       The writer to write to.
+   * @param separator A line that is written before each product, or null.
+   * @throws IOException If the writer fails.
+   */
+  public void writeAllProducts(Writer out, String separator) throws IOException {
+    StringBuilder builder = new StringBuilder(256);
+    try (RegisterSnapshot snapshot = snapshot()) {
+      for (ProductView product : snapshot) {
+        builder.setLength(0);
+        if (separator != null) {
+          builder.append(separator).append('\n');
+        }
+        product.appendTo(builder).append('\n');
+        out.append(builder);
+      }
+    }
+    out.flush();
+  }
+
   /**
    * This function creates a new product and adds it to the product register.
    * 
@@ -68,14 +330,6 @@ public class ProductRegister {
       int quantity,
       int category) {
 
-    // The ID has to be unice for the product to be created
-    if (productRegister
-        .stream()
-        .anyMatch(p -> p.getID()
-            .equals(id))) {
-      throw new IllegalArgumentException("ID already exists");
-    }
-
     Product product = new Product(
         id,
         price,
@@ -86,10 +340,86 @@ public class ProductRegister {
         height,
         color,
         quantity,
-        category);
+        category,
+        validator);
+
+    add(product);
+  }
+
+  /**
+   * Adds a product that has already been validated to the register.
+   * 
+   * @param product The product to add.
+   */
+  void add(Product product) {
+    String id = product.getID();
+
+    // The ID has to be unice for the product to be created. IDs are compared
+    // without regard to case, the same way as they are looked up.
+    // A product with the same id that has just been removed, without the
+    // removal being published yet, has the same lock, so the removal is
+    // published first.
+    ProductLocks.lock(product);
+    try {
+      if (find(normalizeId(id)) != null || productRegister.putIfAbsent(normalizeId(id), product) != null) {
+        throw new IllegalArgumentException("ID already exists");
+      }
+      versions.created(product, false);
+      index(product);
+      publish(Mutation.create(product.view()));
+    } finally {
+      ProductLocks.unlock(product);
+    }
 
-    productRegister.add(product);
+  }
 
+  /**
+   * Adds products that have already been validated to the register in one go,
+   * for example when the register is restored from a snapshot. The sorted
+   * indexes are built after all the products have been added, which is much
+   * faster than adding the products one by one. The register must not be used
+   * by other threads until this returns.
+   * 
+   * @param views The products to add.
+   * @throws IllegalArgumentException If a product with the same id is already
+   *                                  in the register. The products before it
+   *                                  have been added.
+   */
+  void addAll(Collection<ProductView> views) {
+    List<Product> added = new ArrayList<>(views.size());
+    try {
+      for (ProductView view : views) {
+        Product product = new Product(view);
+        String key = normalizeId(product.getID());
+        ProductLocks.lock(product);
+        try {
+          if (find(key) != null || productRegister.putIfAbsent(key, product) != null) {
+            throw new IllegalArgumentException("ID already exists");
+          }
+          versions.created(product, false);
+          keywordIndex.add(product);
+          searchCache.invalidate(product.getDescription());
+          totals.add(product);
+        } finally {
+          ProductLocks.unlock(product);
+        }
+        added.add(product);
+      }
+    } finally {
+      indexes.addAll(added);
+      for (Product product : added) {
+        publish(Mutation.create(product.view()));
+      }
+    }
+  }
+
+  /**
+   * Returns the validator that checks new products in this register.
+   * 
+   * @return The validator.
+   */
+  ProductValidator getValidator() {
+    return validator;
   }
 
   /**
@@ -101,7 +431,24 @@ public class ProductRegister {
    *         object.
    */
   public Product deepCopy(Product product) {
-    return new Product(product);
+    ProductLocks.lock(product);
+    try {
+      return new Product(product);
+    } finally {
+      ProductLocks.unlock(product);
+    }
+  }
+
+  /**
+   * It takes a string as input, and returns a read-only snapshot of the product
+   * that matches the ID. Unlike {@link #getProductDeepCopyByID(String)}, the
+   * product is not copied.
+   * 
+   * @param id The id of the product you want to search for.
+   * @return A snapshot of the product.
+   */
+  public ProductView getProductByID(String id) {
+    return view(searchById(id));
   }
 
   /**
@@ -115,37 +462,179 @@ public class ProductRegister {
   }
 
   /**
-   * It takes a string of keywords, splits them into a list, then filters the
-   * product register for
-   * products that contain any of the keywords in their description, and returns a
-   * deep copy of the
-   * filtered list.
+   * It takes a string of keywords, splits them into a list, and returns a deep
+   * copy of the products that contain any of the keywords in their description.
+   * A keyword also matches parts of words, so "lam" matches "Laminate".
    * 
    * @param keywords a comma-separated list of keywords
-   * @return A list of products that match the keywords
+   * @return A list of products that match the keywords, which is empty if no
+   *         product matches
    */
   public List<String> searchByKeywords(String keywords) {
+    return searchByKeywords(keywords, false, true);
+  }
 
-    List<String> keywordList = Arrays.asList(keywords.split("\\s*,\\s*"));
+  /**
+   * It takes a string of keywords, splits them into a list, and looks the
+   * keywords up in the keyword index.
+   * 
+   * @param keywords     a comma-separated list of keywords
+   * @param matchAll     If true, the products have to match all the keywords,
+   *                     otherwise it is enough to match one of them.
+   * @param partialMatch If true, a keyword also matches parts of words,
+   *                     otherwise it has to match whole words.
+   * @return A list of products that match the keywords, which is empty if no
+   *         product matches
+   */
+  public List<String> searchByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
 
-    List<String> data = productRegister
+    return findByKeywords(keywords, matchAll, partialMatch)
         .stream()
-        .filter(
-            product -> keywordList.stream()
-                .filter(e -> product.getDescription().toLowerCase()
-                    .contains(e.toLowerCase()))
-                .findAny()
-                .isPresent())
-        .map(e -> deepCopy(e))
-        .map(e -> e.toString())
+        .map(ProductView::toString)
         .collect(Collectors.toCollection(ArrayList::new));
 
-    if (data.size() > 0) {
-      return data;
-    } else {
-      throw new NoSuchElementException("No products matches keywords " + keywords);
+  }
+
+  /**
+   * It takes a string of keywords, and returns read-only snapshots of the
+   * products that match them. An empty list is returned if no products match.
+   * A keyword with several words, like "oak door", is matched as a phrase.
+   * Recent searches are cached, so repeating a search is cheap.
+   * 
+   * @param keywords     a comma-separated list of keywords
+   * @param matchAll     If true, the products have to match all the keywords,
+   *                     otherwise it is enough to match one of them.
+   * @param partialMatch If true, a keyword also matches parts of words,
+   *                     otherwise it has to match whole words.
+   * @return A list of snapshots of the products that match the keywords
+   */
+  public List<ProductView> findByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
+
+    List<String> keywordList = Arrays.asList(keywords.split("\\s*,\\s*"));
+    loadCatalog();
+
+    Product[] products = searchCache.get(keywordList, matchAll, partialMatch,
+        () -> keywordIndex.find(keywordList, matchAll, partialMatch));
+    List<ProductView> result = new ArrayList<>(products.length);
+    for (Product product : products) {
+      result.add(view(product));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the statistics of the keyword search cache.
+   * 
+   * @return The number of hits, misses and invalidations so far.
+   */
+  public SearchCacheStats getSearchCacheStats() {
+    return searchCache.stats();
+  }
+
+  /**
+   * Returns snapshots of the products that meet all the conditions of a query.
+   * Of the indexes that can answer the query, the one with the fewest products
+   * is used, and the rest of the conditions are checked on those products only.
+   * Every product is in the result at most once. A product that is changed
+   * while the query runs is found with its old or its new values, and can be
+   * left out if it is moved to the part of the index that was already read.
+   * 
+   * @param query The conditions.
+   * @return Snapshots of the matching products.
+   */
+  public List<ProductView> query(ProductQuery query) {
+    loadCatalog();
+
+    // Find the smallest set of candidates. A range is only counted up to the
+    // size of the best candidate so far.
+    Collection<Product> candidates = productRegister.values();
+    int best = productRegister.size();
+    boolean sorted = false;
+    if (query.getCategory() != null) {
+      candidates = indexes.inCategory(query.getCategory());
+      best = candidates.size();
     }
+    if (query.hasPrice()) {
+      Collection<Product> range = indexes.withPrice(query.getMinPrice(), query.getMaxPrice());
+      int count = SecondaryIndexes.countUpTo(range, best);
+      if (count < best) {
+        candidates = range;
+        best = count;
+        sorted = true;
+      }
+    }
+    if (query.hasQuantity()) {
+      Collection<Product> range = indexes.withQuantity(query.getMinQuantity(), query.getMaxQuantity());
+      if (SecondaryIndexes.countUpTo(range, best) < best) {
+        candidates = range;
+        sorted = true;
+      }
+    }
+
+    // The values are checked again on the snapshot, since a product may have
+    // changed after it was found in the index. A product that is moved in a
+    // sorted index while it is read can be found twice, so it is only taken
+    // once.
+    Set<Product> seen = sorted ? new HashSet<>() : null;
+    List<ProductView> result = new ArrayList<>();
+    for (Product product : candidates) {
+      if (seen != null && !seen.add(product)) {
+        continue;
+      }
+      ProductView view = view(product);
+      if (query.matches(view)) {
+        result.add(view);
+      }
+    }
+    return result;
+  }
 
+  /**
+   * Returns the totals of all the products in the register. The totals are kept
+   * up to date on every change, so this does not look at the products. While
+   * the register is changed, the figures can be from slightly different
+   * moments.
+   * 
+   * @return The totals.
+   */
+  public InventoryTotals getInventoryTotals() {
+    loadCatalog();
+    return totals.total();
+  }
+
+  /**
+   * Returns the totals of the products in each category, like
+   * {@link #getInventoryTotals()}.
+   * 
+   * @return The totals of every category.
+   */
+  public Map<Category, InventoryTotals> getInventoryTotalsByCategory() {
+    loadCatalog();
+    Map<Category, InventoryTotals> result = new EnumMap<>(Category.class);
+    for (Category category : Category.values()) {
+      result.put(category, totals.get(category));
+    }
+    return result;
+  }
+
+  /**
+   * Computes figures about the products that meet a query, by going through the
+   * products in parallel on the common fork/join pool. Each product is read
+   * while holding its lock, but is not copied. Products that are changed while
+   * this runs may be counted with their old or their new values.
+   * 
+   * @param query The conditions.
+   * @return The figures.
+   */
+  public InventoryReport aggregate(ProductQuery query) {
+    loadCatalog();
+    Collection<Product> products = query.getCategory() == null
+        ? productRegister.values()
+        : indexes.inCategory(query.getCategory());
+    return products.parallelStream()
+        .collect(() -> new InventoryReport.Accumulator(query), InventoryReport.Accumulator::add,
+            InventoryReport.Accumulator::combine)
+        .build();
   }
 
   /**
@@ -157,8 +646,9 @@ public class ProductRegister {
    * @param quantity The amount to increase the quantity by.
    */
   public void increaseProductInventory(String id, int quantity) {
-    Product product = searchById(id);
-    product.setQuantity(product.getQuantity() + quantity);
+    update(id, product -> {
+      setQuantity(product, product.getQuantity() + quantity);
+    });
   }
 
   /**
@@ -168,8 +658,186 @@ public class ProductRegister {
    * @param quantity the number of products to be added to the inventory
    */
   public void decreaseProductInventory(String id, int quantity) {
-    Product product = searchById(id);
-    product.setQuantity(product.getQuantity() - quantity);
+    update(id, product -> {
+      setQuantity(product, product.getQuantity() - quantity);
+    });
+  }
+
+  /**
+   * Applies a batch of inventory adjustments. All the products are looked up
+   * once, and the whole batch is checked before anything is changed: if any
+   * line refers to a product that does not exist, or would make a quantity
+   * negative, none of the lines are applied. The products in the batch are
+   * locked while the batch is checked and applied, so no other change can
+   * happen in between.
+   * 
+   * @param adjustments The lines of the batch, applied in order.
+   * @return The result of each line, in the same order as the lines.
+   */
+  public List<InventoryAdjustmentResult> applyInventoryBatch(Collection<InventoryAdjustment> adjustments) {
+    // The locks of the products, each once, in order, so two batches can never
+    // wait for each other. A product that does not exist has a lock too, so it
+    // cannot be created while the batch runs.
+    Set<String> keys = new HashSet<>();
+    for (InventoryAdjustment adjustment : adjustments) {
+      if (adjustment.getID() != null) {
+        keys.add(normalizeId(adjustment.getID()));
+      }
+    }
+    int[] stripes = keys.stream().mapToInt(ProductLocks::stripe).distinct().sorted().toArray();
+
+    while (true) {
+      // Look up every product once
+      Map<String, Product> products = new HashMap<>();
+      for (String key : keys) {
+        products.put(key, find(key));
+      }
+
+      ProductLocks.lockAll(stripes);
+      try {
+        if (isCurrent(products)) {
+          List<InventoryAdjustmentResult> results = new ArrayList<>();
+          applyLockedBatch(adjustments, products, results);
+          return results;
+        }
+        // A product was removed, or removed and created again, before it was
+        // locked, so the products are looked up again
+      } finally {
+        ProductLocks.unlockAll(stripes);
+      }
+    }
+  }
+
+  /**
+   * Checks that the products that were looked up are still the ones in the
+   * register. The caller has to hold the locks of the products.
+   */
+  private boolean isCurrent(Map<String, Product> products) {
+    for (Map.Entry<String, Product> entry : products.entrySet()) {
+      if (find(entry.getKey()) != entry.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks and applies a batch where all the products are locked.
+   */
+  private void applyLockedBatch(Collection<InventoryAdjustment> adjustments, Map<String, Product> products,
+      List<InventoryAdjustmentResult> results) {
+    Map<Product, Long> quantities = new HashMap<>();
+    List<String> messages = new ArrayList<>();
+    List<Integer> lineQuantities = new ArrayList<>();
+    boolean valid = true;
+
+    for (InventoryAdjustment adjustment : adjustments) {
+      String id = adjustment.getID();
+      Product product = id == null ? null : products.get(normalizeId(id));
+
+      if (product == null) {
+        messages.add("No product with id " + id + " exists");
+        lineQuantities.add(-1);
+        valid = false;
+        continue;
+      }
+
+      long current = quantities.containsKey(product) ? quantities.get(product) : product.getQuantity();
+      long quantity = current + adjustment.getDelta();
+      if (quantity < 0) {
+        messages.add("The quantity cannot be negative");
+        lineQuantities.add((int) current);
+        valid = false;
+      } else if (quantity > Integer.MAX_VALUE) {
+        messages.add("The quantity is too large");
+        lineQuantities.add((int) current);
+        valid = false;
+      } else {
+        quantities.put(product, quantity);
+        messages.add(null);
+        lineQuantities.add((int) quantity);
+      }
+    }
+
+    if (valid) {
+      // The whole batch gets the same stamp, so a snapshot sees all of it or
+      // none of it.
+      long stamp = versions.next();
+      quantities.forEach((product, quantity) -> setQuantity(product, quantity.intValue(), stamp, 0));
+    }
+
+    int line = 0;
+    for (InventoryAdjustment adjustment : adjustments) {
+      String message = messages.get(line);
+      InventoryAdjustmentResult.Status status;
+      if (message != null) {
+        status = InventoryAdjustmentResult.Status.REJECTED;
+      } else if (valid) {
+        status = InventoryAdjustmentResult.Status.APPLIED;
+      } else {
+        status = InventoryAdjustmentResult.Status.NOT_APPLIED;
+      }
+      results.add(new InventoryAdjustmentResult(adjustment, status, lineQuantities.get(line), message));
+      line++;
+    }
+  }
+
+  /**
+   * Sets the quantity of a product, and keeps the indexes and listeners up to
+   * date. The caller has to hold the lock of the product.
+   */
+  private void setQuantity(Product product, int quantity) {
+    setQuantity(product, quantity, versions.next(), 0);
+  }
+
+  /**
+   * Sets the quantity of a product as part of the change with the given stamp.
+   * The caller has to hold the lock of the product.
+   * 
+   * @param version The version the product gets, or 0 to count it up.
+   */
+  private void setQuantity(Product product, int quantity, long stamp, long version) {
+    int oldQuantity = product.getQuantity();
+    versions.changing(product, stamp);
+    product.setQuantity(quantity);
+    setVersion(product, version);
+    indexes.quantityChanged(product, oldQuantity);
+    totals.quantityChanged(product, oldQuantity);
+    publish(Mutation.quantity(product.getID(), quantity, product.getVersion(), product.getCategory()));
+  }
+
+  /**
+   * Gives a product the version it has in the register a change came from. The
+   * caller has to hold the lock of the product.
+   * 
+   * @param version The version, or 0 to keep the version the product has.
+   */
+  private static void setVersion(Product product, long version) {
+    if (version != 0) {
+      product.setVersion(version);
+    }
+  }
+
+  /**
+   * Adds a product to all the indexes. The caller has to hold the lock of the
+   * product.
+   */
+  private void index(Product product) {
+    keywordIndex.add(product);
+    searchCache.invalidate(product.getDescription());
+    indexes.add(product);
+    totals.add(product);
+  }
+
+  /**
+   * Removes a product from all the indexes. The caller has to hold the lock of
+   * the product.
+   */
+  private void unindex(Product product) {
+    keywordIndex.remove(product, product.getDescription());
+    searchCache.invalidate(product.getDescription());
+    indexes.remove(product);
+    totals.remove(product);
   }
 
   /**
@@ -178,7 +846,17 @@ public class ProductRegister {
    * @param id The id of the product to be removed.
    */
   public void removeProduct(String id) {
-    productRegister.remove(searchById(id));
+    update(id, product -> {
+      String key = normalizeId(id);
+      unindex(product);
+      // The removal is stamped and the product leaves the map before the
+      // removal is published, so a snapshot taken after the removal's place in
+      // the stream never has the product. A new product with the same id has
+      // the same lock, so it waits in add until the removal has been published.
+      versions.removed(product, versions.next());
+      productRegister.remove(key, product);
+      publish(Mutation.remove(product.getID(), product.getCategory()));
+    });
 
   }
 
@@ -189,8 +867,87 @@ public class ProductRegister {
    * @param price The new price of the product.
    */
   public void changePrice(String id, int price) {
-    Product product = searchById(id);
+    update(id, product -> setPrice(product, price, 0));
+  }
+
+  /**
+   * Sets the price of a product, and keeps the indexes and listeners up to
+   * date. The caller has to hold the lock of the product.
+   * 
+   * @param version The version the product gets, or 0 to count it up.
+   */
+  private void setPrice(Product product, int price, long version) {
+    int oldPrice = product.getPrice();
+    versions.changing(product, versions.next());
     product.setPrice(price);
+    setVersion(product, version);
+    indexes.priceChanged(product, oldPrice);
+    totals.priceChanged(product, oldPrice);
+    publish(Mutation.price(product.getID(), price, product.getVersion(), product.getCategory()));
+  }
+
+  /**
+   * Changes the price of a product, but only if the product has not been
+   * changed since the given version was read. Only the product is locked, so
+   * changes to other products are never held up.
+   * 
+   * @param id              The id of the product to change the price of.
+   * @param price           The new price of the product.
+   * @param expectedVersion The version the change is based on.
+   * @return True if the price was changed, false if the product has a newer
+   *         version.
+   */
+  public boolean changePriceIfVersion(String id, int price, long expectedVersion) {
+    boolean[] changed = new boolean[1];
+    update(id, product -> {
+      if (product.getVersion() == expectedVersion) {
+        changePrice(id, price);
+        changed[0] = true;
+      }
+    });
+    return changed[0];
+  }
+
+  /**
+   * Changes the description of a product, but only if the product has not been
+   * changed since the given version was read.
+   * 
+   * @param id              The id of the product to change.
+   * @param description     The new description of the product.
+   * @param expectedVersion The version the change is based on.
+   * @return True if the description was changed, false if the product has a
+   *         newer version.
+   */
+  public boolean changeDescriptionIfVersion(String id, String description, long expectedVersion) {
+    boolean[] changed = new boolean[1];
+    update(id, product -> {
+      if (product.getVersion() == expectedVersion) {
+        changeDescription(id, description);
+        changed[0] = true;
+      }
+    });
+    return changed[0];
+  }
+
+  /**
+   * Sets the quantity of a product, but only if the product has not been
+   * changed since the given version was read.
+   * 
+   * @param id              The id of the product to change.
+   * @param quantity        The new quantity of the product.
+   * @param expectedVersion The version the change is based on.
+   * @return True if the quantity was set, false if the product has a newer
+   *         version.
+   */
+  public boolean setQuantityIfVersion(String id, int quantity, long expectedVersion) {
+    boolean[] changed = new boolean[1];
+    update(id, product -> {
+      if (product.getVersion() == expectedVersion) {
+        setQuantity(product, quantity);
+        changed[0] = true;
+      }
+    });
+    return changed[0];
   }
 
   /**
@@ -200,8 +957,74 @@ public class ProductRegister {
    * @param description The new description of the product.
    */
   public void changeDescription(String id, String description) {
-    Product product = searchById(id);
+    // Checked before the change, since a change that cannot be logged must not
+    // be made
+    Mutation.checkString("description", description);
+    update(id, product -> setDescription(product, description, 0));
+  }
+
+  /**
+   * Sets the description of a product, and keeps the keyword index and
+   * listeners up to date. The caller has to hold the lock of the product.
+   * 
+   * @param version The version the product gets, or 0 to count it up.
+   */
+  private void setDescription(Product product, String description, long version) {
+    String oldDescription = product.getDescription();
+    keywordIndex.remove(product, oldDescription);
+    versions.changing(product, versions.next());
     product.setDescription(description);
+    setVersion(product, version);
+    keywordIndex.add(product);
+    searchCache.invalidate(oldDescription);
+    searchCache.invalidate(description);
+    publish(Mutation.description(product.getID(), description, product.getVersion(), product.getCategory()));
+  }
+
+  /**
+   * Applies a change that was made to another register, for example when a
+   * register is restored from a log. Changes carry new values, not
+   * differences, so applying a change more than once is harmless: a product that
+   * is created again replaces the existing one, and changes to products that do
+   * not exist are ignored.
+   * The changed product gets the version the change carries, so versions read
+   * from the other register can still be used with the changeIfVersion methods.
+   * 
+   * @param mutation The change to apply.
+   */
+  public void apply(Mutation mutation) {
+    String id = mutation.getID();
+    try {
+      switch (mutation.getType()) {
+        case CREATE -> {
+          if (find(normalizeId(id)) != null) {
+            removeProduct(id);
+          }
+          ProductView product = mutation.getProduct();
+          validator.validate(product.getID(), product.getPrice(), product.getQuantity(),
+              product.getCategory().getValue());
+          add(new Product(product));
+        }
+        case REMOVE -> removeProduct(id);
+        case PRICE -> update(id, product -> setPrice(product, mutation.getValue(), mutation.getVersion()));
+        case DESCRIPTION -> update(id,
+            product -> setDescription(product, mutation.getDescription(), mutation.getVersion()));
+        case QUANTITY -> update(id,
+            product -> setQuantity(product, mutation.getValue(), versions.next(), mutation.getVersion()));
+        default -> throw new IllegalArgumentException("Unknown change " + mutation.getType());
+      }
+    } catch (NoSuchElementException e) {
+      // The product has already been removed
+    }
+  }
+
+  /**
+   * Tells all the listeners about a change.
+   */
+  private void publish(Mutation mutation) {
+    for (MutationListener listener : listeners) {
+      listener.onMutation(mutation);
+    }
   }
 
   /**
@@ -210,25 +1033,7 @@ public class ProductRegister {
    * @param amount The amount of products to be added to the register.
    */
   private void populateProductRegister(int amount) {
-    String[] RandomDescriptions = { "Green", "Brown", "Yellow", "White", "Window", "Door", "Lumber", "Floor Laminate",
-        "New", "Cool", "Amazing" };
-
-    Random ran = new Random();
-
-    for (int i = 0; i < amount; i++) {
-      createProduct(
-          "ID" + i,
-          (int) (Math.random() * 10000),
-          RandomDescriptions[ran.nextInt(RandomDescriptions.length)] + ","
-              + RandomDescriptions[ran.nextInt(RandomDescriptions.length)],
-          "Brand" + i,
-          Math.random() * 100,
-          Math.random() * 100,
-          Math.random() * 100,
-          "Color" + i,
-          (int) (Math.random() * 100),
-          (int) (Math.random() * 4) + 1);
-    }
+    new CatalogGenerator(new Random().nextLong()).populate(this, amount);
   }
 
   /**
@@ -238,17 +1043,139 @@ public class ProductRegister {
    * @return A the product.
    */
   private Product searchById(String id) {
-    Optional<Product> data = productRegister
-        .stream()
-        .filter(product -> product.getID().equalsIgnoreCase(id))
-        .findFirst();
+    Product product = id == null ? null : find(normalizeId(id));
 
-    if (data.isPresent()) {
-      return data.get();
+    if (product != null) {
+      return product;
     } else {
       throw new NoSuchElementException("No product with id " + id + " exists");
     }
 
   }
 
+  /**
+   * Returns the product stored under the given key, reading it from the catalog
+   * if it has not been used before.
+   * 
+   * @param key The normalized id of the product.
+   * @return The product, or null if there is no such product.
+   */
+  private Product find(String key) {
+    Product product = productRegister.get(key);
+    MappedCatalog source = catalog;
+    if (product != null || source == null || loadedFromCatalog.contains(key)) {
+      return product;
+    }
+
+    ProductView view = source.get(key);
+    if (view == null) {
+      return null;
+    }
+    synchronized (loadedFromCatalog) {
+      // The rest of the catalog may have been loaded while reading the product
+      if (catalog != null && loadedFromCatalog.add(key)) {
+        product = new Product(view);
+        ProductLocks.lock(product);
+        try {
+          versions.created(product, true);
+          productRegister.put(key, product);
+          index(product);
+        } finally {
+          ProductLocks.unlock(product);
+        }
+        return product;
+      }
+    }
+    return productRegister.get(key);
+  }
+
+  /**
+   * Reads every product from the catalog that has not been read yet.
+   */
+  private void loadCatalog() {
+    if (catalog == null) {
+      return;
+    }
+    synchronized (loadedFromCatalog) {
+      MappedCatalog source = catalog;
+      if (source != null) {
+        source.forEach(view -> {
+          String key = normalizeId(view.getID());
+          if (loadedFromCatalog.add(key)) {
+            Product product = new Product(view);
+            ProductLocks.lock(product);
+            try {
+              versions.created(product, true);
+              productRegister.put(key, product);
+              index(product);
+            } finally {
+              ProductLocks.unlock(product);
+            }
+          }
+        });
+        catalog = null;
+        loadedFromCatalog.clear();
+      }
+    }
+  }
+
+  /**
+   * Runs an action while holding the lock of the product with the given ID, so
+   * the product cannot be changed by anyone else until the action returns. The
+   * action may call the methods of the register for the same product.
+   * 
+   * @param id     The id of the product.
+   * @param action The action, which is given a snapshot of the product.
+   */
+  void withProduct(String id, Consumer<ProductView> action) {
+    update(id, product -> action.accept(product.view()));
+  }
+
+  /**
+   * Runs a change on the product with the given ID while holding the lock of the
+   * product. If the product is removed while waiting for the lock, the product
+   * is looked up again, so the change is never made to a removed product.
+   * 
+   * @param id     The id of the product to change.
+   * @param change The change to make.
+   */
+  private void update(String id, Consumer<Product> change) {
+    while (true) {
+      Product product = searchById(id);
+      ProductLocks.lock(product);
+      try {
+        if (productRegister.get(normalizeId(id)) == product) {
+          change.accept(product);
+          return;
+        }
+      } finally {
+        ProductLocks.unlock(product);
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the product, taken while holding the lock of the
+   * product.
+   */
+  private static ProductView view(Product product) {
+    ProductLocks.lock(product);
+    try {
+      return product.view();
+    } finally {
+      ProductLocks.unlock(product);
+    }
+  }
+
+  /**
+   * Returns the key a product ID is stored under in the register. IDs are case
+   * insensitive, so "id1" and "ID1" refer to the same product.
+   * 
+   * @param id The id to normalize.
+   * @return The id in lower case.
+   */
+  static String normalizeId(String id) {
+    return id.toLowerCase(Locale.ROOT);
+  }
+
 }
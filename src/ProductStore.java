@@ -0,0 +1,118 @@
+package src;
+
+import java.util.function.Consumer;
+
+/**
+ * A compact store for a large number of products. Unlike
+ * {@link ProductRegister}, which keeps every product as an object with its own
+ * lock and indexes, a store keeps the values of all products together, so it
+ * uses much less memory per product and scans the products much faster. It is
+ * meant for catalogs with millions of products that are mostly read and
+ * scanned, for example for reports.
+ *
+ * <p>
+ * IDs are compared without regard to case, like in the register. Values are
+ * not checked by a store, so products should be validated before they are
+ * added, for example by creating them in a register first.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public interface ProductStore {
+
+  /**
+   * Adds a product to the store.
+   *
+   * @param product The product to add.
+   * @throws IllegalArgumentException If a product with the same id exists.
+   */
+  void add(ProductView product);
+
+  /**
+   * Returns a snapshot of the product with the given id.
+   *
+   * @param id The id of the product.
+   * @return The product.
+   * @throws java.util.NoSuchElementException If there is no such product.
+   */
+  ProductView get(String id);
+
+  /**
+   * Removes the product with the given id.
+   *
+   * @param id The id of the product.
+   * @throws java.util.NoSuchElementException If there is no such product.
+   */
+  void remove(String id);
+
+  /**
+   * Changes the price of a product.
+   *
+   * @throws java.util.NoSuchElementException If there is no such product.
+   */
+  void setPrice(String id, int price);
+
+  /**
+   * Changes the quantity of a product.
+   *
+   * @throws java.util.NoSuchElementException If there is no such product.
+   */
+  void setQuantity(String id, int quantity);
+
+  /**
+   * Changes the description of a product.
+   *
+   * @throws java.util.NoSuchElementException If there is no such product.
+   */
+  void setDescription(String id, String description);
+
+  /**
+   * Returns the number of products in the store.
+   *
+   * @return The number of products.
+   */
+  int size();
+
+  /**
+   * Gives a snapshot of every product to the action, one at a time.
+   *
+   * @param action The action to run for each product.
+   */
+  void forEach(Consumer<ProductView> action);
+
+  /**
+   * Gives a snapshot of every product that meets the query to the action. The
+   * conditions are checked on the stored values, so only the matching products
+   * are turned into snapshots.
+   *
+   * @param query  The conditions.
+   * @param action The action to run for each matching product.
+   */
+  void forEachMatching(ProductQuery query, Consumer<ProductView> action);
+
+  /**
+   * Returns the number of products that meet the query.
+   *
+   * @param query The conditions.
+   * @return The number of matching products.
+   */
+  int count(ProductQuery query);
+
+  /**
+   * Returns the total quantity of the products that meet the query.
+   *
+   * @param query The conditions.
+   * @return The sum of the quantities.
+   */
+  long totalQuantity(ProductQuery query);
+
+  /**
+   * Returns the total value of the stock of the products that meet the query,
+   * that is the sum of price times quantity.
+   *
+   * @param query The conditions.
+   * @return The value of the stock.
+   */
+  long stockValue(ProductQuery query);
+
+}
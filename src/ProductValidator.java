@@ -0,0 +1,31 @@
+package src;
+
+/**
+ * A validator for the values of a new product. The register uses a validator
+ * to decide if a product can be created, so the rules can be replaced without
+ * changing the product class.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public interface ProductValidator {
+
+  /**
+   * The standard rules: the id has to contain both letters and digits, the
+   * category has to be between 1 and 4, and the price and quantity cannot be
+   * negative.
+   */
+  ProductValidator DEFAULT = new DefaultProductValidator();
+
+  /**
+   * Checks the values of a new product.
+   * 
+   * @param id       The id of the product.
+   * @param price    The price of the product.
+   * @param quantity The quantity of the product.
+   * @param category The category of the product.
+   * @throws IllegalArgumentException If any of the values are not valid.
+   */
+  void validate(String id, int price, int quantity, int category);
+
+}
@@ -0,0 +1,175 @@
+package src;
+
+/**
+ * This class is a read-only snapshot of a product, as it was when the snapshot
+ * was taken. A snapshot never changes, so it can be shared freely and returned
+ * from the register without being copied.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public final class ProductView {
+
+  private final String id;
+  private final int price;
+  private final String description;
+  private final String brandName;
+  private final double weight;
+  private final double length;
+  private final double height;
+  private final String color;
+  private final int quantity;
+  private final Category category;
+  private final long version;
+
+  // The string representation, created the first time it is needed.
+  private String text;
+
+  /**
+   * Constructor for a snapshot of a product. The product has already been
+   * validated, so the values are not checked again.
+   * 
+   * @param product The product to take a snapshot of.
+   */
+  ProductView(Product product) {
+    this(product.getID(),
+        product.getPrice(),
+        product.getDescription(),
+        product.getBrandName(),
+        product.getWeight(),
+        product.getLength(),
+        product.getHeight(),
+        product.getColor(),
+        product.getQuantity(),
+        product.getCategory(),
+        product.getVersion());
+  }
+
+  /**
+   * Constructor for a snapshot with the given values. The values are not
+   * checked, so they have to come from a product that has been validated.
+   */
+  ProductView(
+      String id,
+      int price,
+      String description,
+      String brandName,
+      double weight,
+      double length,
+      double height,
+      String color,
+      int quantity,
+      Category category) {
+    this(id, price, description, brandName, weight, length, height, color, quantity, category, 1);
+  }
+
+  /**
+   * Constructor for a snapshot with the given values and version. The values
+   * are not checked, so they have to come from a product that has been
+   * validated.
+   */
+  ProductView(
+      String id,
+      int price,
+      String description,
+      String brandName,
+      double weight,
+      double length,
+      double height,
+      String color,
+      int quantity,
+      Category category,
+      long version) {
+    this.id = id;
+    this.price = price;
+    this.description = description;
+    this.brandName = brandName;
+    this.weight = weight;
+    this.length = length;
+    this.height = height;
+    this.color = color;
+    this.quantity = quantity;
+    this.category = category;
+    this.version = version;
+  }
+
+  public String getID() {
+    return id;
+  }
+
+  public int getPrice() {
+    return price;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public String getBrandName() {
+    return brandName;
+  }
+
+  public double getWeight() {
+    return weight;
+  }
+
+  public double getLength() {
+    return length;
+  }
+
+  public double getHeight() {
+    return height;
+  }
+
+  public String getColor() {
+    return color;
+  }
+
+  public int getQuantity() {
+    return quantity;
+  }
+
+  public Category getCategory() {
+    return category;
+  }
+
+  /**
+   * Returns the version of the product this snapshot was taken of. The version
+   * starts at 1 and goes up by one every time the product is changed.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Appends the same text as {@link #toString()} to a builder, without creating
+   * a string.
+   * 
+   * @param builder The builder to append to.
+   * @return The builder.
+   */
+  public StringBuilder appendTo(StringBuilder builder) {
+    return builder
+        .append("ID: ").append(id).append('\n')
+        .append("Price: ").append(price).append('\n')
+        .append("Description: ").append(description).append('\n')
+        .append("Brand Name: ").append(brandName).append('\n')
+        .append("Weight: ").append(weight).append('\n')
+        .append("Length: ").append(length).append('\n')
+        .append("Height: ").append(height).append('\n')
+        .append("Color: ").append(color).append('\n')
+        .append("Quantity: ").append(quantity).append('\n')
+        .append("Category: ").append(category).append('\n');
+  }
+
+  @Override
+  public String toString() {
+    String result = text;
+    if (result == null) {
+      result = appendTo(new StringBuilder(128)).toString();
+      text = result;
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,477 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Makes a register durable by writing every change to a write-ahead log on
+ * disk, and restores the register from the log when it is opened again.
+ *
+ * <p>
+ * Changes are collected in memory and written to disk together, and the disk is
+ * synced in the background at a fixed interval. Durability is asynchronous: a
+ * change returns to its caller before it is on disk, so the changes of the last
+ * interval can be lost if the machine crashes. Call {@link #sync()} to wait
+ * until everything so far is on disk.
+ *
+ * <p>
+ * If the log cannot be written or synced, the journal fails for good, since
+ * the disk may have dropped changes. The error is then thrown from every later
+ * change, and from {@link #sync()}, {@link #snapshot()} and {@link #close()}.
+ *
+ * <p>
+ * The log is split into segments. A snapshot of the whole register is written
+ * now and then, after which the older segments are deleted, so a restart only
+ * has to read the snapshot and the newest segments.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class RegisterJournal implements MutationListener, Closeable {
+
+  private static final String SNAPSHOT_FILE = "snapshot.bin";
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int SNAPSHOT_MAGIC = 0x50524756;
+
+  // Write the collected changes to the file when there are this many bytes.
+  private static final int BUFFER_LIMIT = 1 << 20;
+
+  private final Path directory;
+  private final ProductRegister register;
+  private final long snapshotEvery;
+  private final ScheduledExecutorService flusher;
+
+  // Changes that have not been written to the file yet.
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private final DataOutputStream pendingOut = new DataOutputStream(pending);
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+  private final DataOutputStream recordOut = new DataOutputStream(record);
+  private final CRC32 crc = new CRC32();
+
+  // Only one snapshot is written at a time.
+  private final Object snapshotLock = new Object();
+
+  private FileChannel channel;
+  private long segment;
+  private long changesSinceSnapshot;
+  private boolean closed;
+
+  // The first error from writing or syncing the log, after which nothing more
+  // is written.
+  private IOException failure;
+
+  private RegisterJournal(Path directory, ProductRegister register, long segment, long snapshotEvery)
+      throws IOException {
+    this.directory = directory;
+    this.register = register;
+    this.snapshotEvery = snapshotEvery;
+    this.segment = segment;
+    this.channel = openSegment(segment);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "register-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Restores the register from the log in the directory, and starts logging the
+   * changes to the register. The disk is synced every 10 milliseconds, and a
+   * snapshot is written every 100 000 changes.
+   *
+   * @param directory The directory of the log. It is created if it does not
+   *                  exist.
+   * @param register  An empty register to restore into.
+   * @return The journal, which has to be closed when the register is no longer
+   *         used.
+   * @throws IOException If the log could not be read or created.
+   */
+  public static RegisterJournal open(Path directory, ProductRegister register) throws IOException {
+    return open(directory, register, 10, 100_000);
+  }
+
+  /**
+   * Restores the register from the log in the directory, and starts logging the
+   * changes to the register.
+   *
+   * @param directory          The directory of the log. It is created if it does
+   *                           not exist.
+   * @param register           An empty register to restore into.
+   * @param syncIntervalMillis How often the disk is synced, in milliseconds.
+   * @param snapshotEvery      How many changes there are between two snapshots.
+   * @return The journal, which has to be closed when the register is no longer
+   *         used.
+   * @throws IOException If the log could not be read or created.
+   */
+  public static RegisterJournal open(Path directory, ProductRegister register, long syncIntervalMillis,
+      long snapshotEvery) throws IOException {
+    Files.createDirectories(directory);
+    long segment = recover(directory, register);
+
+    RegisterJournal journal = new RegisterJournal(directory, register, segment, snapshotEvery);
+    register.addMutationListener(journal);
+    journal.flusher.scheduleWithFixedDelay(journal::flushInBackground, syncIntervalMillis, syncIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    return journal;
+  }
+
+  @Override
+  public synchronized void onMutation(Mutation mutation) {
+    if (closed) {
+      throw new IllegalStateException("The journal is closed");
+    }
+    if (failure != null) {
+      throw new UncheckedIOException("The journal has failed", failure);
+    }
+
+    try {
+      record.reset();
+      mutation.writeTo(recordOut);
+      crc.reset();
+      crc.update(record.toByteArray());
+
+      pendingOut.writeInt(record.size());
+      pendingOut.writeInt((int) crc.getValue());
+      record.writeTo(pendingOut);
+
+      changesSinceSnapshot++;
+      if (pending.size() >= BUFFER_LIMIT) {
+        writePending();
+      }
+    } catch (IOException e) {
+      failure = e;
+      throw new UncheckedIOException("Could not write to the journal", e);
+    }
+  }
+
+  /**
+   * Writes all changes so far to disk, and returns when they are there.
+   *
+   * @throws IOException If the changes could not be written.
+   */
+  public void sync() throws IOException {
+    FileChannel current;
+    synchronized (this) {
+      checkFailure();
+      try {
+        writePending();
+      } catch (IOException e) {
+        failure = e;
+        throw e;
+      }
+      current = channel;
+    }
+
+    // The disk is synced without holding the lock, so changes can be collected
+    // while waiting for the disk.
+    try {
+      current.force(false);
+    } catch (ClosedChannelException e) {
+      // The segment was closed by a snapshot, which syncs it first
+    } catch (IOException e) {
+      synchronized (this) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes a snapshot of the register, and deletes the parts of the log that
+   * are no longer needed.
+   *
+   * @throws IOException If the snapshot could not be written.
+   */
+  public void snapshot() throws IOException {
+    synchronized (snapshotLock) {
+      long firstSegment;
+      synchronized (this) {
+        // Start a new segment. Changes in the new segment may or may not be in
+        // the snapshot, which is fine since they can be applied again.
+        checkFailure();
+        try {
+          writePending();
+          channel.force(false);
+          channel.close();
+          segment++;
+          channel = openSegment(segment);
+        } catch (IOException e) {
+          failure = e;
+          throw e;
+        }
+        firstSegment = segment;
+        changesSinceSnapshot = 0;
+      }
+
+      Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+      try (OutputStream file = Files.newOutputStream(temporary)) {
+        // The buffer is in front of the checksum, so the checksum is updated a
+        // buffer at a time
+        CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(firstSegment);
+
+        // The products are read from a register snapshot, so every product is
+        // written as it was at one point in time, and none is missed or
+        // written twice while the register changes.
+        try (RegisterSnapshot products = register.snapshot()) {
+          for (ProductView product : products) {
+            out.writeBoolean(true);
+            out.writeLong(product.getVersion());
+            Mutation.writeProduct(out, product);
+          }
+        }
+
+        out.writeBoolean(false);
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+        out.flush();
+      }
+      try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        file.force(true);
+      }
+      Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      for (long number : segments(directory)) {
+        if (number < firstSegment) {
+          Files.delete(segmentPath(directory, number));
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops logging, and writes all changes so far to disk.
+   */
+  @Override
+  public void close() throws IOException {
+    register.removeMutationListener(this);
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized (this) {
+      if (!closed) {
+        closed = true;
+        try {
+          checkFailure();
+          writePending();
+          channel.force(false);
+        } finally {
+          channel.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Syncs the disk, and writes a snapshot if there have been enough changes.
+   * Runs on the background thread.
+   */
+  private void flushInBackground() {
+    try {
+      boolean snapshotDue;
+      synchronized (this) {
+        if (closed || failure != null) {
+          return;
+        }
+        snapshotDue = changesSinceSnapshot >= snapshotEvery;
+      }
+      sync();
+      if (snapshotDue) {
+        snapshot();
+      }
+    } catch (IOException e) {
+      // The writers get the error from now on
+      synchronized (this) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Throws the error the journal failed with, if it has failed. The caller has
+   * to hold the lock of the journal.
+   */
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("The journal has failed", failure);
+    }
+  }
+
+  /**
+   * Writes the collected changes to the current segment. The caller has to hold
+   * the lock of the journal.
+   */
+  private void writePending() throws IOException {
+    if (pending.size() > 0) {
+      ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      pending.reset();
+    }
+  }
+
+  private FileChannel openSegment(long number) throws IOException {
+    return FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Restores the register from the snapshot and the segments in the directory.
+   *
+   * @return The number of the segment new changes should be written to.
+   */
+  private static long recover(Path directory, ProductRegister register) throws IOException {
+    long firstSegment = 1;
+
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    if (Files.exists(snapshot)) {
+      firstSegment = readSnapshot(snapshot, register);
+    }
+
+    long next = firstSegment;
+    for (long number : segments(directory)) {
+      if (number >= firstSegment) {
+        replaySegment(segmentPath(directory, number), register);
+        next = number + 1;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Reads a snapshot into the register.
+   *
+   * @return The first segment that has to be applied after the snapshot.
+   */
+  private static long readSnapshot(Path snapshot, ProductRegister register) throws IOException {
+    // The whole file is read and checked at once. Checking it while parsing
+    // would update the checksum one byte at a time.
+    byte[] data = Files.readAllBytes(snapshot);
+    int length = data.length - Long.BYTES;
+    CRC32 crc = new CRC32();
+    if (length > 0) {
+      crc.update(data, 0, length);
+    }
+    if (length < Integer.BYTES + Long.BYTES + 1
+        || ByteBuffer.wrap(data, length, Long.BYTES).getLong() != crc.getValue()) {
+      throw new IOException(snapshot + " is corrupt");
+    }
+
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length))) {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException(snapshot + " is not a snapshot");
+      }
+      long firstSegment = in.readLong();
+
+      // The products are read first and added to the register together, so the
+      // indexes can be built in one go.
+      List<ProductView> products = new ArrayList<>();
+      while (in.readBoolean()) {
+        long version = in.readLong();
+        products.add(Mutation.readProduct(in, version));
+      }
+      register.addAll(products);
+      return firstSegment;
+    }
+  }
+
+  /**
+   * Applies the changes in a segment to the register. If the segment ends with
+   * a change that was only partly written when the program stopped, that
+   * change is cut off.
+   */
+  private static void replaySegment(Path path, ProductRegister register) throws IOException {
+    long valid = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      CRC32 crc = new CRC32();
+      while (true) {
+        int length;
+        int checksum;
+        byte[] data;
+        try {
+          length = in.readInt();
+          checksum = in.readInt();
+          if (length < 0) {
+            break;
+          }
+          data = new byte[length];
+          in.readFully(data);
+        } catch (EOFException e) {
+          break;
+        }
+
+        crc.reset();
+        crc.update(data);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        register.apply(Mutation.readFrom(new DataInputStream(new ByteArrayInputStream(data))));
+        valid += 8 + length;
+      }
+    }
+
+    if (valid < Files.size(path)) {
+      try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        file.truncate(valid);
+      }
+    }
+  }
+
+  /**
+   * Returns the numbers of the segments in the directory, from oldest to newest.
+   */
+  private static List<Long> segments(Path directory) throws IOException {
+    List<Long> numbers = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+          .forEach(name -> numbers.add(
+              Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+    }
+    numbers.sort(null);
+    return numbers;
+  }
+
+  private static Path segmentPath(Path directory, long number) {
+    return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+
+}
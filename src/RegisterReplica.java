@@ -0,0 +1,318 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * A read-only copy of a register, kept up to date with the changes a
+ * {@link ReplicationPrimary} ships. Reads are answered from a local register,
+ * so they never go to the primary and never wait for it, but may not show the
+ * latest changes yet. {@link #getReplicationStats()} tells how far behind the
+ * replica is.
+ *
+ * <p>
+ * The changes are applied in order by a thread of the replica. If the
+ * connection is lost, the replica reconnects and goes on from the last change
+ * it applied, or loads a snapshot if the primary no longer has that change.
+ * Changes carry new values, not differences, so a change that arrives twice is
+ * applied twice without harm.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class RegisterReplica implements Closeable {
+
+  // How long, in milliseconds, to wait before the first and the last attempt
+  // to reconnect.
+  private static final long MIN_BACKOFF = 50;
+  private static final long MAX_BACKOFF = 2000;
+
+  // The primary has already checked the products, so they are not checked again
+  private static final ProductValidator ACCEPT_ALL = (id, price, quantity, category) -> {
+  };
+
+  private final String host;
+  private final int port;
+  private final Thread thread;
+  private volatile boolean closed;
+  private volatile Socket socket;
+
+  // Replaced by a new register when a snapshot is loaded.
+  private volatile ProductRegister register = new ProductRegister(ACCEPT_ALL);
+
+  // Written by the replication thread only.
+  private volatile boolean connected;
+  private volatile long epoch;
+  private volatile long applied;
+  private volatile long primarySequence;
+  private volatile long lagMillis;
+  private volatile long snapshots;
+  private volatile long reconnects;
+
+  private RegisterReplica(String host, int port) {
+    this.host = host;
+    this.port = port;
+    this.thread = new Thread(this::run, "replica-" + host + ":" + port);
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts a replica of the register of a primary. The replica is empty until
+   * it has connected and loaded the products, which can be waited for with
+   * {@link #awaitSequence(long, long)}.
+   *
+   * @param host The host of the primary.
+   * @param port The port of the primary.
+   * @return The replica.
+   */
+  public static RegisterReplica connect(String host, int port) {
+    RegisterReplica replica = new RegisterReplica(host, port);
+    replica.thread.start();
+    return replica;
+  }
+
+  /**
+   * Returns how far behind the primary the replica is.
+   *
+   * @return The statistics.
+   */
+  public ReplicationStats getReplicationStats() {
+    return new ReplicationStats(connected, applied, Math.max(primarySequence, applied), lagMillis, snapshots,
+        reconnects);
+  }
+
+  /**
+   * Waits until the replica has applied the change with the given sequence
+   * number, for example a change the caller has just made on the primary.
+   *
+   * @param sequence The sequence number of the change.
+   * @param timeout  How long to wait, in milliseconds.
+   * @return True if the change has been applied, false if the time ran out.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public boolean awaitSequence(long sequence, long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (applied < sequence) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  /**
+   * Returns a snapshot of the product with the given id, see
+   * {@link ProductRegister#getProductByID(String)}.
+   */
+  public ProductView getProductByID(String id) {
+    return register.getProductByID(id);
+  }
+
+  /**
+   * Returns a copy of the product with the given id, see
+   * {@link ProductRegister#getProductDeepCopyByID(String)}.
+   */
+  public Product getProductDeepCopyByID(String id) {
+    return register.getProductDeepCopyByID(id);
+  }
+
+  /**
+   * Returns the products that match any of the keywords, see
+   * {@link ProductRegister#searchByKeywords(String)}.
+   */
+  public List<String> searchByKeywords(String keywords) {
+    return register.searchByKeywords(keywords);
+  }
+
+  /**
+   * Returns the products that match the keywords, see
+   * {@link ProductRegister#searchByKeywords(String, boolean, boolean)}.
+   */
+  public List<String> searchByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
+    return register.searchByKeywords(keywords, matchAll, partialMatch);
+  }
+
+  /**
+   * Returns snapshots of the products that match the keywords, see
+   * {@link ProductRegister#findByKeywords(String, boolean, boolean)}.
+   */
+  public List<ProductView> findByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
+    return register.findByKeywords(keywords, matchAll, partialMatch);
+  }
+
+  /**
+   * Returns snapshots of the products that meet a query, see
+   * {@link ProductRegister#query(ProductQuery)}.
+   */
+  public List<ProductView> query(ProductQuery query) {
+    return register.query(query);
+  }
+
+  /**
+   * Returns one page of the products, see
+   * {@link ProductRegister#listProducts(ProductOrder, String, int)}.
+   */
+  public ProductPage listProducts(ProductOrder order, String cursor, int limit) {
+    return register.listProducts(order, cursor, limit);
+  }
+
+  /**
+   * Returns every product as a string, see
+   * {@link ProductRegister#printAllProducts()}.
+   */
+  public List<String> printAllProducts() {
+    return register.printAllProducts();
+  }
+
+  /**
+   * Returns the totals of all the products, see
+   * {@link ProductRegister#getInventoryTotals()}.
+   */
+  public InventoryTotals getInventoryTotals() {
+    return register.getInventoryTotals();
+  }
+
+  /**
+   * Stops following the primary. The products can still be read.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    Socket current = socket;
+    if (current != null) {
+      current.close();
+    }
+    thread.interrupt();
+  }
+
+  /**
+   * Follows the primary, and reconnects when the connection is lost.
+   */
+  private void run() {
+    long backoff = MIN_BACKOFF;
+    while (!closed) {
+      try (Socket connection = new Socket()) {
+        socket = connection;
+        if (closed) {
+          return;
+        }
+        connection.connect(new InetSocketAddress(host, port));
+        connection.setTcpNoDelay(true);
+        follow(connection);
+      } catch (IOException | RuntimeException e) {
+        // Lost the connection, or the primary sent something unexpected
+      }
+
+      if (connected) {
+        connected = false;
+        reconnects++;
+        backoff = MIN_BACKOFF;
+      }
+      if (closed) {
+        return;
+      }
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException e) {
+        return;
+      }
+      backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+  }
+
+  /**
+   * Asks the primary for the changes after the last applied one, and applies
+   * them until the connection is lost.
+   */
+  private void follow(Socket connection) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+    out.writeLong(epoch);
+    out.writeLong(applied + 1);
+    out.flush();
+
+    long primaryEpoch = in.readLong();
+    byte mode = in.readByte();
+    if (mode == ReplicationProtocol.SNAPSHOT) {
+      loadSnapshot(in);
+    } else if (mode != ReplicationProtocol.STREAM) {
+      throw new IOException("Unknown code " + mode);
+    }
+    epoch = primaryEpoch;
+    connected = true;
+
+    while (!closed) {
+      byte code = in.readByte();
+      switch (code) {
+        case ReplicationProtocol.CHANGE -> {
+          long sequence = in.readLong();
+          long timestamp = in.readLong();
+          Mutation mutation = Mutation.readFrom(in);
+          if (sequence <= applied) {
+            continue;
+          }
+          if (sequence != applied + 1) {
+            throw new IOException("Expected change " + (applied + 1) + " but got " + sequence);
+          }
+          register.apply(mutation);
+          applied = sequence;
+          primarySequence = Math.max(primarySequence, sequence);
+          lagMillis = Math.max(0, System.currentTimeMillis() - timestamp);
+        }
+        case ReplicationProtocol.HEARTBEAT -> {
+          primarySequence = in.readLong() - 1;
+          in.readLong();
+          if (applied >= primarySequence) {
+            lagMillis = 0;
+          }
+        }
+        default -> throw new IOException("Unknown code " + code);
+      }
+    }
+  }
+
+  /**
+   * Loads all the products of the primary into a new register, and replaces
+   * the old register with it once every product is there.
+   */
+  private void loadSnapshot(DataInputStream in) throws IOException {
+    long first = in.readLong();
+    ProductRegister loaded = new ProductRegister(ACCEPT_ALL);
+    byte code;
+    while ((code = in.readByte()) == ReplicationProtocol.PRODUCT) {
+      loaded.add(new Product(Mutation.readProduct(in)));
+    }
+    if (code != ReplicationProtocol.END_SNAPSHOT) {
+      throw new IOException("Unknown code " + code);
+    }
+    register = loaded;
+    applied = first - 1;
+    primarySequence = applied;
+    snapshots++;
+  }
+
+  /**
+   * Starts a replica of the primary on the given host and port, and prints
+   * how far behind it is every second.
+   *
+   * @param args The host and port of the primary.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    String host = args.length > 0 ? args[0] : "localhost";
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : ReplicationPrimary.DEFAULT_PORT;
+    RegisterReplica replica = connect(host, port);
+    while (true) {
+      Thread.sleep(1000);
+      System.out.println(replica.getReplicationStats() + ": " + replica.getInventoryTotals());
+    }
+  }
+
+}
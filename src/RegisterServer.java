@@ -0,0 +1,374 @@
+package src;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP service that makes a register available to many clients at the same
+ * time. Requests and responses are JSON:
+ *
+ * <pre>
+ * GET    /products?order=price&amp;cursor=...&amp;limit=50  a page of products
+ * POST   /products                                  create a product
+ * GET    /products/{id}                             one product
+ * DELETE /products/{id}                             remove a product
+ * PUT    /products/{id}/price        {"price": 100, "version": 3}
+ * PUT    /products/{id}/description  {"description": "...", "version": 3}
+ * POST   /products/{id}/inventory    {"delta": -2}
+ * GET    /search?q=door&amp;all=true&amp;partial=false     keyword search
+ * GET    /query?category=4&amp;minPrice=0&amp;maxPrice=499   query on the indexes
+ * </pre>
+ *
+ * <p>
+ * The version in a change is optional. When it is given, the change is only
+ * made if the product still has that version, and the answer is 409 Conflict
+ * otherwise. A product that does not exist gives 404 Not Found, and invalid
+ * values give 400 Bad Request. Any other failure is written to the error log
+ * and gives 500 Internal Server Error, without the details.
+ *
+ * <p>
+ * Each request is handled on its own virtual thread when the Java runtime has
+ * them, so many requests can wait for the network at the same time. The locks
+ * of the products are {@link java.util.concurrent.locks.ReentrantLock}s, so a
+ * handler that waits for a busy product gives its carrier thread back. Some
+ * shorter locks inside the register, like the one of the keyword index, are
+ * monitors ({@code synchronized}), and before Java 24 a virtual thread that
+ * waits for a monitor, or holds one, keeps its carrier thread for that short
+ * time. On older runtimes a pool of ordinary threads is used instead.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class RegisterServer {
+
+  private static final System.Logger LOG = System.getLogger(RegisterServer.class.getName());
+
+  private static final int DEFAULT_PORT = 8080;
+
+  // How many connections may wait to be accepted.
+  private static final int BACKLOG = 4096;
+
+  private final ProductRegister register;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private RegisterServer(ProductRegister register, HttpServer server, ExecutorService executor) {
+    this.register = register;
+    this.server = server;
+    this.executor = executor;
+  }
+
+  /**
+   * Starts a server for a register.
+   *
+   * <p>
+   * The server does not change any system properties. Small responses are
+   * sent much faster when the JVM is started with
+   * {@code -Dsun.net.httpserver.nodelay=true}, since without it a response can
+   * wait about 40 ms for the ACK of its headers before the body is sent.
+   * {@link #main(String[])} sets it for a server of its own.
+   *
+   * @param register The register to serve.
+   * @param port     The port to listen on, or 0 for any free port.
+   * @return The running server.
+   * @throws IOException If the server could not listen on the port.
+   */
+  public static RegisterServer start(ProductRegister register, int port) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+    ExecutorService executor = newExecutor();
+    RegisterServer service = new RegisterServer(register, server, executor);
+    server.createContext("/", service::handle);
+    server.setExecutor(executor);
+    server.start();
+    return service;
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops the server. Requests that are being handled get a second to finish.
+   */
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+  }
+
+  /**
+   * Starts a server on the given port, or 8080. If a directory is given, the
+   * register is stored in that directory, like in {@link App}.
+   *
+   * @param args An optional port and an optional directory.
+   */
+  public static void main(String[] args) throws IOException {
+    // This process only runs the server, so it may decide for the whole JVM.
+    // Without it, a small response waits for the ACK of the headers before
+    // the body is sent, which adds about 40 ms to every request.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    ProductRegister register;
+    if (args.length > 1) {
+      register = new ProductRegister(ProductValidator.DEFAULT);
+      RegisterJournal journal = RegisterJournal.open(Paths.get(args[1]), register);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          System.out.println("Could not save the register: " + e.getMessage());
+        }
+      }));
+    } else {
+      register = new ProductRegister();
+    }
+
+    RegisterServer server = start(register, port);
+    System.out.println("Serving the register on port " + server.getPort());
+  }
+
+  /**
+   * Handles one request, and turns the exceptions of the register into status
+   * codes.
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String[] path = exchange.getRequestURI().getPath().split("/");
+      String method = exchange.getRequestMethod();
+      Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+
+      if (path.length == 2 && path[1].equals("products")) {
+        switch (method) {
+          case "GET" -> listProducts(exchange, parameters);
+          case "POST" -> createProduct(exchange);
+          default -> send(exchange, 405, error("Method not allowed"));
+        }
+      } else if (path.length == 3 && path[1].equals("products")) {
+        switch (method) {
+          case "GET" -> send(exchange, 200, product(register.getProductByID(path[2])));
+          case "DELETE" -> {
+            register.removeProduct(path[2]);
+            send(exchange, 204, null);
+          }
+          default -> send(exchange, 405, error("Method not allowed"));
+        }
+      } else if (path.length == 4 && path[1].equals("products")) {
+        changeProduct(exchange, method, path[2], path[3]);
+      } else if (path.length == 2 && path[1].equals("search") && method.equals("GET")) {
+        search(exchange, parameters);
+      } else if (path.length == 2 && path[1].equals("query") && method.equals("GET")) {
+        query(exchange, parameters);
+      } else {
+        send(exchange, 404, error("Not found"));
+      }
+    } catch (NoSuchElementException e) {
+      send(exchange, 404, error(e.getMessage()));
+    } catch (IllegalArgumentException e) {
+      send(exchange, 400, error(e.getMessage()));
+    } catch (RuntimeException e) {
+      // The details are for the log, not for the client
+      LOG.log(System.Logger.Level.ERROR,
+          "Could not handle " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+      send(exchange, 500, error("Internal server error"));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void listProducts(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+    ProductOrder order = ProductOrder.ID;
+    if (parameters.containsKey("order")) {
+      order = ProductOrder.valueOf(parameters.get("order").toUpperCase(Locale.ROOT));
+    }
+    int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : 50;
+    ProductPage page = register.listProducts(order, parameters.get("cursor"), limit);
+
+    StringBuilder body = new StringBuilder();
+    body.append("{\"products\":");
+    Json.appendProducts(body, page.getProducts());
+    body.append(",\"next\":");
+    Json.appendString(body, page.getNextCursor());
+    send(exchange, 200, body.append('}').toString());
+  }
+
+  private void createProduct(HttpExchange exchange) throws IOException {
+    Map<String, String> fields = Json.parseObject(body(exchange));
+    register.createProduct(
+        required(fields, "id"),
+        Integer.parseInt(required(fields, "price")),
+        fields.get("description"),
+        fields.get("brandName"),
+        Double.parseDouble(required(fields, "weight")),
+        Double.parseDouble(required(fields, "length")),
+        Double.parseDouble(required(fields, "height")),
+        fields.get("color"),
+        Integer.parseInt(required(fields, "quantity")),
+        Integer.parseInt(required(fields, "category")));
+    send(exchange, 201, product(register.getProductByID(fields.get("id"))));
+  }
+
+  /**
+   * Handles the requests that change one value of a product.
+   */
+  private void changeProduct(HttpExchange exchange, String method, String id, String value) throws IOException {
+    Map<String, String> fields = Json.parseObject(body(exchange));
+    String version = fields.get("version");
+    boolean changed = true;
+
+    if (value.equals("price") && method.equals("PUT")) {
+      int price = Integer.parseInt(required(fields, "price"));
+      if (version == null) {
+        register.changePrice(id, price);
+      } else {
+        changed = register.changePriceIfVersion(id, price, Long.parseLong(version));
+      }
+    } else if (value.equals("description") && method.equals("PUT")) {
+      String description = required(fields, "description");
+      if (version == null) {
+        register.changeDescription(id, description);
+      } else {
+        changed = register.changeDescriptionIfVersion(id, description, Long.parseLong(version));
+      }
+    } else if (value.equals("inventory") && method.equals("POST")) {
+      InventoryAdjustment adjustment = new InventoryAdjustment(id, Integer.parseInt(required(fields, "delta")));
+      InventoryAdjustmentResult result = register.applyInventoryBatch(List.of(adjustment)).get(0);
+      if (result.getStatus() != InventoryAdjustmentResult.Status.APPLIED) {
+        // The only line of the batch failed, so the message says why
+        if (!result.isProductFound()) {
+          throw new NoSuchElementException(result.getMessage());
+        }
+        send(exchange, 409, error(result.getMessage()));
+        return;
+      }
+    } else {
+      send(exchange, 404, error("Not found"));
+      return;
+    }
+
+    if (changed) {
+      send(exchange, 200, product(register.getProductByID(id)));
+    } else {
+      send(exchange, 409, error("The product has been changed since version " + version));
+    }
+  }
+
+  private void search(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+    List<ProductView> products = register.findByKeywords(
+        required(parameters, "q"),
+        Boolean.parseBoolean(parameters.get("all")),
+        !"false".equals(parameters.get("partial")));
+    send(exchange, 200, Json.appendProducts(new StringBuilder(), products).toString());
+  }
+
+  private void query(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+    ProductQuery query = new ProductQuery();
+    if (parameters.containsKey("category")) {
+      query.category(Category.findByValue(Integer.parseInt(parameters.get("category"))));
+    }
+    if (parameters.containsKey("minPrice") || parameters.containsKey("maxPrice")) {
+      query.priceBetween(
+          Integer.parseInt(parameters.getOrDefault("minPrice", "0")),
+          Integer.parseInt(parameters.getOrDefault("maxPrice", String.valueOf(Integer.MAX_VALUE))));
+    }
+    if (parameters.containsKey("minQuantity") || parameters.containsKey("maxQuantity")) {
+      query.quantityBetween(
+          Integer.parseInt(parameters.getOrDefault("minQuantity", "0")),
+          Integer.parseInt(parameters.getOrDefault("maxQuantity", String.valueOf(Integer.MAX_VALUE))));
+    }
+    send(exchange, 200, Json.appendProducts(new StringBuilder(), register.query(query)).toString());
+  }
+
+  private static String product(ProductView product) {
+    return Json.appendProduct(new StringBuilder(256), product).toString();
+  }
+
+  private static String error(String message) {
+    StringBuilder body = new StringBuilder("{\"error\":");
+    return Json.appendString(body, message).append('}').toString();
+  }
+
+  private static String required(Map<String, String> fields, String name) {
+    String value = fields.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing " + name);
+    }
+    return value;
+  }
+
+  private static String body(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      return body.isBlank() ? "{}" : body;
+    }
+  }
+
+  private static Map<String, String> parameters(String query) {
+    Map<String, String> parameters = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String pair : query.split("&")) {
+      int split = pair.indexOf('=');
+      String name = split < 0 ? pair : pair.substring(0, split);
+      String value = split < 0 ? "" : pair.substring(split + 1);
+      parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return parameters;
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Returns an executor that runs every task on a new virtual thread. Virtual
+   * threads came in Java 21, so on older runtimes a pool of daemon threads that
+   * grows with the number of requests being handled is used instead. See the
+   * class comment for how the product locks behave on virtual threads.
+   */
+  static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      ThreadFactory factory = task -> {
+        Thread thread = new Thread(task, "register-server-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      return Executors.newCachedThreadPool(factory);
+    }
+  }
+
+}
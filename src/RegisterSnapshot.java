@@ -0,0 +1,132 @@
+package src;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A view of every product in a register as it was when the snapshot was opened.
+ * Changes that are made to the register after that are not seen, and do not
+ * have to wait for the snapshot, so a snapshot can be read for as long as it
+ * takes, for example to export a large register.
+ *
+ * <p>
+ * Opening a snapshot does not copy any products. Instead, the register keeps
+ * the old values of the products that change while the snapshot is open, so a
+ * snapshot should be closed as soon as it is no longer needed.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public final class RegisterSnapshot implements Iterable<ProductView>, AutoCloseable {
+
+  private final SnapshotManager manager;
+  private final long stamp;
+  private final int slots;
+  private volatile boolean closed;
+
+  RegisterSnapshot(SnapshotManager manager, long stamp, int slots) {
+    this.manager = manager;
+    this.stamp = stamp;
+    this.slots = slots;
+  }
+
+  /**
+   * Returns the commit stamp of the snapshot. A snapshot with a higher stamp
+   * was opened later.
+   *
+   * @return The stamp.
+   */
+  public long getStamp() {
+    return stamp;
+  }
+
+  /**
+   * Gives every product in the snapshot to the action, one at a time.
+   *
+   * @param action The action to run for each product.
+   */
+  @Override
+  public void forEach(Consumer<? super ProductView> action) {
+    for (int slot = 0; slot < slots; slot++) {
+      ProductView product = get(slot);
+      if (product != null) {
+        action.accept(product);
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator over the products in the snapshot.
+   *
+   * @return The iterator.
+   */
+  @Override
+  public Iterator<ProductView> iterator() {
+    return new Iterator<ProductView>() {
+      private int slot;
+      private ProductView next = advance();
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public ProductView next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        ProductView product = next;
+        next = advance();
+        return product;
+      }
+
+      private ProductView advance() {
+        while (slot < slots) {
+          ProductView product = get(slot++);
+          if (product != null) {
+            return product;
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Closes the snapshot, so the register can throw away the old values that
+   * were kept for it. Closing a snapshot more than once has no effect.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    manager.close(stamp);
+  }
+
+  /**
+   * Returns the product in a slot as it was when the snapshot was opened, or
+   * null if there was no product in the slot then.
+   */
+  private ProductView get(int slot) {
+    if (closed) {
+      throw new IllegalStateException("The snapshot is closed");
+    }
+    Product product = manager.slot(slot);
+    if (product == null) {
+      return null;
+    }
+    ProductLocks.lock(product);
+    try {
+      return SnapshotManager.viewAt(product, stamp);
+    } finally {
+      ProductLocks.unlock(product);
+    }
+  }
+
+}
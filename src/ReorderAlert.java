@@ -0,0 +1,45 @@
+package src;
+
+/**
+ * This class represents an alert that the quantity of a product has fallen
+ * below its reorder point.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class ReorderAlert {
+
+  private final String id;
+  private final int quantity;
+  private final int threshold;
+
+  ReorderAlert(String id, int quantity, int threshold) {
+    this.id = id;
+    this.quantity = quantity;
+    this.threshold = threshold;
+  }
+
+  public String getID() {
+    return id;
+  }
+
+  /**
+   * Returns the quantity of the product when the alert was made.
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * Returns the reorder point the quantity fell below.
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  @Override
+  public String toString() {
+    return id + " has " + quantity + " left, reorder point is " + threshold;
+  }
+
+}
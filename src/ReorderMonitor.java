@@ -0,0 +1,195 @@
+package src;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Watches the quantities in a register, and raises an alert when a product
+ * falls below its reorder point. A product can have its own reorder point, or
+ * use the reorder point of its category.
+ *
+ * <p>
+ * The monitor keeps the set of products that are below their reorder point up
+ * to date as quantities change, so finding them takes time in proportion to
+ * how many there are, not to the size of the register.
+ *
+ * <p>
+ * Alerts are put on a bounded queue and delivered to the listeners by a
+ * separate thread, so a change to the register never waits for a listener. If
+ * the queue is full the alert is dropped and counted, but the product is still
+ * in {@link #belowReorderPoint()}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ReorderMonitor implements MutationListener, Closeable {
+
+  private final ProductRegister register;
+
+  // Reorder points of single products, keyed on the normalized id.
+  private final Map<String, Integer> productThresholds = new ConcurrentHashMap<>();
+
+  // Reorder points of the categories, by the ordinal of the category.
+  private final AtomicIntegerArray categoryThresholds = new AtomicIntegerArray(Category.values().length);
+
+  // The products that are below their reorder point, with their quantity.
+  private final Map<String, ReorderAlert> below = new ConcurrentHashMap<>();
+
+  private final BlockingQueue<ReorderAlert> alerts;
+  private final List<Consumer<ReorderAlert>> listeners = new CopyOnWriteArrayList<>();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread deliverer;
+
+  /**
+   * Creates a monitor and starts watching the register. No product has a
+   * reorder point until one is set.
+   *
+   * @param register      The register to watch.
+   * @param queueCapacity The largest number of alerts waiting to be delivered.
+   */
+  public ReorderMonitor(ProductRegister register, int queueCapacity) {
+    this.register = register;
+    this.alerts = new ArrayBlockingQueue<>(queueCapacity);
+
+    register.addMutationListener(this);
+
+    this.deliverer = new Thread(this::deliver, "reorder-alerts");
+    this.deliverer.setDaemon(true);
+    this.deliverer.start();
+  }
+
+  /**
+   * Adds a listener that is given every alert, on the delivery thread.
+   *
+   * @param listener The listener to add.
+   */
+  public void addListener(Consumer<ReorderAlert> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Sets the reorder point of a product. The product is checked against the new
+   * reorder point right away, while holding its lock, so a change of quantity
+   * made at the same time is checked after it and not overwritten by it.
+   *
+   * @param id        The id of the product.
+   * @param threshold The quantity the product has to stay at or above.
+   * @throws NoSuchElementException If there is no product with the id.
+   */
+  public void setThreshold(String id, int threshold) {
+    productThresholds.put(ProductRegister.normalizeId(id), threshold);
+    register.withProduct(id, product -> check(product.getID(), product.getQuantity(), product.getCategory()));
+  }
+
+  /**
+   * Sets the reorder point of every product in a category that does not have a
+   * reorder point of its own. All the products in the category are checked
+   * against the new reorder point right away.
+   *
+   * @param category  The category.
+   * @param threshold The quantity the products have to stay at or above.
+   */
+  public void setCategoryThreshold(Category category, int threshold) {
+    categoryThresholds.set(category.ordinal(), threshold);
+    for (ProductView found : register.query(new ProductQuery().category(category))) {
+      try {
+        register.withProduct(found.getID(),
+            product -> check(product.getID(), product.getQuantity(), product.getCategory()));
+      } catch (NoSuchElementException e) {
+        // Removed after the query
+      }
+    }
+  }
+
+  /**
+   * Returns the products that are below their reorder point right now.
+   *
+   * @return An alert for each product below its reorder point.
+   */
+  public List<ReorderAlert> belowReorderPoint() {
+    return new ArrayList<>(below.values());
+  }
+
+  /**
+   * Returns how many alerts have been dropped because the queue was full.
+   */
+  public long getDroppedAlerts() {
+    return dropped.get();
+  }
+
+  @Override
+  public void onMutation(Mutation mutation) {
+    String key = ProductRegister.normalizeId(mutation.getID());
+    switch (mutation.getType()) {
+      case CREATE -> {
+        ProductView product = mutation.getProduct();
+        check(product.getID(), product.getQuantity(), product.getCategory());
+      }
+      case REMOVE -> below.remove(key);
+      // The register gives the category with every change it makes
+      case QUANTITY -> check(mutation.getID(), mutation.getValue(), mutation.getCategory());
+      default -> {
+        // Other changes do not affect the quantity
+      }
+    }
+  }
+
+  /**
+   * Stops delivering alerts, and stops watching the register.
+   */
+  @Override
+  public void close() {
+    register.removeMutationListener(this);
+    deliverer.interrupt();
+  }
+
+  /**
+   * Compares a quantity with the reorder point of the product, and raises an
+   * alert if the product has just fallen below it.
+   */
+  private void check(String id, int quantity, Category category) {
+    String key = ProductRegister.normalizeId(id);
+    Integer own = productThresholds.get(key);
+    int threshold = own != null ? own : categoryThresholds.get(category.ordinal());
+
+    if (quantity < threshold) {
+      ReorderAlert alert = new ReorderAlert(id, quantity, threshold);
+      if (below.put(key, alert) == null && !alerts.offer(alert)) {
+        dropped.incrementAndGet();
+      }
+    } else {
+      below.remove(key);
+    }
+  }
+
+  /**
+   * Gives the alerts on the queue to the listeners. Runs on the delivery thread.
+   */
+  private void deliver() {
+    try {
+      while (true) {
+        ReorderAlert alert = alerts.take();
+        for (Consumer<ReorderAlert> listener : listeners) {
+          try {
+            listener.accept(alert);
+          } catch (RuntimeException e) {
+            System.err.println("Reorder listener failed: " + e.getMessage());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // The monitor was closed
+    }
+  }
+
+}
@@ -0,0 +1,379 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ships the changes of a register to read-only replicas, see
+ * {@link RegisterReplica}. The changes are read from a {@link ChangeStream},
+ * so every replica gets them in the order they were made, and a replica that
+ * reconnects goes on from the last change it applied. A replica that is too
+ * far behind for the stream, or is new, first gets a snapshot of all the
+ * products. The protocol is described in {@link ReplicationProtocol}.
+ *
+ * <p>
+ * Each replica is served by a thread of its own, which is fine for the handful
+ * of replicas a register has. The stream only keeps the latest changes, so a
+ * second thread per replica reads the changes from the stream as they are made
+ * and keeps them on the primary until they are sent. A replica that is sent a
+ * large snapshot while the register changes quickly then still gets every
+ * change after it. A replica that falls more than the buffer behind is
+ * disconnected, after which it catches up again. The register never waits for
+ * a replica.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ReplicationPrimary implements Closeable {
+
+  // How many changes the stream keeps for replicas that reconnect.
+  static final int DEFAULT_CAPACITY = 1 << 16;
+
+  // How many changes are kept for a replica that has not been sent them yet.
+  static final int REPLICA_BUFFER = 1 << 20;
+
+  static final int DEFAULT_PORT = 8082;
+
+  private final ProductRegister register;
+  private final ChangeStream stream;
+  private final ServerSocket server;
+  private final Thread acceptor;
+  private final long epoch;
+  private volatile boolean closed;
+
+  // The stream position of every connected replica, keyed on its address.
+  private final Map<String, ReplicaBuffer> replicas = new ConcurrentHashMap<>();
+  private final Map<String, Socket> sockets = new ConcurrentHashMap<>();
+
+  private ReplicationPrimary(ProductRegister register, ServerSocket server, int capacity) {
+    this.register = register;
+    this.server = server;
+    this.stream = new ChangeStream(register, capacity);
+    this.acceptor = new Thread(this::accept, "replication-acceptor");
+
+    // Zero means no epoch to a replica
+    long random = new Random().nextLong();
+    this.epoch = random == 0 ? 1 : random;
+  }
+
+  /**
+   * Starts shipping the changes of a register to replicas that connect to the
+   * given port.
+   *
+   * @param register The register to replicate.
+   * @param port     The port to listen on, or 0 for any free port.
+   * @return The running primary.
+   * @throws IOException If the primary could not listen on the port.
+   */
+  public static ReplicationPrimary start(ProductRegister register, int port) throws IOException {
+    return start(register, port, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Starts shipping the changes of a register to replicas that connect to the
+   * given port.
+   *
+   * @param register The register to replicate.
+   * @param port     The port to listen on, or 0 for any free port.
+   * @param capacity How many of the latest changes are kept, so a replica that
+   *                 is at most this far behind does not need a snapshot.
+   * @return The running primary.
+   * @throws IOException If the primary could not listen on the port.
+   */
+  public static ReplicationPrimary start(ProductRegister register, int port, int capacity) throws IOException {
+    ServerSocket server = new ServerSocket(port);
+    ReplicationPrimary primary = new ReplicationPrimary(register, server, capacity);
+    primary.acceptor.start();
+    return primary;
+  }
+
+  /**
+   * Returns the port the primary listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Returns the sequence number of the latest change of the register.
+   *
+   * @return The sequence number, or 0 if nothing has changed yet.
+   */
+  public long getLatestSequence() {
+    return stream.getNextSequence() - 1;
+  }
+
+  /**
+   * Returns how many changes each connected replica has not been sent yet,
+   * keyed on the address of the replica.
+   *
+   * @return The number of changes behind for every replica.
+   */
+  public Map<String, Long> getReplicaLag() {
+    long next = stream.getNextSequence();
+    Map<String, Long> lag = new TreeMap<>();
+    replicas.forEach((address, buffer) -> lag.put(address, Math.max(0, next - buffer.getPosition())));
+    return lag;
+  }
+
+  /**
+   * Stops the primary and disconnects all replicas. The register is not
+   * changed.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    stream.close();
+    for (Socket socket : sockets.values()) {
+      socket.close();
+    }
+  }
+
+  /**
+   * Accepts replicas, and starts a thread for each.
+   */
+  private void accept() {
+    while (!closed) {
+      try {
+        Socket socket = server.accept();
+        socket.setTcpNoDelay(true);
+        Thread thread = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (closed) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the changes to one replica until it disconnects.
+   */
+  private void serve(Socket socket) {
+    String address = String.valueOf(socket.getRemoteSocketAddress());
+    sockets.put(address, socket);
+    ReplicaBuffer buffer = null;
+    try (socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+      long replicaEpoch = in.readLong();
+      long wanted = in.readLong();
+      out.writeLong(epoch);
+      buffer = subscribe(replicaEpoch, wanted, out);
+      replicas.put(address, buffer);
+
+      while (!closed) {
+        ChangeEvent event = buffer.poll(0, TimeUnit.MILLISECONDS);
+        if (event == null) {
+          // Send what has been written before waiting for more
+          out.flush();
+          event = buffer.poll(ReplicationProtocol.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        if (event == null) {
+          out.writeByte(ReplicationProtocol.HEARTBEAT);
+          out.writeLong(stream.getNextSequence());
+          out.writeLong(System.currentTimeMillis());
+        } else {
+          out.writeByte(ReplicationProtocol.CHANGE);
+          out.writeLong(event.getSequence());
+          out.writeLong(event.getTimestamp());
+          event.getMutation().writeTo(out);
+        }
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The replica disconnected, did not keep up, or the primary was closed.
+      // The replica reconnects and goes on from where it was.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (buffer != null) {
+        buffer.close();
+      }
+      replicas.remove(address);
+      sockets.remove(address);
+    }
+  }
+
+  /**
+   * Answers the first message of a replica, and subscribes to the changes it
+   * needs. If the changes are no longer in the stream, a snapshot is sent first.
+   */
+  private ReplicaBuffer subscribe(long replicaEpoch, long wanted, DataOutputStream out) throws IOException {
+    if (replicaEpoch == epoch) {
+      try {
+        ReplicaBuffer buffer = new ReplicaBuffer(stream.subscribe(wanted));
+        out.writeByte(ReplicationProtocol.STREAM);
+        return buffer;
+      } catch (IllegalArgumentException e) {
+        // The change is too old, so a snapshot is needed
+      }
+    }
+
+    // Subscribe before the snapshot is opened, so every change that is not in
+    // the snapshot comes after the position of the subscription. The changes
+    // made while the snapshot is sent are kept in the buffer.
+    ReplicaBuffer buffer = new ReplicaBuffer(stream.subscribe(stream.getNextSequence()));
+    try (RegisterSnapshot snapshot = register.snapshot()) {
+      out.writeByte(ReplicationProtocol.SNAPSHOT);
+      out.writeLong(buffer.getPosition());
+      for (ProductView product : snapshot) {
+        out.writeByte(ReplicationProtocol.PRODUCT);
+        Mutation.writeProduct(out, product);
+      }
+      out.writeByte(ReplicationProtocol.END_SNAPSHOT);
+    } catch (IOException | RuntimeException e) {
+      buffer.close();
+      throw e;
+    }
+    return buffer;
+  }
+
+  /**
+   * The changes that have been made but not yet sent to one replica. A thread
+   * of its own reads them from the stream as soon as they are made, so they are
+   * kept even while the replica is sent a snapshot or reads slowly.
+   */
+  private static final class ReplicaBuffer implements Closeable {
+
+    private final ChangeStream.Subscription subscription;
+    private final BlockingQueue<ChangeEvent> changes = new LinkedBlockingQueue<>(REPLICA_BUFFER);
+    private final Thread reader;
+
+    // The sequence number of the next change to send.
+    private volatile long position;
+
+    // Why the reader stopped, thrown once every kept change has been sent.
+    private volatile IllegalStateException failure;
+
+    private ReplicaBuffer(ChangeStream.Subscription subscription) {
+      this.subscription = subscription;
+      this.position = subscription.getPosition();
+      this.reader = new Thread(this::read, "replication-buffer");
+      this.reader.setDaemon(true);
+      this.reader.start();
+    }
+
+    /**
+     * Returns the next change to send, waiting up to the given time for one.
+     *
+     * @throws IllegalStateException If the replica fell too far behind.
+     */
+    private ChangeEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+      ChangeEvent event = changes.poll();
+      if (event == null) {
+        if (failure != null) {
+          throw failure;
+        }
+        event = changes.poll(timeout, unit);
+      }
+      if (event != null) {
+        position = event.getSequence() + 1;
+      }
+      return event;
+    }
+
+    private long getPosition() {
+      return position;
+    }
+
+    @Override
+    public void close() {
+      subscription.close();
+    }
+
+    private void read() {
+      try {
+        while (true) {
+          ChangeEvent event = subscription.take();
+          if (!changes.offer(event)) {
+            failure = new IllegalStateException("The replica is more than " + REPLICA_BUFFER + " changes behind");
+            subscription.close();
+            return;
+          }
+        }
+      } catch (IllegalStateException e) {
+        // The stream was overrun, or the buffer was closed
+        failure = e;
+      } catch (InterruptedException e) {
+        failure = new IllegalStateException("The buffer was stopped", e);
+      }
+    }
+  }
+
+  /**
+   * Starts a primary with a register of generated products, and keeps changing
+   * random products, so replicas in other processes can be tried out.
+   *
+   * @param args The port, the number of products, the number of changes per
+   *             second and for how many seconds to make changes. The primary
+   *             keeps serving after the changes stop.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    int products = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    int rate = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, products);
+    ReplicationPrimary primary = start(register, port);
+    System.out.println("Replicating " + products + " products on port " + primary.getPort());
+
+    Random random = new Random();
+    long start = System.nanoTime();
+    long changes = 0;
+    long report = start;
+    while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(seconds)) {
+      // Make the changes of the next millisecond
+      long due = (System.nanoTime() - start) * rate / 1_000_000_000L;
+      for (; changes < due; changes++) {
+        changeRandomProduct(register, random, products);
+      }
+      Thread.sleep(1);
+
+      if (System.nanoTime() - report >= TimeUnit.SECONDS.toNanos(1)) {
+        report = System.nanoTime();
+        System.out.println("Change " + primary.getLatestSequence() + ", replicas behind " + primary.getReplicaLag());
+      }
+    }
+    System.out.println("Done at change " + primary.getLatestSequence() + ": " + register.getInventoryTotals());
+  }
+
+  private static void changeRandomProduct(ProductRegister register, Random random, int products) {
+    String id = "ID" + random.nextInt(products);
+    try {
+      switch (random.nextInt(10)) {
+        case 0 -> {
+          ProductView product = register.getProductByID(id);
+          register.removeProduct(id);
+          register.apply(Mutation.create(product));
+        }
+        case 1 -> register.changeDescription(id, "Changed " + random.nextInt(1000));
+        case 2, 3, 4 -> register.changePrice(id, 1 + random.nextInt(1000));
+        default -> register.increaseProductInventory(id, random.nextInt(21) - 10);
+      }
+    } catch (IllegalArgumentException e) {
+      // The quantity would have been negative
+    }
+  }
+
+}
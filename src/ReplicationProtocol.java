@@ -0,0 +1,61 @@
+package src;
+
+/**
+ * The constants of the protocol between {@link ReplicationPrimary} and
+ * {@link RegisterReplica}.
+ *
+ * <p>
+ * A replica starts by sending the epoch of the primary it last followed, or 0,
+ * and the sequence number of the next change it needs, as longs. The epoch is
+ * a random number the primary picks when it starts, so a replica never goes on
+ * from a sequence number of a primary that has since been restarted.
+ *
+ * <p>
+ * The primary answers with its epoch as a long, and one of these codes:
+ * <ul>
+ * <li>{@link #STREAM}: the changes follow, starting with the one the replica
+ * asked for.</li>
+ * <li>{@link #SNAPSHOT}: the change is no longer available, so the primary
+ * sends all its products instead. The code is followed by the sequence number
+ * of the first change after the snapshot as a long, then by
+ * {@link #PRODUCT} and a product for every product, and by
+ * {@link #END_SNAPSHOT}. The changes follow. Some of the first changes may
+ * already be in the snapshot, but changes carry new values, not differences,
+ * so applying them again is harmless.</li>
+ * </ul>
+ *
+ * <p>
+ * After that the primary sends {@link #CHANGE}, followed by the sequence
+ * number and the time of the change in milliseconds as longs and the change
+ * itself, for every change in order. When there are no changes it sends
+ * {@link #HEARTBEAT} now and then, followed by the sequence number of the next
+ * change and the current time as longs, so the replica knows how far behind
+ * it is and that the primary is still there.
+ *
+ * <p>
+ * Numbers are big-endian, products are written like
+ * {@link Mutation#writeProduct(java.io.DataOutput, ProductView)} and changes
+ * like {@link Mutation#writeTo(java.io.DataOutput)}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+final class ReplicationProtocol {
+
+  // Codes of the answer to a replica
+  static final byte STREAM = 1;
+  static final byte SNAPSHOT = 2;
+
+  // Codes of the messages from the primary
+  static final byte PRODUCT = 3;
+  static final byte END_SNAPSHOT = 4;
+  static final byte CHANGE = 5;
+  static final byte HEARTBEAT = 6;
+
+  // How often, in milliseconds, a primary without changes sends a heartbeat.
+  static final long HEARTBEAT_INTERVAL = 500;
+
+  private ReplicationProtocol() {
+  }
+
+}
@@ -0,0 +1,89 @@
+package src;
+
+/**
+ * The state of a replica, see {@link RegisterReplica#getReplicationStats()}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ReplicationStats {
+
+  private final boolean connected;
+  private final long appliedSequence;
+  private final long primarySequence;
+  private final long lagMillis;
+  private final long snapshots;
+  private final long reconnects;
+
+  ReplicationStats(boolean connected, long appliedSequence, long primarySequence, long lagMillis, long snapshots,
+      long reconnects) {
+    this.connected = connected;
+    this.appliedSequence = appliedSequence;
+    this.primarySequence = primarySequence;
+    this.lagMillis = lagMillis;
+    this.snapshots = snapshots;
+    this.reconnects = reconnects;
+  }
+
+  /**
+   * Returns true if the replica is connected to the primary.
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Returns the sequence number of the last change the replica has applied.
+   */
+  public long getAppliedSequence() {
+    return appliedSequence;
+  }
+
+  /**
+   * Returns the sequence number of the latest change the replica knows the
+   * primary has made.
+   */
+  public long getPrimarySequence() {
+    return primarySequence;
+  }
+
+  /**
+   * Returns the number of changes the replica is behind the primary.
+   */
+  public long getLagChanges() {
+    return Math.max(0, primarySequence - appliedSequence);
+  }
+
+  /**
+   * Returns how many milliseconds passed from when the last applied change was
+   * made on the primary until it was applied, or zero if the replica has
+   * caught up since. The clocks of the primary and the replica are compared, so
+   * the figure is only exact when both run on the same machine.
+   */
+  public long getLagMillis() {
+    return lagMillis;
+  }
+
+  /**
+   * Returns how many times the replica has loaded a snapshot of all the
+   * products, because it was new or too far behind.
+   */
+  public long getSnapshots() {
+    return snapshots;
+  }
+
+  /**
+   * Returns how many times the replica has lost the connection to the primary.
+   */
+  public long getReconnects() {
+    return reconnects;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s, applied %d of %d (%d behind, %d ms), %d snapshots, %d reconnects",
+        connected ? "connected" : "disconnected", appliedSequence, primarySequence, getLagChanges(), lagMillis,
+        snapshots, reconnects);
+  }
+
+}
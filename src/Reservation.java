@@ -0,0 +1,52 @@
+package src;
+
+/**
+ * This class represents a hold on a quantity of a product, which keeps the
+ * quantity from being reserved by others until the hold is committed, released
+ * or expires.
+ * 
+ * @author Kandidat 10009
+ *
+ */
+public class Reservation {
+
+  private final long number;
+  private final String productID;
+  private final int quantity;
+  private final long expiresAt;
+
+  Reservation(long number, String productID, int quantity, long expiresAt) {
+    this.number = number;
+    this.productID = productID;
+    this.quantity = quantity;
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * Returns the number that identifies the reservation.
+   */
+  public long getNumber() {
+    return number;
+  }
+
+  public String getProductID() {
+    return productID;
+  }
+
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * Returns when the reservation expires, in milliseconds since 1970.
+   */
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  @Override
+  public String toString() {
+    return "Reservation " + number + ": " + quantity + " of " + productID;
+  }
+
+}
@@ -0,0 +1,234 @@
+package src;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds quantities of products for a while without removing them from the
+ * inventory, for example while a customer checks out. A reservation is either
+ * committed, which removes the quantity from the inventory, released, or
+ * expires after its time to live.
+ *
+ * <p>
+ * The available quantity of a product is the quantity in the inventory minus
+ * the quantity held. Reserving and committing happen while holding the lock of
+ * the product, so two reservations can never hold the same items. Changing the
+ * inventory directly with {@link ProductRegister#decreaseProductInventory} does
+ * not look at the holds, so it can make the available quantity negative.
+ *
+ * <p>
+ * When a product is removed, or created again with the same id, its holds and
+ * reservations end, so they do not count against a new product with the same
+ * id. Finding the reservations of the product goes through all open
+ * reservations, which is fine since products are seldom removed.
+ *
+ * <p>
+ * Expiry is handled by a hashed timing wheel, so expiring reservations takes
+ * time in proportion to the reservations that expire, not to all reservations.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ReservationManager implements MutationListener, Closeable {
+
+  private final ProductRegister register;
+  private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+  // The quantity held of each product, keyed on the normalized id.
+  private final Map<String, Integer> held = new ConcurrentHashMap<>();
+
+  private final AtomicLong numbers = new AtomicLong();
+  private final TimingWheel<Reservation> wheel;
+  private final ScheduledExecutorService ticker;
+
+  /**
+   * Creates a reservation manager where expired reservations are released ten
+   * times a second.
+   *
+   * @param register The register the products are in.
+   */
+  public ReservationManager(ProductRegister register) {
+    this(register, 100, 1024);
+  }
+
+  /**
+   * Creates a reservation manager.
+   *
+   * @param register   The register the products are in.
+   * @param tickMillis How often expired reservations are released, in
+   *                   milliseconds.
+   * @param slots      The number of slots in the timing wheel.
+   */
+  public ReservationManager(ProductRegister register, long tickMillis, int slots) {
+    this.register = register;
+    this.wheel = new TimingWheel<>(slots, tickMillis);
+    this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "reservation-expiry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.ticker.scheduleAtFixedRate(() -> wheel.advance(this::expire), tickMillis, tickMillis,
+        TimeUnit.MILLISECONDS);
+    register.addMutationListener(this);
+  }
+
+  /**
+   * Holds a quantity of a product.
+   *
+   * @param id         The id of the product.
+   * @param quantity   The quantity to hold.
+   * @param ttlMillis  How long the hold lasts, in milliseconds, unless it is
+   *                   committed or released before.
+   * @return The reservation.
+   * @throws IllegalArgumentException If the quantity or the time to live is not
+   *                                  positive, or the quantity is more than is
+   *                                  available.
+   * @throws NoSuchElementException   If there is no product with the id.
+   */
+  public Reservation reserve(String id, int quantity, long ttlMillis) {
+    if (quantity < 1) {
+      throw new IllegalArgumentException("The quantity has to be at least 1");
+    }
+    if (ttlMillis < 1) {
+      throw new IllegalArgumentException("The time to live has to be at least 1 ms");
+    }
+
+    Reservation[] result = new Reservation[1];
+    register.withProduct(id, product -> {
+      String key = ProductRegister.normalizeId(id);
+      int available = product.getQuantity() - held.getOrDefault(key, 0);
+      if (available < quantity) {
+        throw new IllegalArgumentException("Only " + available + " of " + id + " is available");
+      }
+      held.merge(key, quantity, Integer::sum);
+      result[0] = new Reservation(numbers.incrementAndGet(), product.getID(), quantity,
+          System.currentTimeMillis() + ttlMillis);
+      reservations.put(result[0].getNumber(), result[0]);
+    });
+
+    wheel.add(result[0], ttlMillis);
+    return result[0];
+  }
+
+  /**
+   * Removes the held quantity from the inventory, and ends the reservation. The
+   * hold is ended while holding the lock of the product, so the quantity is
+   * never both held and removed, or neither. If the quantity cannot be removed,
+   * the reservation is kept, and can be committed again or released.
+   *
+   * @param number The number of the reservation.
+   * @throws NoSuchElementException   If the reservation does not exist, has
+   *                                  expired, or the product has been removed.
+   *                                  The reservation has ended in all of these
+   *                                  cases.
+   * @throws IllegalArgumentException If the inventory has less than the held
+   *                                  quantity.
+   */
+  public void commit(long number) {
+    Reservation reservation = take(number);
+    String id = reservation.getProductID();
+    try {
+      register.withProduct(id, product -> {
+        register.decreaseProductInventory(id, reservation.getQuantity());
+        unhold(reservation);
+      });
+    } catch (NoSuchElementException e) {
+      // The product has been removed, and its holds with it
+      throw e;
+    } catch (RuntimeException e) {
+      keep(reservation);
+      throw e;
+    }
+  }
+
+  /**
+   * Ends a reservation without changing the inventory.
+   *
+   * @param number The number of the reservation.
+   * @throws NoSuchElementException If the reservation does not exist, or has
+   *                                expired.
+   */
+  public void release(long number) {
+    unhold(take(number));
+  }
+
+  /**
+   * Returns the quantity of a product that is in the inventory and not held.
+   *
+   * @param id The id of the product.
+   * @return The available quantity.
+   */
+  public int getAvailableQuantity(String id) {
+    int[] available = new int[1];
+    register.withProduct(id, product -> available[0] = product.getQuantity() - getHeldQuantity(id));
+    return available[0];
+  }
+
+  /**
+   * Returns the quantity of a product that is held by reservations.
+   *
+   * @param id The id of the product.
+   * @return The held quantity.
+   */
+  public int getHeldQuantity(String id) {
+    return held.getOrDefault(ProductRegister.normalizeId(id), 0);
+  }
+
+  @Override
+  public void onMutation(Mutation mutation) {
+    if (mutation.getType() == Mutation.Type.REMOVE || mutation.getType() == Mutation.Type.CREATE) {
+      // The product is locked, so no reservation of it can be made meanwhile
+      String key = ProductRegister.normalizeId(mutation.getID());
+      reservations.values()
+          .removeIf(reservation -> ProductRegister.normalizeId(reservation.getProductID()).equals(key));
+      held.remove(key);
+    }
+  }
+
+  /**
+   * Stops expiring reservations, and stops watching the register.
+   */
+  @Override
+  public void close() {
+    register.removeMutationListener(this);
+    ticker.shutdownNow();
+  }
+
+  /**
+   * Releases a reservation that has expired, unless it has already ended.
+   */
+  private void expire(Reservation reservation) {
+    if (reservations.remove(reservation.getNumber(), reservation)) {
+      unhold(reservation);
+    }
+  }
+
+  /**
+   * Puts back a reservation that was taken but not ended. It may have been due
+   * while it was taken, so it is added to the wheel again.
+   */
+  private void keep(Reservation reservation) {
+    reservations.put(reservation.getNumber(), reservation);
+    wheel.add(reservation, Math.max(1, reservation.getExpiresAt() - System.currentTimeMillis()));
+  }
+
+  private Reservation take(long number) {
+    Reservation reservation = reservations.remove(number);
+    if (reservation == null) {
+      throw new NoSuchElementException("No reservation " + number + " exists, it may have expired");
+    }
+    return reservation;
+  }
+
+  private void unhold(Reservation reservation) {
+    held.computeIfPresent(ProductRegister.normalizeId(reservation.getProductID()),
+        (key, quantity) -> quantity == reservation.getQuantity() ? null : quantity - reservation.getQuantity());
+  }
+
+}
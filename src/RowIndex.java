@@ -0,0 +1,153 @@
+package src;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A hash table from product id to row number, for the product stores. The ids
+ * themselves are not kept in the table, only the row numbers and the hash of
+ * the id of every row, so the table takes a few bytes per product and creates
+ * no objects. The ids are looked up in the store when two hashes are equal.
+ *
+ * <p>
+ * The table is not safe to use from several threads without a lock.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class RowIndex {
+
+  private final IntFunction<String> idOfRow;
+
+  // Row number plus one, or zero for an empty slot. Collisions are resolved by
+  // trying the next slot.
+  private int[] slots = new int[16];
+  private int used;
+
+  // The hash of the normalized id of every row.
+  private int[] hashes = new int[16];
+
+  /**
+   * Creates an empty table.
+   *
+   * @param idOfRow Returns the id of the product in a row.
+   */
+  RowIndex(IntFunction<String> idOfRow) {
+    this.idOfRow = idOfRow;
+  }
+
+  /**
+   * Returns the row of the product with the given id.
+   *
+   * @param key The normalized id.
+   * @return The row, or -1 if there is no such product.
+   */
+  int get(String key) {
+    int slot = find(key, hash(key));
+    return slot < 0 ? -1 : slots[slot] - 1;
+  }
+
+  /**
+   * Adds a product.
+   *
+   * @param key The normalized id, which must not be in the table.
+   * @param row The row of the product.
+   */
+  void put(String key, int row) {
+    if (row >= hashes.length) {
+      hashes = Arrays.copyOf(hashes, Math.max(row + 1, hashes.length * 2));
+    }
+    if ((used + 1) * 2 > slots.length) {
+      resize(slots.length * 2);
+    }
+    int hash = hash(key);
+    hashes[row] = hash;
+    insert(hash, row);
+    used++;
+  }
+
+  /**
+   * Removes a product.
+   *
+   * @param key The normalized id of the product.
+   */
+  void remove(String key) {
+    int slot = find(key, hash(key));
+    if (slot < 0) {
+      return;
+    }
+    used--;
+
+    // Move later entries of the same run back, so no lookup stops too early
+    int mask = slots.length - 1;
+    int free = slot;
+    int next = (free + 1) & mask;
+    while (slots[next] != 0) {
+      int home = hashes[slots[next] - 1] & mask;
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        slots[free] = slots[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    slots[free] = 0;
+  }
+
+  /**
+   * Records that the product in one row has been moved to another row.
+   *
+   * @param from The old row.
+   * @param to   The new row.
+   */
+  void move(int from, int to) {
+    int hash = hashes[from];
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != from + 1) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = to + 1;
+    hashes[to] = hash;
+  }
+
+  private int find(String key, int hash) {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      int row = slots[slot] - 1;
+      if (hashes[row] == hash && ProductRegister.normalizeId(idOfRow.apply(row)).equals(key)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void insert(int hash, int row) {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = row + 1;
+  }
+
+  private void resize(int capacity) {
+    int[] old = slots;
+    slots = new int[capacity];
+    for (int value : old) {
+      if (value != 0) {
+        insert(hashes[value - 1], value - 1);
+      }
+    }
+  }
+
+  /**
+   * Spreads the bits of the hash code, so similar ids end up far apart.
+   */
+  private static int hash(String key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+}
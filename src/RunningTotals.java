@@ -0,0 +1,112 @@
+package src;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals of the products in a register per category, kept up to date on every
+ * change, so the figures can be read without looking at the products. The
+ * register updates the totals while holding the lock of the changed product,
+ * next to the secondary indexes.
+ *
+ * <p>
+ * The totals are safe to use from several threads, and do not use locks. Each
+ * figure is read on its own, so while the register changes the figures can be
+ * from slightly different moments. The stock weight is a sum of decimal
+ * numbers that are added and subtracted, so it can differ in the last digits
+ * from a sum over the products.
+ *
+ * @author Kandidat 10009
+ */
+class RunningTotals {
+
+  /**
+   * The totals of one category.
+   */
+  private static final class Totals {
+    private final LongAdder products = new LongAdder();
+    private final LongAdder quantity = new LongAdder();
+    private final LongAdder stockValue = new LongAdder();
+    private final DoubleAdder stockWeight = new DoubleAdder();
+
+    InventoryTotals read() {
+      return new InventoryTotals(products.sum(), quantity.sum(), stockValue.sum(), stockWeight.sum());
+    }
+  }
+
+  private final Map<Category, Totals> byCategory = new EnumMap<>(Category.class);
+
+  RunningTotals() {
+    for (Category category : Category.values()) {
+      byCategory.put(category, new Totals());
+    }
+  }
+
+  /**
+   * Counts a new product.
+   */
+  void add(Product product) {
+    Totals totals = byCategory.get(product.getCategory());
+    totals.products.increment();
+    totals.quantity.add(product.getQuantity());
+    totals.stockValue.add((long) product.getPrice() * product.getQuantity());
+    totals.stockWeight.add(product.getWeight() * product.getQuantity());
+  }
+
+  /**
+   * Stops counting a removed product.
+   */
+  void remove(Product product) {
+    Totals totals = byCategory.get(product.getCategory());
+    totals.products.decrement();
+    totals.quantity.add(-product.getQuantity());
+    totals.stockValue.add(-(long) product.getPrice() * product.getQuantity());
+    totals.stockWeight.add(-product.getWeight() * product.getQuantity());
+  }
+
+  /**
+   * Updates the totals after the price of a product has been changed.
+   */
+  void priceChanged(Product product, int oldPrice) {
+    byCategory.get(product.getCategory()).stockValue
+        .add((long) (product.getPrice() - oldPrice) * product.getQuantity());
+  }
+
+  /**
+   * Updates the totals after the quantity of a product has been changed.
+   */
+  void quantityChanged(Product product, int oldQuantity) {
+    Totals totals = byCategory.get(product.getCategory());
+    long change = (long) product.getQuantity() - oldQuantity;
+    totals.quantity.add(change);
+    totals.stockValue.add(change * product.getPrice());
+    totals.stockWeight.add(change * product.getWeight());
+  }
+
+  /**
+   * Returns the totals of one category.
+   */
+  InventoryTotals get(Category category) {
+    return byCategory.get(category).read();
+  }
+
+  /**
+   * Returns the totals of all categories together.
+   */
+  InventoryTotals total() {
+    long products = 0;
+    long quantity = 0;
+    long stockValue = 0;
+    double stockWeight = 0;
+    for (Totals totals : byCategory.values()) {
+      products += totals.products.sum();
+      quantity += totals.quantity.sum();
+      stockValue += totals.stockValue.sum();
+      stockWeight += totals.stockWeight.sum();
+    }
+    return new InventoryTotals(products, quantity, stockValue, stockWeight);
+  }
+
+}
@@ -0,0 +1,86 @@
+package src;
+
+/**
+ * Statistics of the keyword search cache of a register, see
+ * {@link ProductRegister#getSearchCacheStats()}.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class SearchCacheStats {
+
+  private final long hits;
+  private final long misses;
+  private final long invalidations;
+  private final long evictions;
+  private final int entries;
+  private final long products;
+
+  SearchCacheStats(long hits, long misses, long invalidations, long evictions, int entries, long products) {
+    this.hits = hits;
+    this.misses = misses;
+    this.invalidations = invalidations;
+    this.evictions = evictions;
+    this.entries = entries;
+    this.products = products;
+  }
+
+  /**
+   * Returns the number of searches that were answered from the cache.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of searches that had to use the keyword index.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns the part of the searches that were answered from the cache, from 0
+   * to 1.
+   */
+  public double getHitRate() {
+    long total = hits + misses;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /**
+   * Returns the number of entries that were thrown away because a product
+   * changed.
+   */
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  /**
+   * Returns the number of entries that were thrown away to make room.
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Returns the number of cached searches.
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns the number of products held by the cached searches.
+   */
+  public long getProducts() {
+    return products;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d misses (%.1f%% hit rate), %d invalidations, %d evictions, %d entries",
+        hits, misses, getHitRate() * 100, invalidations, evictions, entries);
+  }
+
+}
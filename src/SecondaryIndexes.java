@@ -0,0 +1,302 @@
+package src;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Indexes on the id, category, price and quantity of the products in a
+ * register. The category index has one set of products per category, and the
+ * other indexes are sorted, so a range of prices or quantities, or the products
+ * after a position in a listing, can be found without looking at the other
+ * products.
+ *
+ * <p>
+ * The indexes are safe to use from several threads, and do not use locks, so
+ * changes to different products never wait for each other. The register keeps
+ * the indexes up to date while holding the lock of the changed product.
+ *
+ * @author Kandidat 10009
+ */
+class SecondaryIndexes {
+
+  /**
+   * The key of a product in a sorted index: the indexed value, and the id to
+   * tell products with the same value apart.
+   */
+  static final class Key implements Comparable<Key> {
+    private final int value;
+    private final String id;
+
+    Key(int value, String id) {
+      this.value = value;
+      this.id = id;
+    }
+
+    int getValue() {
+      return value;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      int result = Integer.compare(value, other.value);
+      return result != 0 ? result : id.compareTo(other.id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key && compareTo((Key) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * value + id.hashCode();
+    }
+  }
+
+  // The smallest possible id, used for the ends of a range.
+  private static final String FIRST_ID = "";
+
+  private final Map<Category, Set<Product>> byCategory = new EnumMap<>(Category.class);
+  // Replaced by a new skip list when many products are added to an empty index,
+  // see addAll. The value in the keys of the id index is always 0.
+  private volatile ConcurrentSkipListMap<Key, Product> byId = new ConcurrentSkipListMap<>();
+  private volatile ConcurrentSkipListMap<Key, Product> byPrice = new ConcurrentSkipListMap<>();
+  private volatile ConcurrentSkipListMap<Key, Product> byQuantity = new ConcurrentSkipListMap<>();
+
+  /**
+   * Entries that are already sorted, seen as a read-only sorted map so that a
+   * skip list can be built from them in one pass, without comparing any keys.
+   * The views of a range are found by binary search and share the list.
+   */
+  private static final class SortedEntries extends AbstractMap<Key, Product> implements SortedMap<Key, Product> {
+    private final List<Map.Entry<Key, Product>> entries;
+
+    SortedEntries(List<Map.Entry<Key, Product>> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public Set<Map.Entry<Key, Product>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Map.Entry<Key, Product>> iterator() {
+          return entries.iterator();
+        }
+
+        @Override
+        public int size() {
+          return entries.size();
+        }
+      };
+    }
+
+    @Override
+    public Comparator<? super Key> comparator() {
+      return null;
+    }
+
+    @Override
+    public Key firstKey() {
+      if (entries.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return entries.get(0).getKey();
+    }
+
+    @Override
+    public Key lastKey() {
+      if (entries.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return entries.get(entries.size() - 1).getKey();
+    }
+
+    @Override
+    public SortedMap<Key, Product> subMap(Key fromKey, Key toKey) {
+      if (fromKey.compareTo(toKey) > 0) {
+        throw new IllegalArgumentException("The range ends before it starts");
+      }
+      return new SortedEntries(entries.subList(indexOf(fromKey), indexOf(toKey)));
+    }
+
+    @Override
+    public SortedMap<Key, Product> headMap(Key toKey) {
+      return new SortedEntries(entries.subList(0, indexOf(toKey)));
+    }
+
+    @Override
+    public SortedMap<Key, Product> tailMap(Key fromKey) {
+      return new SortedEntries(entries.subList(indexOf(fromKey), entries.size()));
+    }
+
+    /**
+     * Returns the index of the first entry with a key that is not less than
+     * the given key.
+     */
+    private int indexOf(Key key) {
+      int low = 0;
+      int high = entries.size();
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (entries.get(middle).getKey().compareTo(key) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  SecondaryIndexes() {
+    for (Category category : Category.values()) {
+      byCategory.put(category, ConcurrentHashMap.newKeySet());
+    }
+  }
+
+  void add(Product product) {
+    String id = ProductRegister.normalizeId(product.getID());
+    byCategory.get(product.getCategory()).add(product);
+    byId.put(new Key(0, id), product);
+    byPrice.put(new Key(product.getPrice(), id), product);
+    byQuantity.put(new Key(product.getQuantity(), id), product);
+  }
+
+  /**
+   * Adds many products at once. The keys are sorted first. An empty index is
+   * then built in one pass, and an index that already has products is filled
+   * from the lowest key to the highest, so each insert touches the same part
+   * of the index as the one before. Both are much faster than inserting at
+   * random places when there are many products. The products must not be
+   * changed by other threads until this returns.
+   */
+  void addAll(Collection<Product> products) {
+    List<Map.Entry<Key, Product>> ids = new ArrayList<>(products.size());
+    List<Map.Entry<Key, Product>> prices = new ArrayList<>(products.size());
+    List<Map.Entry<Key, Product>> quantities = new ArrayList<>(products.size());
+    for (Product product : products) {
+      String id = ProductRegister.normalizeId(product.getID());
+      byCategory.get(product.getCategory()).add(product);
+      ids.add(new AbstractMap.SimpleImmutableEntry<>(new Key(0, id), product));
+      prices.add(new AbstractMap.SimpleImmutableEntry<>(new Key(product.getPrice(), id), product));
+      quantities.add(new AbstractMap.SimpleImmutableEntry<>(new Key(product.getQuantity(), id), product));
+    }
+    byId = putSorted(byId, ids);
+    byPrice = putSorted(byPrice, prices);
+    byQuantity = putSorted(byQuantity, quantities);
+  }
+
+  void remove(Product product) {
+    String id = ProductRegister.normalizeId(product.getID());
+    byCategory.get(product.getCategory()).remove(product);
+    byId.remove(new Key(0, id), product);
+    byPrice.remove(new Key(product.getPrice(), id), product);
+    byQuantity.remove(new Key(product.getQuantity(), id), product);
+  }
+
+  /**
+   * Moves a product in the price index after its price has changed.
+   */
+  void priceChanged(Product product, int oldPrice) {
+    move(byPrice, product, oldPrice, product.getPrice());
+  }
+
+  /**
+   * Moves a product in the quantity index after its quantity has changed.
+   */
+  void quantityChanged(Product product, int oldQuantity) {
+    move(byQuantity, product, oldQuantity, product.getQuantity());
+  }
+
+  Collection<Product> inCategory(Category category) {
+    return byCategory.get(category);
+  }
+
+  Collection<Product> withPrice(int min, int max) {
+    return range(byPrice, min, max).values();
+  }
+
+  Collection<Product> withQuantity(int min, int max) {
+    return range(byQuantity, min, max).values();
+  }
+
+  /**
+   * Returns the products in the given order, keyed on their place in it. A
+   * product that is being moved can be in the index twice for a moment.
+   */
+  NavigableMap<Key, Product> sortedBy(ProductOrder order) {
+    return switch (order) {
+      case ID -> byId;
+      case PRICE -> byPrice;
+      case QUANTITY -> byQuantity;
+    };
+  }
+
+  /**
+   * Counts the products in a collection, but stops counting at the limit. The
+   * sorted ranges do not know their size, so counting them all would take as
+   * long as reading them.
+   */
+  static int countUpTo(Collection<Product> products, int limit) {
+    if (products instanceof Set) {
+      return Math.min(products.size(), limit);
+    }
+    int count = 0;
+    for (Product product : products) {
+      if (++count >= limit) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  private static NavigableMap<Key, Product> range(ConcurrentSkipListMap<Key, Product> index, int min, int max) {
+    Key from = new Key(min, FIRST_ID);
+    if (max == Integer.MAX_VALUE) {
+      return index.tailMap(from, true);
+    }
+    if (min > max) {
+      return index.subMap(from, true, from, false);
+    }
+    return index.subMap(from, true, new Key(max + 1, FIRST_ID), false);
+  }
+
+  /**
+   * Adds the entries to an index, and returns the index to use from now on.
+   */
+  private static ConcurrentSkipListMap<Key, Product> putSorted(ConcurrentSkipListMap<Key, Product> index,
+      List<Map.Entry<Key, Product>> entries) {
+    entries.sort(Map.Entry.comparingByKey());
+    if (index.isEmpty()) {
+      return new ConcurrentSkipListMap<>(new SortedEntries(entries));
+    }
+    for (Map.Entry<Key, Product> entry : entries) {
+      index.put(entry.getKey(), entry.getValue());
+    }
+    return index;
+  }
+
+  private static void move(ConcurrentSkipListMap<Key, Product> index, Product product, int oldValue, int newValue) {
+    if (oldValue != newValue) {
+      String id = ProductRegister.normalizeId(product.getID());
+      // Put before remove, so a reader never finds the product missing, only
+      // twice for a moment
+      index.put(new Key(newValue, id), product);
+      index.remove(new Key(oldValue, id), product);
+    }
+  }
+
+}
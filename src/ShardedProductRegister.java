@@ -0,0 +1,510 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A register that spreads its products over several shards, each of them a
+ * {@link ProductRegister} of its own, so the products do not have to fit in
+ * one register and changes in different shards never share a lock or an
+ * index. The shard of a product is decided by a consistent hash of its id.
+ *
+ * <p>
+ * Operations on one product go straight to the shard of the product.
+ * Operations on many products, like keyword searches, queries and listings,
+ * are run on all the shards in parallel and the results are merged.
+ *
+ * <p>
+ * Shards can be added and removed while the register is in use. Only the
+ * products whose shard changes are moved, which with the consistent hash is
+ * about one shard's share of the products, not all of them. The products are
+ * moved a batch at a time, and other operations only wait for the batch being
+ * moved, not for the whole move. Until a product has been moved, operations on
+ * it go to its old shard.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class ShardedProductRegister {
+
+  // The number of places on the hash ring for each shard. More places spread
+  // the products more evenly over the shards.
+  static final int VIRTUAL_NODES = 128;
+
+  // The number of products moved each time the write lock is taken.
+  static final int MOVE_BATCH = 1024;
+
+  private HashRing<ProductRegister> ring = new HashRing<>(VIRTUAL_NODES);
+
+  // While a shard is added or removed, the ring after the change, and the
+  // normalized ids of the products that have been moved to their shard in it.
+  // The ring is switched once every product has been moved.
+  private HashRing<ProductRegister> target;
+  private final Set<String> moved = new HashSet<>();
+
+  // Held for reading by every operation, and for writing while a batch of
+  // products is moved between shards or the ring is switched.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // Held while a shard is added or removed, so only one move runs at a time.
+  private final Object rebalancing = new Object();
+
+  // Checks the values of new products in every shard.
+  private final ProductValidator validator;
+
+  private int nextShard;
+
+  /**
+   * Creates an empty register with the given number of shards.
+   *
+   * @param validator The validator that checks new products.
+   * @param shards    The number of shards.
+   */
+  public ShardedProductRegister(ProductValidator validator, int shards) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("There has to be at least one shard");
+    }
+    this.validator = validator;
+    for (int i = 0; i < shards; i++) {
+      ring.add(newShardName(), new ProductRegister(validator));
+    }
+  }
+
+  /**
+   * Adds a new, empty shard, and moves the products it now owns from the other
+   * shards.
+   *
+   * @return The name of the new shard.
+   */
+  public String addShard() {
+    synchronized (rebalancing) {
+      String name = newShardName();
+      HashRing<ProductRegister> next = ring.copy();
+      next.add(name, new ProductRegister(validator));
+      rebalance(next, ring.nodes());
+      return name;
+    }
+  }
+
+  /**
+   * Removes a shard, and moves its products to the shards that now own them.
+   *
+   * @param name The name of the shard.
+   * @throws java.util.NoSuchElementException If there is no such shard.
+   * @throws IllegalStateException            If it is the last shard.
+   */
+  public void removeShard(String name) {
+    synchronized (rebalancing) {
+      if (ring.get(name) != null && ring.size() == 1) {
+        throw new IllegalStateException("The last shard cannot be removed");
+      }
+      HashRing<ProductRegister> next = ring.copy();
+      ProductRegister shard = next.remove(name);
+      rebalance(next, List.of(shard));
+    }
+  }
+
+  /**
+   * Returns the names of the shards.
+   *
+   * @return The names, in the order the shards were added.
+   */
+  public List<String> getShardNames() {
+    lock.readLock().lock();
+    try {
+      return ring.names();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the name of the shard that owns the product with the given id,
+   * whether the product exists or not.
+   *
+   * @param id The id of the product.
+   * @return The name of the shard.
+   */
+  public String getShardName(String id) {
+    lock.readLock().lock();
+    try {
+      String key = ProductRegister.normalizeId(id);
+      return ringFor(key).ownerName(key);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the shard with the given name, or null if there is no such shard.
+   */
+  ProductRegister getShard(String name) {
+    lock.readLock().lock();
+    try {
+      ProductRegister shard = ring.get(name);
+      return shard == null && target != null ? target.get(name) : shard;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Creates a new product in the shard that owns its id, see
+   * {@link ProductRegister#createProduct}.
+   */
+  public void createProduct(
+      String id,
+      int price,
+      String description,
+      String brandName,
+      double weight,
+      double length,
+      double height,
+      String color,
+      int quantity,
+      int category) {
+    route(id, shard -> {
+      shard.createProduct(id, price, description, brandName, weight, length, height, color, quantity, category);
+      return null;
+    });
+  }
+
+  /**
+   * Returns a snapshot of the product with the given id, see
+   * {@link ProductRegister#getProductByID(String)}.
+   */
+  public ProductView getProductByID(String id) {
+    return route(id, shard -> shard.getProductByID(id));
+  }
+
+  /**
+   * Removes the product with the given id, see
+   * {@link ProductRegister#removeProduct(String)}.
+   */
+  public void removeProduct(String id) {
+    route(id, shard -> {
+      shard.removeProduct(id);
+      return null;
+    });
+  }
+
+  /**
+   * Changes the price of a product, see
+   * {@link ProductRegister#changePrice(String, int)}.
+   */
+  public void changePrice(String id, int price) {
+    route(id, shard -> {
+      shard.changePrice(id, price);
+      return null;
+    });
+  }
+
+  /**
+   * Changes the description of a product, see
+   * {@link ProductRegister#changeDescription(String, String)}.
+   */
+  public void changeDescription(String id, String description) {
+    route(id, shard -> {
+      shard.changeDescription(id, description);
+      return null;
+    });
+  }
+
+  /**
+   * Increases the quantity of a product, see
+   * {@link ProductRegister#increaseProductInventory(String, int)}.
+   */
+  public void increaseProductInventory(String id, int quantity) {
+    route(id, shard -> {
+      shard.increaseProductInventory(id, quantity);
+      return null;
+    });
+  }
+
+  /**
+   * Decreases the quantity of a product, see
+   * {@link ProductRegister#decreaseProductInventory(String, int)}.
+   */
+  public void decreaseProductInventory(String id, int quantity) {
+    route(id, shard -> {
+      shard.decreaseProductInventory(id, quantity);
+      return null;
+    });
+  }
+
+  /**
+   * Returns every product in the register as a string, see
+   * {@link ProductRegister#printAllProducts()}.
+   */
+  public List<String> printAllProducts() {
+    return fanOut(ProductRegister::printAllProducts);
+  }
+
+  /**
+   * Returns snapshots of the products that match the keywords in any shard,
+   * see {@link ProductRegister#findByKeywords(String, boolean, boolean)}.
+   */
+  public List<ProductView> findByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
+    return fanOut(shard -> shard.findByKeywords(keywords, matchAll, partialMatch));
+  }
+
+  /**
+   * Returns the products that match the keywords in any shard as strings, see
+   * {@link ProductRegister#searchByKeywords(String, boolean, boolean)}.
+   */
+  public List<String> searchByKeywords(String keywords, boolean matchAll, boolean partialMatch) {
+    return fanOut(shard -> shard.searchByKeywords(keywords, matchAll, partialMatch));
+  }
+
+  /**
+   * Returns snapshots of the products that meet a query in any shard, see
+   * {@link ProductRegister#query(ProductQuery)}.
+   */
+  public List<ProductView> query(ProductQuery query) {
+    return fanOut(shard -> shard.query(query));
+  }
+
+  /**
+   * Returns one page of the products of all the shards, in the given order, see
+   * {@link ProductRegister#listProducts(ProductOrder, String, int)}. A cursor
+   * is a position in the order, so it means the same in every shard: each
+   * shard gives its first products after the cursor, and the first of those
+   * make up the page.
+   */
+  public ProductPage listProducts(ProductOrder order, String cursor, int limit) {
+    List<ProductView> products = fanOut(shard -> shard.listProducts(order, cursor, limit).getProducts());
+    products.sort(order.comparator());
+    if (products.size() > limit) {
+      products = new ArrayList<>(products.subList(0, limit));
+    }
+
+    String next = null;
+    if (products.size() == limit) {
+      ProductView last = products.get(products.size() - 1);
+      next = order.key(last) + ":" + ProductRegister.normalizeId(last.getID());
+    }
+    return new ProductPage(products, next);
+  }
+
+  /**
+   * Returns the totals of all the products, added up over the shards, see
+   * {@link ProductRegister#getInventoryTotals()}.
+   */
+  public InventoryTotals getInventoryTotals() {
+    lock.readLock().lock();
+    try {
+      return sum(shards().stream().map(ProductRegister::getInventoryTotals).collect(Collectors.toList()));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the totals of the products in each category, added up over the
+   * shards, see {@link ProductRegister#getInventoryTotalsByCategory()}.
+   */
+  public Map<Category, InventoryTotals> getInventoryTotalsByCategory() {
+    lock.readLock().lock();
+    try {
+      List<Map<Category, InventoryTotals>> shards = shards()
+          .stream()
+          .map(ProductRegister::getInventoryTotalsByCategory)
+          .collect(Collectors.toList());
+      Map<Category, InventoryTotals> result = new EnumMap<>(Category.class);
+      for (Category category : Category.values()) {
+        result.put(category, sum(shards.stream().map(totals -> totals.get(category)).collect(Collectors.toList())));
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private String newShardName() {
+    return "shard-" + nextShard++;
+  }
+
+  /**
+   * Runs an operation on the shard that owns the given id.
+   */
+  private <R> R route(String id, Function<ProductRegister, R> operation) {
+    lock.readLock().lock();
+    try {
+      // A null id has no shard, but any shard gives the same error for it
+      ProductRegister shard;
+      if (id == null) {
+        shard = ring.nodes().get(0);
+      } else {
+        String key = ProductRegister.normalizeId(id);
+        shard = ringFor(key).owner(key);
+      }
+      return operation.apply(shard);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs an operation on all the shards in parallel, and puts the results
+   * together in the order of the shards.
+   */
+  private <R> List<R> fanOut(Function<ProductRegister, List<R>> operation) {
+    lock.readLock().lock();
+    try {
+      return shards()
+          .parallelStream()
+          .map(operation)
+          .flatMap(List::stream)
+          .collect(Collectors.toCollection(ArrayList::new));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the ring that decides the shard of a key. The caller has to hold
+   * the lock.
+   */
+  private HashRing<ProductRegister> ringFor(String key) {
+    return target != null && moved.contains(key) ? target : ring;
+  }
+
+  /**
+   * Returns every shard that may hold products, which while products are moved
+   * are the shards of both rings. The caller has to hold the lock.
+   */
+  private List<ProductRegister> shards() {
+    if (target == null) {
+      return ring.nodes();
+    }
+    Set<ProductRegister> shards = new LinkedHashSet<>(ring.nodes());
+    shards.addAll(target.nodes());
+    return new ArrayList<>(shards);
+  }
+
+  /**
+   * Switches to a new ring, and moves the products of the given shards whose
+   * shard is another in the new ring. The products are moved in batches under
+   * the write lock, so the other operations only wait for one batch, and no
+   * operation ever sees a product in two shards or in none. The caller has to
+   * hold the rebalancing lock.
+   */
+  private void rebalance(HashRing<ProductRegister> next, List<ProductRegister> sources) {
+    // Products created in an old shard during the move are not in the list
+    // below, so they are moved at the end
+    Queue<String> created = new ConcurrentLinkedQueue<>();
+    MutationListener listener = mutation -> {
+      if (mutation.getType() == Mutation.Type.CREATE) {
+        created.add(mutation.getID());
+      }
+    };
+    for (ProductRegister source : sources) {
+      source.addMutationListener(listener);
+    }
+    try {
+      lock.writeLock().lock();
+      try {
+        target = next;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      List<String> moving = new ArrayList<>();
+      for (ProductRegister source : sources) {
+        source.forEachProduct(view -> {
+          if (next.owner(ProductRegister.normalizeId(view.getID())) != source) {
+            moving.add(view.getID());
+          }
+        });
+      }
+      for (int i = 0; i < moving.size(); i += MOVE_BATCH) {
+        moveProducts(moving.subList(i, Math.min(i + MOVE_BATCH, moving.size())));
+      }
+      while (created.size() > MOVE_BATCH) {
+        moveProducts(poll(created, MOVE_BATCH));
+      }
+
+      lock.writeLock().lock();
+      try {
+        moveProducts(poll(created, Integer.MAX_VALUE));
+        ring = next;
+        target = null;
+        moved.clear();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      for (ProductRegister source : sources) {
+        source.removeMutationListener(listener);
+      }
+    }
+  }
+
+  /**
+   * Moves the products with the given ids from their shard in the current ring
+   * to their shard in the new ring, under the write lock. The products keep
+   * their versions. A product that has already been moved, or whose shard
+   * does not change, is left where it is.
+   */
+  private void moveProducts(List<String> ids) {
+    lock.writeLock().lock();
+    try {
+      for (String id : ids) {
+        String key = ProductRegister.normalizeId(id);
+        ProductRegister from = ring.owner(key);
+        ProductRegister to = target.owner(key);
+        if (from == to || !moved.add(key)) {
+          continue;
+        }
+        // A product removed before its batch has nothing to move, but a new
+        // product with its id now goes to the new shard
+        ProductView view;
+        try {
+          view = from.getProductByID(id);
+        } catch (NoSuchElementException e) {
+          continue;
+        }
+        to.add(new Product(view));
+        from.removeProduct(id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static List<String> poll(Queue<String> queue, int limit) {
+    List<String> ids = new ArrayList<>();
+    String id;
+    while (ids.size() < limit && (id = queue.poll()) != null) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
+  private static InventoryTotals sum(List<InventoryTotals> totals) {
+    long products = 0;
+    long quantity = 0;
+    long stockValue = 0;
+    double stockWeight = 0;
+    for (InventoryTotals shard : totals) {
+      products += shard.getProductCount();
+      quantity += shard.getTotalQuantity();
+      stockValue += shard.getStockValue();
+      stockWeight += shard.getStockWeight();
+    }
+    return new InventoryTotals(products, quantity, stockValue, stockWeight);
+  }
+
+}
@@ -0,0 +1,284 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps track of the versions of the products in a register, so that readers
+ * can see the register as it was at one point in time while it keeps changing.
+ *
+ * <p>
+ * Every change is given a commit stamp from a clock that counts up. A snapshot
+ * remembers the clock when it was opened, and sees the newest value of every
+ * product that is not newer than that. When a product changes while a snapshot
+ * that may need the old values is open, the old values are kept in a list on
+ * the product. Old values and removed products are thrown away as soon as no
+ * open snapshot needs them, so when no snapshot is open, changes cost no more
+ * than a clock tick.
+ *
+ * <p>
+ * Every product also has a slot in a table that only grows. A snapshot scans
+ * the slots that were in use when it was opened, which is why a product keeps
+ * its slot after it is removed for as long as a snapshot may need it.
+ *
+ * <p>
+ * All the methods that take a product must be called while holding the lock of
+ * the product.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class SnapshotManager {
+
+  /**
+   * Values of a product that have been replaced, and the stamp of the change
+   * that set them.
+   */
+  static final class Version {
+    private final ProductView view;
+    private final long stamp;
+    private Version older;
+
+    private Version(ProductView view, long stamp, Version older) {
+      this.view = view;
+      this.stamp = stamp;
+      this.older = older;
+    }
+  }
+
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  // The stamp of the last change.
+  private final AtomicLong clock = new AtomicLong();
+
+  // The lowest stamp of the open snapshots, or Long.MAX_VALUE when none is open.
+  // Values that were replaced at or before this stamp are not needed by any
+  // snapshot.
+  private volatile long horizon = Long.MAX_VALUE;
+
+  // The stamps of the open snapshots, and how many are open at each stamp.
+  private final TreeMap<Long, Integer> open = new TreeMap<>();
+
+  // The slot table, in chunks so it can grow without moving the products.
+  private volatile AtomicReferenceArray<Product>[] chunks = newChunks(0);
+  private int highWater;
+  private int[] free = new int[64];
+  private int freeCount;
+
+  // Removed products that still hold their slot because a snapshot may need
+  // them.
+  private final List<Product> removed = new ArrayList<>();
+
+  /**
+   * Returns the stamp for a new change. Changes to several products that have
+   * to be seen together are given the same stamp.
+   */
+  long next() {
+    return clock.incrementAndGet();
+  }
+
+  /**
+   * Records a product that has been added to the register, before it can be
+   * seen by anyone else.
+   *
+   * @param product The product.
+   * @param initial True if the product was part of the register from the start,
+   *                like products that are read from a catalog.
+   */
+  void created(Product product, boolean initial) {
+    product.slot = allocate(product);
+    long stamp = initial ? 0 : next();
+    product.created = stamp;
+    product.stamp = stamp;
+  }
+
+  /**
+   * Records that a product is about to be changed. Must be called before the
+   * values of the product are changed.
+   *
+   * @param product The product.
+   * @param stamp   The stamp of the change, from {@link #next()}.
+   */
+  void changing(Product product, long stamp) {
+    // The horizon is read after the stamp was taken, so a snapshot that was
+    // opened before this change has always lowered it already.
+    long oldest = horizon;
+    if (oldest < stamp) {
+      product.older = new Version(product.view(), product.stamp, product.older);
+    }
+    product.stamp = stamp;
+    prune(product, oldest);
+  }
+
+  /**
+   * Records that a product has been removed from the register.
+   *
+   * @param product The product.
+   * @param stamp   The stamp of the removal, from {@link #next()}.
+   */
+  void removed(Product product, long stamp) {
+    product.removed = stamp;
+    if (horizon < stamp) {
+      synchronized (removed) {
+        removed.add(product);
+      }
+    } else {
+      product.older = null;
+      release(product);
+    }
+  }
+
+  /**
+   * Opens a snapshot of the products as they are now.
+   *
+   * @return The snapshot, which has to be closed.
+   */
+  RegisterSnapshot open() {
+    long stamp;
+    int size;
+    synchronized (this) {
+      // The horizon is lowered before the clock is read, so a change that gets
+      // a later stamp than the snapshot always sees that it has to keep the old
+      // values.
+      horizon = Math.min(horizon, clock.get());
+      stamp = clock.get();
+      open.merge(stamp, 1, Integer::sum);
+      horizon = open.firstKey();
+      size = highWater;
+    }
+    return new RegisterSnapshot(this, stamp, size);
+  }
+
+  /**
+   * Closes a snapshot, and throws away the values that no open snapshot needs.
+   *
+   * @param stamp The stamp of the snapshot.
+   */
+  void close(long stamp) {
+    long oldest;
+    synchronized (this) {
+      if (open.merge(stamp, -1, Integer::sum) == 0) {
+        open.remove(stamp);
+      }
+      horizon = open.isEmpty() ? Long.MAX_VALUE : open.firstKey();
+      oldest = horizon;
+    }
+
+    List<Product> expired = new ArrayList<>();
+    synchronized (removed) {
+      Iterator<Product> products = removed.iterator();
+      while (products.hasNext()) {
+        Product product = products.next();
+        if (product.removed <= oldest) {
+          products.remove();
+          expired.add(product);
+        }
+      }
+    }
+    for (Product product : expired) {
+      ProductLocks.lock(product);
+      try {
+        product.older = null;
+        release(product);
+      } finally {
+        ProductLocks.unlock(product);
+      }
+    }
+  }
+
+  /**
+   * Returns the values a product had at the given stamp.
+   *
+   * @param product The product.
+   * @param stamp   The stamp of a snapshot.
+   * @return The values, or null if the product did not exist at the stamp.
+   */
+  static ProductView viewAt(Product product, long stamp) {
+    if (product.created > stamp || (product.removed != 0 && product.removed <= stamp)) {
+      return null;
+    }
+    if (product.stamp <= stamp) {
+      return product.view();
+    }
+    for (Version version = product.older; version != null; version = version.older) {
+      if (version.stamp <= stamp) {
+        return version.view;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the product in a slot, or null if the slot is free.
+   */
+  Product slot(int index) {
+    AtomicReferenceArray<Product>[] table = chunks;
+    return table[index >>> CHUNK_BITS].get(index & (CHUNK_SIZE - 1));
+  }
+
+  /**
+   * Throws away the old values of a product that were replaced at or before
+   * the given stamp.
+   */
+  private static void prune(Product product, long oldest) {
+    long replaced = product.stamp;
+    Version newer = null;
+    for (Version version = product.older; version != null; version = version.older) {
+      if (replaced <= oldest) {
+        if (newer == null) {
+          product.older = null;
+        } else {
+          newer.older = null;
+        }
+        return;
+      }
+      replaced = version.stamp;
+      newer = version;
+    }
+  }
+
+  private synchronized int allocate(Product product) {
+    int index;
+    if (freeCount > 0) {
+      index = free[--freeCount];
+    } else {
+      index = highWater;
+      if ((index >>> CHUNK_BITS) == chunks.length) {
+        AtomicReferenceArray<Product>[] grown = newChunks(chunks.length * 2 + 1);
+        System.arraycopy(chunks, 0, grown, 0, chunks.length);
+        for (int i = chunks.length; i < grown.length; i++) {
+          grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        chunks = grown;
+      }
+      highWater++;
+    }
+    chunks[index >>> CHUNK_BITS].set(index & (CHUNK_SIZE - 1), product);
+    return index;
+  }
+
+  private synchronized void release(Product product) {
+    if (product.slot < 0) {
+      return;
+    }
+    chunks[product.slot >>> CHUNK_BITS].set(product.slot & (CHUNK_SIZE - 1), null);
+    if (freeCount == free.length) {
+      int[] grown = new int[free.length * 2];
+      System.arraycopy(free, 0, grown, 0, freeCount);
+      free = grown;
+    }
+    free[freeCount++] = product.slot;
+    product.slot = -1;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static AtomicReferenceArray<Product>[] newChunks(int length) {
+    return new AtomicReferenceArray[length];
+  }
+
+}
@@ -0,0 +1,64 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every distinct string a small number, so a column of strings can be
+ * stored as numbers. Strings that repeat, like brand names and colors, are then
+ * only stored once. Numbers are never reused, so a string stays in the
+ * dictionary after the last product that used it is gone.
+ *
+ * <p>
+ * The dictionary is not safe to use from several threads without a lock.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class StringDictionary {
+
+  // The number used for null.
+  static final int NULL = -1;
+
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> strings = new ArrayList<>();
+
+  /**
+   * Returns the number of a string, and adds the string if it is new.
+   *
+   * @param value The string, may be null.
+   * @return The number of the string.
+   */
+  int encode(String value) {
+    if (value == null) {
+      return NULL;
+    }
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = strings.size();
+      codes.put(value, code);
+      strings.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * Returns the string with the given number.
+   *
+   * @param code The number, from {@link #encode(String)}.
+   * @return The string, or null for {@link #NULL}.
+   */
+  String decode(int code) {
+    return code == NULL ? null : strings.get(code);
+  }
+
+  /**
+   * Returns the number of distinct strings.
+   */
+  int size() {
+    return strings.size();
+  }
+
+}
@@ -0,0 +1,121 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel: a ring of slots, where each slot holds the items that
+ * are due when the wheel reaches it. Adding an item takes constant time, and
+ * each tick only looks at the items in one slot, so millions of items can be
+ * waiting without the wheel having to look at all of them.
+ *
+ * <p>
+ * Items that are due more than one turn of the wheel from now are put in the
+ * slot they will be due in, and skipped until the wheel has turned far enough.
+ * Items cannot be removed; the caller should ignore items that are no longer
+ * needed when they are due.
+ *
+ * @author Kandidat 10009
+ */
+class TimingWheel<T> {
+
+  /**
+   * An item with the tick it is due at.
+   */
+  private static final class Entry<T> {
+    private final T item;
+    private final long dueTick;
+
+    private Entry(T item, long dueTick) {
+      this.item = item;
+      this.dueTick = dueTick;
+    }
+  }
+
+  private final long tickNanos;
+  private final ArrayDeque<Entry<T>>[] slots;
+
+  // From System.nanoTime(), so a change of the wall clock does not make items
+  // due early or late.
+  private final long start;
+
+  // The last tick that has been processed.
+  private long currentTick;
+
+  /**
+   * Creates a timing wheel.
+   *
+   * @param slotCount  The number of slots in the wheel.
+   * @param tickMillis How many milliseconds each slot covers.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  TimingWheel(int slotCount, long tickMillis) {
+    if (slotCount < 1 || tickMillis < 1) {
+      throw new IllegalArgumentException("The wheel needs at least one slot, and ticks of at least 1 ms");
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    this.slots = new ArrayDeque[slotCount];
+    for (int i = 0; i < slotCount; i++) {
+      slots[i] = new ArrayDeque<>();
+    }
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Adds an item that is due after the given delay. The item is given to the
+   * action of {@link #advance(Consumer)} at the first tick after the delay.
+   *
+   * @param item        The item.
+   * @param delayMillis The delay in milliseconds.
+   * @throws IllegalArgumentException If the delay is not positive.
+   */
+  void add(T item, long delayMillis) {
+    if (delayMillis < 1) {
+      throw new IllegalArgumentException("The delay has to be at least 1 ms");
+    }
+    // Far enough in the future, and cannot overflow
+    long delay = Math.min(TimeUnit.MILLISECONDS.toNanos(delayMillis), Long.MAX_VALUE / 4);
+    long dueTick = tickAt(System.nanoTime() + delay) + 1;
+    Entry<T> entry = new Entry<>(item, dueTick);
+    ArrayDeque<Entry<T>> slot = slots[(int) (dueTick % slots.length)];
+    synchronized (slot) {
+      slot.add(entry);
+    }
+  }
+
+  /**
+   * Moves the wheel forward to the current time, and gives every item that is
+   * due to the action. Only the slots of the ticks that have passed are looked
+   * at.
+   *
+   * @param action The action to run for each due item.
+   */
+  synchronized void advance(Consumer<T> action) {
+    long now = tickAt(System.nanoTime());
+    while (currentTick < now) {
+      currentTick++;
+      List<T> due = new ArrayList<>();
+      ArrayDeque<Entry<T>> slot = slots[(int) (currentTick % slots.length)];
+      synchronized (slot) {
+        Iterator<Entry<T>> entries = slot.iterator();
+        while (entries.hasNext()) {
+          Entry<T> entry = entries.next();
+          if (entry.dueTick <= currentTick) {
+            due.add(entry.item);
+            entries.remove();
+          }
+        }
+      }
+      due.forEach(action);
+    }
+  }
+
+  private long tickAt(long nanoTime) {
+    return (nanoTime - start) / tickNanos;
+  }
+
+}
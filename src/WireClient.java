@@ -0,0 +1,344 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A client for the binary protocol of {@link WireServer}.
+ *
+ * <p>
+ * The simple methods, like {@link #increaseProductInventory(String, int)}, send
+ * one request and wait for the response. To send many requests quickly, use the
+ * send methods, which only buffer the request, then {@link #flush()} and read
+ * the responses with {@link #receive()}. Responses come back in the order the
+ * requests were sent. A client should not have more than a few thousand
+ * requests without a response, since the server stops reading from a client
+ * that does not read its responses.
+ *
+ * <p>
+ * A client is not safe to use from several threads.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class WireClient implements Closeable {
+
+  // How many requests a pipelined benchmark keeps in flight.
+  private static final int WINDOW = 4096;
+
+  /**
+   * How a request went.
+   */
+  public enum Status {
+    OK,
+    NOT_FOUND,
+    REJECTED,
+    ERROR
+  }
+
+  /**
+   * The response to one request.
+   */
+  public static final class Response {
+    private final int requestNumber;
+    private final Status status;
+    private final int quantity;
+    private final List<ProductView> products;
+    private final String message;
+
+    private Response(int requestNumber, Status status, int quantity, List<ProductView> products, String message) {
+      this.requestNumber = requestNumber;
+      this.status = status;
+      this.quantity = quantity;
+      this.products = products;
+      this.message = message;
+    }
+
+    /**
+     * Returns the number of the request, as returned by the send method.
+     */
+    public int getRequestNumber() {
+      return requestNumber;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns the new quantity after an inventory change, or -1.
+     */
+    public int getQuantity() {
+      return quantity;
+    }
+
+    /**
+     * Returns the products found by a lookup or a search.
+     */
+    public List<ProductView> getProducts() {
+      return products;
+    }
+
+    /**
+     * Returns why the request failed, or null if it did not.
+     */
+    public String getMessage() {
+      return message;
+    }
+  }
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final ByteArrayOutputStream request = new ByteArrayOutputStream(64);
+  private final DataOutputStream requestData = new DataOutputStream(request);
+
+  // The number of the next request, and the code of every request that has not
+  // been answered yet, in the order they were sent.
+  private int nextNumber;
+  private final ArrayDeque<Byte> pending = new ArrayDeque<>();
+
+  private WireClient(Socket socket) throws IOException {
+    this.socket = socket;
+    this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+    this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+  }
+
+  /**
+   * Connects to a server.
+   *
+   * @param host The host of the server.
+   * @param port The port of the server.
+   * @return The connected client.
+   * @throws IOException If the server could not be reached.
+   */
+  public static WireClient connect(String host, int port) throws IOException {
+    Socket socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    return new WireClient(socket);
+  }
+
+  /**
+   * Buffers a request to increase the quantity of a product.
+   *
+   * @return The number of the request.
+   */
+  public int sendIncrease(String id, int quantity) throws IOException {
+    start(WireProtocol.INCREASE);
+    Mutation.writeString(requestData, id);
+    requestData.writeInt(quantity);
+    return end();
+  }
+
+  /**
+   * Buffers a request to decrease the quantity of a product. The request is
+   * rejected if the quantity would become negative.
+   *
+   * @return The number of the request.
+   */
+  public int sendDecrease(String id, int quantity) throws IOException {
+    start(WireProtocol.DECREASE);
+    Mutation.writeString(requestData, id);
+    requestData.writeInt(quantity);
+    return end();
+  }
+
+  /**
+   * Buffers a request for a product.
+   *
+   * @return The number of the request.
+   */
+  public int sendGet(String id) throws IOException {
+    start(WireProtocol.GET);
+    Mutation.writeString(requestData, id);
+    return end();
+  }
+
+  /**
+   * Buffers a keyword search, see
+   * {@link ProductRegister#findByKeywords(String, boolean, boolean)}.
+   *
+   * @return The number of the request.
+   */
+  public int sendSearch(String keywords, boolean matchAll, boolean partialMatch) throws IOException {
+    start(WireProtocol.SEARCH);
+    Mutation.writeString(requestData, keywords);
+    requestData.writeBoolean(matchAll);
+    requestData.writeBoolean(partialMatch);
+    return end();
+  }
+
+  /**
+   * Sends the buffered requests.
+   */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Waits for the response to the oldest request that has not been answered.
+   * The buffered requests are sent first.
+   *
+   * @return The response.
+   * @throws IOException If the connection failed.
+   */
+  public Response receive() throws IOException {
+    if (pending.isEmpty()) {
+      throw new IllegalStateException("No request is waiting for a response");
+    }
+    flush();
+
+    int length = in.readInt();
+    if (length < WireProtocol.FRAME_HEADER) {
+      throw new IOException("Invalid frame length " + length);
+    }
+    int number = in.readInt();
+    byte code = pending.poll();
+    Status status = Status.values()[in.readUnsignedByte()];
+
+    if (status != Status.OK) {
+      return new Response(number, status, -1, Collections.emptyList(), Mutation.readString(in));
+    }
+    return switch (code) {
+      case WireProtocol.INCREASE, WireProtocol.DECREASE -> new Response(number, status, in.readInt(),
+          Collections.emptyList(), null);
+      case WireProtocol.GET -> new Response(number, status, -1, List.of(Mutation.readProduct(in)), null);
+      default -> {
+        int count = in.readInt();
+        List<ProductView> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          products.add(Mutation.readProduct(in));
+        }
+        yield new Response(number, status, -1, products, null);
+      }
+    };
+  }
+
+  /**
+   * Increases the quantity of a product and waits for the answer.
+   *
+   * @return The new quantity.
+   */
+  public int increaseProductInventory(String id, int quantity) throws IOException {
+    sendIncrease(id, quantity);
+    return check(receive()).getQuantity();
+  }
+
+  /**
+   * Decreases the quantity of a product and waits for the answer.
+   *
+   * @return The new quantity.
+   */
+  public int decreaseProductInventory(String id, int quantity) throws IOException {
+    sendDecrease(id, quantity);
+    return check(receive()).getQuantity();
+  }
+
+  /**
+   * Returns the product with the given id.
+   */
+  public ProductView getProductByID(String id) throws IOException {
+    sendGet(id);
+    return check(receive()).getProducts().get(0);
+  }
+
+  /**
+   * Returns the products that match the keywords.
+   */
+  public List<ProductView> findByKeywords(String keywords, boolean matchAll, boolean partialMatch)
+      throws IOException {
+    sendSearch(keywords, matchAll, partialMatch);
+    return check(receive()).getProducts();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  /**
+   * Sends a stream of inventory updates over one connection and prints how many
+   * were handled per second.
+   *
+   * @param args The host, the port and the number of updates, all optional.
+   *             Without a host, a server with a generated register is started
+   *             in the same process.
+   */
+  public static void main(String[] args) throws IOException {
+    int updates = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+    WireServer local = null;
+    String host = "localhost";
+    int port;
+    if (args.length > 1) {
+      host = args[0];
+      port = Integer.parseInt(args[1]);
+    } else {
+      ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+      new CatalogGenerator(42).populate(register, 10_000);
+      local = WireServer.start(register, 0, Runtime.getRuntime().availableProcessors());
+      port = local.getPort();
+    }
+
+    try (WireClient client = connect(host, port)) {
+      for (int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int i = 0; i < updates; i++) {
+          client.sendIncrease("ID" + (i % 10_000), 1);
+          if (i >= WINDOW && client.receive().getStatus() != Status.OK) {
+            failed++;
+          }
+        }
+        while (!client.pending.isEmpty()) {
+          if (client.receive().getStatus() != Status.OK) {
+            failed++;
+          }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d updates in %.2f s, %.0f updates/s, %d failed%n", updates, seconds, updates / seconds,
+            failed);
+      }
+    } finally {
+      if (local != null) {
+        local.close();
+      }
+    }
+  }
+
+  private void start(byte code) throws IOException {
+    request.reset();
+    requestData.writeInt(nextNumber);
+    requestData.writeByte(code);
+    pending.add(code);
+  }
+
+  private int end() throws IOException {
+    out.writeInt(request.size());
+    request.writeTo(out);
+    return nextNumber++;
+  }
+
+  /**
+   * Turns a failed response into the same exception the register throws.
+   */
+  private static Response check(Response response) {
+    return switch (response.getStatus()) {
+      case OK -> response;
+      case NOT_FOUND -> throw new NoSuchElementException(response.getMessage());
+      case REJECTED -> throw new IllegalArgumentException(response.getMessage());
+      case ERROR -> throw new IllegalStateException(response.getMessage());
+    };
+  }
+
+}
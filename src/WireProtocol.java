@@ -0,0 +1,62 @@
+package src;
+
+/**
+ * The constants of the binary protocol that is spoken by {@link WireServer} and
+ * {@link WireClient}. It is much smaller than HTTP and JSON, which matters for
+ * clients that send a steady stream of tiny inventory updates.
+ *
+ * <p>
+ * Every message is a frame: the length of the rest of the frame as an int,
+ * followed by the number of the request as an int and a one byte code. Numbers
+ * are big-endian, and strings are written like
+ * {@link Mutation#writeString(java.io.DataOutput, String)}.
+ *
+ * <p>
+ * A request has one of these codes, followed by:
+ * <ul>
+ * <li>{@link #INCREASE} and {@link #DECREASE}: the id and the quantity.</li>
+ * <li>{@link #GET}: the id.</li>
+ * <li>{@link #SEARCH}: the keywords, and whether all keywords must match and
+ * whether parts of words match, as booleans.</li>
+ * </ul>
+ *
+ * <p>
+ * A response has the number of the request it answers and a status code. On
+ * success it is followed by the new quantity for an inventory change, a product
+ * for a lookup, and the number of products and the products for a search.
+ * Products are written like
+ * {@link Mutation#writeProduct(java.io.DataOutput, ProductView)}. On failure it is
+ * followed by a message.
+ *
+ * <p>
+ * A client may send many requests without waiting for the responses. The
+ * requests of a connection are handled in order, and the responses come back in
+ * the same order.
+ *
+ * @author Kandidat 10009
+ *
+ */
+final class WireProtocol {
+
+  // Request codes
+  static final byte INCREASE = 1;
+  static final byte DECREASE = 2;
+  static final byte GET = 3;
+  static final byte SEARCH = 4;
+
+  // Status codes
+  static final byte OK = 0;
+  static final byte NOT_FOUND = 1;
+  static final byte REJECTED = 2;
+  static final byte ERROR = 3;
+
+  // The largest request frame, not counting the length.
+  static final int MAX_REQUEST = 1 << 16;
+
+  // The request number and the code.
+  static final int FRAME_HEADER = 5;
+
+  private WireProtocol() {
+  }
+
+}
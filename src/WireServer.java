@@ -0,0 +1,460 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server for the binary protocol described in {@link WireProtocol}. Sockets
+ * are non-blocking, and a fixed number of selector threads share the
+ * connections, so the number of threads does not grow with the number of
+ * clients.
+ *
+ * <p>
+ * A selector thread only reads and writes. The requests it reads are handled
+ * on a pool of worker threads, so a request that waits for the lock of a busy
+ * product does not hold up the other connections of the selector. The
+ * requests of one connection are handled one at a time, in the order they
+ * arrive, so the responses come back in the same order. The responses are
+ * collected and written with as few writes as possible. A client that sends
+ * requests faster than they are handled, or faster than it reads the
+ * responses, is not read from until it has caught up.
+ *
+ * @author Kandidat 10009
+ *
+ */
+public class WireServer implements Closeable {
+
+  private static final System.Logger LOG = System.getLogger(WireServer.class.getName());
+
+  // When this many bytes of responses are waiting to be written, no more
+  // requests are read from the connection.
+  private static final int HIGH_WATER = 1 << 20;
+
+  // When this many requests of a connection are waiting to be handled, no more
+  // requests are read from it.
+  private static final int MAX_WAITING = 1024;
+
+  private final ProductRegister register;
+  private final ServerSocketChannel server;
+  private final ExecutorService workers;
+  private final Loop[] loops;
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  private WireServer(ProductRegister register, ServerSocketChannel server, int selectors, int workers)
+      throws IOException {
+    this.register = register;
+    this.server = server;
+    AtomicInteger count = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(workers, task -> {
+      Thread thread = new Thread(task, "wire-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.loops = new Loop[selectors];
+    for (int i = 0; i < selectors; i++) {
+      loops[i] = new Loop(i);
+    }
+    this.acceptor = new Thread(this::accept, "wire-acceptor");
+  }
+
+  /**
+   * Starts a server for a register, with one worker thread per CPU.
+   *
+   * @param register  The register to serve.
+   * @param port      The port to listen on, or 0 for any free port.
+   * @param selectors The number of selector threads.
+   * @return The running server.
+   * @throws IOException If the server could not listen on the port.
+   */
+  public static WireServer start(ProductRegister register, int port, int selectors) throws IOException {
+    return start(register, port, selectors, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Starts a server for a register.
+   *
+   * @param register  The register to serve.
+   * @param port      The port to listen on, or 0 for any free port.
+   * @param selectors The number of selector threads.
+   * @param workers   The number of threads that handle the requests.
+   * @return The running server.
+   * @throws IOException If the server could not listen on the port.
+   */
+  public static WireServer start(ProductRegister register, int port, int selectors, int workers)
+      throws IOException {
+    if (selectors < 1 || workers < 1) {
+      throw new IllegalArgumentException("There has to be at least one selector thread and one worker");
+    }
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(port), 1024);
+
+    WireServer wire = new WireServer(register, server, selectors, workers);
+    for (Loop loop : wire.loops) {
+      loop.thread.start();
+    }
+    wire.acceptor.start();
+    return wire;
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Stops the server and closes all connections.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    for (Loop loop : loops) {
+      loop.selector.wakeup();
+    }
+    workers.shutdown();
+  }
+
+  /**
+   * Accepts connections, and gives them to the selector threads in turn.
+   */
+  private void accept() {
+    int next = 0;
+    while (!closed) {
+      try {
+        SocketChannel channel = server.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        loops[next].add(channel);
+        next = (next + 1) % loops.length;
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        if (closed) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * A selector thread and the connections it serves.
+   */
+  private final class Loop {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+
+    // Connections that have new responses from the workers.
+    private final Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+
+    private Loop(int number) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this::run, "wire-selector-" + number);
+      this.thread.setDaemon(true);
+    }
+
+    private void add(SocketChannel channel) {
+      added.add(channel);
+      selector.wakeup();
+    }
+
+    /**
+     * Tells the selector thread that a connection has responses to write,
+     * unless it has already been told.
+     */
+    private void answered(Connection connection) {
+      if (connection.answered.compareAndSet(false, true)) {
+        answered.add(connection);
+        selector.wakeup();
+      }
+    }
+
+    private void run() {
+      try {
+        while (!closed) {
+          selector.select();
+          SocketChannel channel;
+          while ((channel = added.poll()) != null) {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(this, channel, key));
+          }
+          Connection ready;
+          while ((ready = answered.poll()) != null) {
+            try {
+              ready.flushResponses();
+            } catch (IOException e) {
+              ready.close();
+            }
+          }
+
+          for (SelectionKey key : selector.selectedKeys()) {
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isWritable()) {
+                connection.write();
+              }
+              if (key.isValid() && key.isReadable()) {
+                connection.read();
+              }
+            } catch (IOException e) {
+              connection.close();
+            }
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        // The selector is broken, so the connections cannot be served
+      } finally {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+          ((Connection) key.attachment()).close();
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // Nothing more can be done
+        }
+      }
+    }
+  }
+
+  /**
+   * One client connection, with the requests that have been read but not
+   * handled, and the responses that have not been written yet. The buffers are
+   * only used by the selector thread, and the requests are handled by one
+   * worker at a time.
+   */
+  private final class Connection {
+    private final Loop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer out = ByteBuffer.allocate(1 << 16);
+
+    // Requests read but not handled, and responses not yet in the output.
+    private final Queue<byte[]> requests = new ConcurrentLinkedQueue<>();
+    private final Queue<byte[]> responses = new ConcurrentLinkedQueue<>();
+
+    // The number of requests that have not been handled. The connection is
+    // given to a worker when this goes up from zero, and the worker keeps it
+    // until it is back at zero.
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // Whether the selector thread has been told about the responses.
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    // Only used by the worker that has the connection.
+    private final ByteArrayOutputStream response = new ByteArrayOutputStream(256);
+    private final DataOutputStream responseData = new DataOutputStream(response);
+
+    private Connection(Loop loop, SocketChannel channel, SelectionKey key) {
+      this.loop = loop;
+      this.channel = channel;
+      this.key = key;
+    }
+
+    /**
+     * Reads what the client has sent, and handles every complete request.
+     */
+    private void read() throws IOException {
+      if (channel.read(in) < 0) {
+        close();
+        return;
+      }
+
+      in.flip();
+      while (in.remaining() >= 4) {
+        int length = in.getInt(in.position());
+        if (length < WireProtocol.FRAME_HEADER || length > WireProtocol.MAX_REQUEST) {
+          throw new IOException("Invalid frame length " + length);
+        }
+        if (in.remaining() < 4 + length) {
+          break;
+        }
+        int start = in.arrayOffset() + in.position() + 4;
+        requests.add(Arrays.copyOfRange(in.array(), start, start + length));
+        if (waiting.getAndIncrement() == 0) {
+          workers.execute(this::work);
+        }
+        in.position(in.position() + 4 + length);
+      }
+      in.compact();
+      if (!in.hasRemaining()) {
+        // A frame can be larger than the buffer
+        ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+        in.flip();
+        larger.put(in);
+        in = larger;
+      }
+
+      write();
+    }
+
+    /**
+     * Moves the responses of the workers to the output, and writes them. Runs
+     * on the selector thread.
+     */
+    private void flushResponses() throws IOException {
+      answered.set(false);
+      if (!key.isValid()) {
+        return;
+      }
+      byte[] frame;
+      while ((frame = responses.poll()) != null) {
+        if (out.remaining() < 4 + frame.length) {
+          ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + 4 + frame.length));
+          out.flip();
+          larger.put(out);
+          out = larger;
+        }
+        out.putInt(frame.length);
+        out.put(frame);
+      }
+      write();
+    }
+
+    /**
+     * Writes as much of the waiting responses as the socket takes, and only
+     * reads more requests when the client has read most of the responses and
+     * the workers have caught up.
+     */
+    private void write() throws IOException {
+      out.flip();
+      channel.write(out);
+      out.compact();
+
+      int interest = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+      if (out.position() < HIGH_WATER && waiting.get() < MAX_WAITING) {
+        interest |= SelectionKey.OP_READ;
+      }
+      if (key.interestOps() != interest) {
+        key.interestOps(interest);
+      }
+    }
+
+    /**
+     * Handles the requests of the connection in order, until there are none
+     * left. Runs on a worker thread.
+     */
+    private void work() {
+      do {
+        try {
+          responses.add(handle(requests.poll()));
+        } catch (IOException e) {
+          // Only happens if the response could not be built in memory
+          close();
+        }
+        loop.answered(this);
+      } while (waiting.decrementAndGet() > 0);
+    }
+
+    /**
+     * Handles one request and returns the response.
+     */
+    private byte[] handle(byte[] frame) throws IOException {
+      DataInputStream request = new DataInputStream(new ByteArrayInputStream(frame));
+      int number = request.readInt();
+      byte code = request.readByte();
+
+      response.reset();
+      responseData.writeInt(number);
+      try {
+        switch (code) {
+          case WireProtocol.INCREASE -> adjust(Mutation.readString(request), request.readInt(), true);
+          case WireProtocol.DECREASE -> adjust(Mutation.readString(request), request.readInt(), false);
+          case WireProtocol.GET -> {
+            ProductView product = register.getProductByID(Mutation.readString(request));
+            responseData.writeByte(WireProtocol.OK);
+            Mutation.writeProduct(responseData, product);
+          }
+          case WireProtocol.SEARCH -> {
+            List<ProductView> products = register.findByKeywords(
+                Mutation.readString(request), request.readBoolean(), request.readBoolean());
+            responseData.writeByte(WireProtocol.OK);
+            responseData.writeInt(products.size());
+            for (ProductView product : products) {
+              Mutation.writeProduct(responseData, product);
+            }
+          }
+          default -> throw new IllegalArgumentException("Unknown request " + code);
+        }
+      } catch (NoSuchElementException e) {
+        fail(number, WireProtocol.NOT_FOUND, e.getMessage());
+      } catch (IllegalArgumentException e) {
+        fail(number, WireProtocol.REJECTED, e.getMessage());
+      } catch (IOException | RuntimeException e) {
+        // A request that ends too early, or a fault in the register. The
+        // details are for the log, not for the client
+        LOG.log(System.Logger.Level.ERROR, "Could not handle request " + code, e);
+        fail(number, WireProtocol.ERROR, "Internal server error");
+      }
+      return response.toByteArray();
+    }
+
+    /**
+     * Increases or decreases the quantity of a product, and answers with the
+     * new quantity. The register refuses a quantity that would be negative.
+     */
+    private void adjust(String id, int quantity, boolean increase) throws IOException {
+      if (quantity < 0) {
+        throw new IllegalArgumentException("The quantity cannot be negative");
+      }
+      // The new quantity is read under the same lock as the change
+      int[] result = new int[1];
+      register.withProduct(id, product -> {
+        if (increase) {
+          register.increaseProductInventory(id, quantity);
+          result[0] = product.getQuantity() + quantity;
+        } else {
+          register.decreaseProductInventory(id, quantity);
+          result[0] = product.getQuantity() - quantity;
+        }
+      });
+      responseData.writeByte(WireProtocol.OK);
+      responseData.writeInt(result[0]);
+    }
+
+    private void fail(int number, byte status, String message) throws IOException {
+      response.reset();
+      responseData.writeInt(number);
+      responseData.writeByte(status);
+      Mutation.writeString(responseData, message);
+    }
+
+    private void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // The connection is gone either way
+      }
+    }
+  }
+
+}
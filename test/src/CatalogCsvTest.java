@@ -0,0 +1,108 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Exports registers to CSV and imports them again, and imports files with rows
+ * that are broken in different ways.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class CatalogCsvTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void importGivesBackWhatWasExported() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 500);
+    register.createProduct("ID1000", 10, "Oak, \"white\"\r\nDoor", "Brand", 1.5, 2, 3, "Red", 5, 1);
+    register.createProduct("ID1001", 10, null, null, 1, 1, 1, null, 5, 2);
+    register.createProduct("ID1002", 10, "", "", 1, 1, 1, "", 5, 3);
+    // Far longer than a string written with writeUTF can be
+    register.createProduct("ID1003", 10, "\u00e9".repeat(100_000), "Brand", 1, 1, 1, "Red", 5, 4);
+
+    ProductRegister imported = new ProductRegister(ProductValidator.DEFAULT);
+    CatalogCsv.ImportResult result = roundTrip(register, imported);
+
+    assertEquals(504, result.getImported());
+    assertEquals(0, result.getRejected());
+    assertEquals(RegisterJournalTest.contents(register), RegisterJournalTest.contents(imported));
+    assertEquals("Oak, \"white\"\r\nDoor", imported.getProductByID("ID1000").getDescription());
+    assertNull(imported.getProductByID("ID1001").getDescription());
+    assertNull(imported.getProductByID("ID1001").getBrandName());
+    assertNull(imported.getProductByID("ID1001").getColor());
+    assertEquals("", imported.getProductByID("ID1002").getDescription());
+    assertEquals("", imported.getProductByID("ID1002").getBrandName());
+    assertEquals("", imported.getProductByID("ID1002").getColor());
+  }
+
+  @Test
+  void brokenRowsAreRejectedAndTheRestImported() throws IOException {
+    String tooLong = "x".repeat(CatalogCsv.MAX_ROW_CHARS);
+    String csv = CatalogCsv.HEADER + "\n"
+        + "ID1,10,Door,Brand,1,1,1,Red,5,1\n"
+        + "ID2,10,Door,Brand,1,1,1,Red,5\n"
+        + "ID3,ten,Door,Brand,1,1,1,Red,5,1\n"
+        + "\n"
+        + "ID4,10,Door,Brand,1,1,1,Red,-5,1\n"
+        // The quote is never closed, and the row would go on to the end of
+        // the file if it was not cut off
+        + "ID5,10,\"Door" + tooLong + ",Brand,1,1,1,Red,5,1\n"
+        + "ID6,10,Door,Brand,1,1,1,Red,5,1\n"
+        + "ID1,20,Door,Brand,1,1,1,Red,5,1\n"
+        + "ID7,10,\"Door,Brand,1,1,1,Red,5,1\n";
+    Path file = directory.resolve("products.csv");
+    Files.writeString(file, csv, StandardCharsets.UTF_8);
+
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    CatalogCsv.ImportResult result = CatalogCsv.importProducts(file, directory.resolve("errors.csv"), register);
+
+    assertEquals(2, result.getImported());
+    assertEquals(6, result.getRejected());
+    assertEquals(10, register.getProductByID("ID1").getPrice());
+    assertEquals(5, register.getProductByID("ID6").getQuantity());
+    for (String id : List.of("ID2", "ID3", "ID4", "ID5", "ID7")) {
+      assertThrows(NoSuchElementException.class, () -> register.getProductByID(id));
+    }
+
+    List<String> errors = Files.readAllLines(directory.resolve("errors.csv"), StandardCharsets.UTF_8);
+    // The field that was never closed has the line break in it
+    assertEquals(8, errors.size());
+    assertTrue(errors.get(1).contains("Expected 10 columns, found 9"), errors.get(1));
+    assertTrue(errors.get(2).contains("Not a number"), errors.get(2));
+    assertTrue(errors.get(4).endsWith("The row is longer than " + CatalogCsv.MAX_ROW_CHARS + " characters"),
+        errors.get(4));
+    assertTrue(errors.get(7).endsWith("A quoted field is not closed"), errors.get(7));
+  }
+
+  /**
+   * Exports one register and imports the file into another.
+   */
+  private CatalogCsv.ImportResult roundTrip(ProductRegister from, ProductRegister to) throws IOException {
+    Path file = directory.resolve("products.csv");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      CatalogCsv.exportProducts(from, channel);
+    }
+    return CatalogCsv.importProducts(file, directory.resolve("errors.csv"), to);
+  }
+
+}
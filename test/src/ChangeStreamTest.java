@@ -0,0 +1,149 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Publishes changes from many threads into a change stream, and checks that
+ * the writers never wait for a subscriber, that subscribers see every change
+ * once, in order, and that a change file has every change.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ChangeStreamTest {
+
+  private static final int THREADS = 4;
+
+  @Test
+  void writersAreNotHeldUpByAStalledSubscriber() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+
+    try (ChangeStream stream = new ChangeStream(register, 16)) {
+      // A subscriber that never reads
+      ChangeStream.Subscription stalled = stream.subscribe(stream.getNextSequence());
+
+      runAll(() -> {
+        for (int i = 0; i < 1000; i++) {
+          register.increaseProductInventory("ID1", 1);
+        }
+      });
+      assertEquals(THREADS * 1000, register.getProductByID("ID1").getQuantity());
+
+      // The subscriber is disconnected once it reads
+      assertThrows(IllegalStateException.class, () -> stalled.poll(0, TimeUnit.MILLISECONDS));
+      assertThrows(IllegalStateException.class, () -> stalled.poll(0, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Test
+  void everyChangeIsReadOnceInOrder() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+
+    try (ChangeStream stream = new ChangeStream(register, 1 << 16)) {
+      long first = stream.getNextSequence();
+      ChangeStream.Subscription subscription = stream.subscribe(first);
+
+      // The reader runs while the changes are made
+      long[] read = new long[1];
+      Thread reader = new Thread(() -> {
+        try {
+          for (long expected = first; expected < first + THREADS * 5000; expected++) {
+            ChangeEvent event = subscription.poll(30, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertEquals(expected, event.getSequence());
+            read[0]++;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      reader.start();
+      runAll(() -> {
+        for (int i = 0; i < 5000; i++) {
+          register.increaseProductInventory("ID1", 1);
+        }
+      });
+      reader.join(60_000);
+
+      assertEquals(THREADS * 5000, read[0]);
+      assertEquals(first + THREADS * 5000, subscription.getPosition());
+      assertEquals(null, subscription.poll(0, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Test
+  void changeFileIsNeverLeftBehind(@TempDir Path directory) throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+    Path file = directory.resolve("changes.bin");
+
+    long first;
+    try (ChangeStream stream = new ChangeStream(register, 16)) {
+      first = stream.getNextSequence();
+      // The burst is far larger than the ring
+      try (ChangeFileSink sink = new ChangeFileSink(stream, file)) {
+        runAll(() -> {
+          for (int i = 0; i < 2000; i++) {
+            register.increaseProductInventory("ID1", 1);
+          }
+        });
+        sink.flush();
+      }
+    }
+
+    Set<Long> sequences = new HashSet<>();
+    long next = ChangeFileSink.read(file, first, event -> sequences.add(event.getSequence()));
+    assertEquals(THREADS * 2000, sequences.size());
+    assertEquals(first + THREADS * 2000, next);
+    for (long sequence = first; sequence < next; sequence++) {
+      assertTrue(sequences.contains(sequence), "Change " + sequence + " is missing");
+    }
+  }
+
+  @Test
+  void closingTheStreamEndsTheSubscriptions() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    ChangeStream stream = new ChangeStream(register, 16);
+    ChangeStream.Subscription subscription = stream.subscribe(stream.getNextSequence());
+
+    Thread closer = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      stream.close();
+    });
+    closer.start();
+    assertThrows(IllegalStateException.class, subscription::take);
+    closer.join();
+  }
+
+  /**
+   * Runs the work on all the threads at the same time, and waits for them.
+   */
+  private static void runAll(Runnable work) throws InterruptedException {
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      threads[t] = new Thread(work);
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+}
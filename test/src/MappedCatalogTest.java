@@ -0,0 +1,72 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes registers to catalog files, and checks that a register opened over
+ * the file gives the same answers as the register that was written, also after
+ * it has been changed.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class MappedCatalogTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void catalogFindsEveryProduct() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 1000);
+    register.createProduct("NULLS1", 10, null, null, 1, 2, 3, null, 5, 2);
+    Path file = directory.resolve("catalog.bin");
+    MappedCatalog.write(register, file);
+
+    MappedCatalog catalog = MappedCatalog.open(file);
+    assertEquals(1001, catalog.size());
+    register.forEachProduct(product -> assertEquals(product.toString(), catalog.get(product.getID()).toString()));
+    assertEquals(register.getProductByID("NULLS1").toString(), catalog.get("nulls1").toString());
+    assertNull(catalog.get("NOPE1"));
+  }
+
+  @Test
+  void registerOverCatalogKeepsItsChanges() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(2).populate(register, 1000);
+    Path file = directory.resolve("catalog.bin");
+    MappedCatalog.write(register, file);
+
+    ProductRegister opened = ProductRegister.openCatalog(file, ProductValidator.DEFAULT);
+    for (ProductRegister each : new ProductRegister[] { register, opened }) {
+      // Changes to products that have only been read by id, before the rest
+      // of the catalog is loaded
+      each.changePrice("ID1", 12345);
+      each.increaseProductInventory("ID2", 7);
+      each.removeProduct("ID3");
+      each.createProduct("NEW1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    }
+    assertEquals(12345, opened.getProductByID("id1").getPrice());
+    assertThrows(NoSuchElementException.class, () -> opened.getProductByID("ID3"));
+
+    // Listing loads the rest, and the removed product does not come back
+    assertEquals(RegisterJournalTest.contents(register), RegisterJournalTest.contents(opened));
+    assertEquals(register.getInventoryTotals().toString(), opened.getInventoryTotals().toString());
+    assertEquals(register.findByKeywords("door", false, false).size(),
+        opened.findByKeywords("door", false, false).size());
+    assertThrows(NoSuchElementException.class, () -> opened.getProductByID("ID3"));
+
+    // The file itself is never changed
+    assertEquals(1000, MappedCatalog.open(file).size());
+  }
+
+}
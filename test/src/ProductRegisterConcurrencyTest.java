@@ -0,0 +1,252 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs many threads against one register, and checks that no change is lost
+ * and that a quantity never goes below zero.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ProductRegisterConcurrencyTest {
+
+  private static final int THREADS = 8;
+
+  private ExecutorService pool;
+
+  @BeforeEach
+  void startPool() {
+    pool = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @AfterEach
+  void stopPool() throws InterruptedException {
+    pool.shutdownNow();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void increasesAreNeverLost() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+
+    runAll(thread -> {
+      for (int i = 0; i < 10_000; i++) {
+        register.increaseProductInventory("ID1", 1);
+      }
+    });
+
+    assertEquals(THREADS * 10_000, register.getProductByID("ID1").getQuantity());
+  }
+
+  @Test
+  void quantityNeverGoesBelowZero() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 1000, 1);
+    AtomicInteger taken = new AtomicInteger();
+
+    // Every thread tries to take more than there is, so most decreases are
+    // refused once the stock runs out.
+    runAll(thread -> {
+      for (int i = 0; i < 1000; i++) {
+        try {
+          register.decreaseProductInventory("ID1", 1);
+          taken.incrementAndGet();
+        } catch (IllegalArgumentException e) {
+          // Out of stock
+        }
+        assertTrue(register.getProductByID("ID1").getQuantity() >= 0);
+      }
+    });
+
+    assertEquals(1000, taken.get());
+    assertEquals(0, register.getProductByID("ID1").getQuantity());
+  }
+
+  @Test
+  void mixedChangesKeepTheTotals() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 100);
+    long before = register.getInventoryTotals().getTotalQuantity();
+    AtomicLong added = new AtomicLong();
+
+    runAll(thread -> {
+      for (int i = 0; i < 5000; i++) {
+        String id = "ID" + ((i * 31 + thread) % 100);
+        int amount = i % 7 + 1;
+        if (i % 2 == 0) {
+          register.increaseProductInventory(id, amount);
+          added.addAndGet(amount);
+        } else {
+          try {
+            register.decreaseProductInventory(id, amount);
+            added.addAndGet(-amount);
+          } catch (IllegalArgumentException e) {
+            // Out of stock
+          }
+        }
+      }
+    });
+
+    long sum = 0;
+    for (int i = 0; i < 100; i++) {
+      sum += register.getProductByID("ID" + i).getQuantity();
+    }
+    assertEquals(before + added.get(), sum);
+    assertEquals(sum, register.getInventoryTotals().getTotalQuantity());
+  }
+
+  @Test
+  void createAndRemoveRacesLeaveOneConsistentRegister() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+
+    // The threads create, change and remove the same few ids, so every
+    // operation races with the others.
+    runAll(thread -> {
+      for (int i = 0; i < 2000; i++) {
+        String id = "ID" + (i % 10);
+        try {
+          switch ((i + thread) % 3) {
+            case 0 -> register.createProduct(id, 10, "Door,Red", "Brand", 1, 1, 1, "Red", 5, 1);
+            case 1 -> register.increaseProductInventory(id, 1);
+            default -> register.removeProduct(id);
+          }
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+          // Already created or already removed
+        }
+      }
+    });
+
+    List<String> listed = register.printAllProducts();
+    long quantity = 0;
+    for (int i = 0; i < 10; i++) {
+      try {
+        quantity += register.getProductByID("ID" + i).getQuantity();
+      } catch (NoSuchElementException e) {
+        // Removed last
+      }
+    }
+    assertEquals(listed.size(), register.searchByKeywords("Door").size());
+    assertEquals(listed.size(), register.getInventoryTotals().getProductCount());
+    assertEquals(quantity, register.getInventoryTotals().getTotalQuantity());
+  }
+
+  @Test
+  void rejectedLineLeavesTheWholeBatchUnapplied() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    register.createProduct("ID2", 10, "Door", "Brand", 1, 1, 1, "Red", 3, 1);
+
+    List<InventoryAdjustmentResult> results = register.applyInventoryBatch(List.of(
+        new InventoryAdjustment("ID1", -2),
+        new InventoryAdjustment("ID2", -4),
+        new InventoryAdjustment("ID1", 1),
+        new InventoryAdjustment("ID9", 1)));
+    assertEquals(List.of(InventoryAdjustmentResult.Status.NOT_APPLIED, InventoryAdjustmentResult.Status.REJECTED,
+        InventoryAdjustmentResult.Status.NOT_APPLIED, InventoryAdjustmentResult.Status.REJECTED),
+        results.stream().map(InventoryAdjustmentResult::getStatus).toList());
+    assertEquals(5, register.getProductByID("ID1").getQuantity());
+    assertEquals(3, register.getProductByID("ID2").getQuantity());
+    assertEquals(1, register.getProductByID("ID1").getVersion());
+    assertEquals(8, register.getInventoryTotals().getTotalQuantity());
+  }
+
+  @Test
+  void largeBatchesInAnyOrderAreAllApplied() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    int products = 20_000;
+    List<InventoryAdjustment> batch = new ArrayList<>();
+    for (int i = 0; i < products; i++) {
+      register.createProduct("ID" + i, 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+      batch.add(new InventoryAdjustment("ID" + i, 1));
+    }
+    List<InventoryAdjustment> reversed = new ArrayList<>(batch);
+    Collections.reverse(reversed);
+
+    // Every product of the batch is locked at once, and the threads list them
+    // in opposite orders
+    runAll(thread -> {
+      for (int i = 0; i < 5; i++) {
+        for (InventoryAdjustmentResult result : register.applyInventoryBatch(thread % 2 == 0 ? batch : reversed)) {
+          assertEquals(InventoryAdjustmentResult.Status.APPLIED, result.getStatus());
+        }
+      }
+    });
+
+    assertEquals((long) THREADS * 5 * products, register.getInventoryTotals().getTotalQuantity());
+    assertEquals(THREADS * 5, register.getProductByID("ID123").getQuantity());
+  }
+
+  @Test
+  void idsAreUniqueUnderRaces() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    AtomicInteger created = new AtomicInteger();
+
+    runAll(thread -> {
+      for (int i = 0; i < 500; i++) {
+        try {
+          // Upper and lower case ids are the same product
+          String id = (thread % 2 == 0 ? "ID" : "id") + i;
+          register.createProduct(id, 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+          created.incrementAndGet();
+        } catch (IllegalArgumentException e) {
+          // Another thread was first
+        }
+      }
+    });
+
+    assertEquals(500, created.get());
+    assertEquals(500, register.printAllProducts().size());
+    assertThrows(IllegalArgumentException.class,
+        () -> register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1));
+  }
+
+  /**
+   * An action run by one of the threads, which is given the number of the
+   * thread.
+   */
+  private interface Work {
+    void run(int thread) throws Exception;
+  }
+
+  /**
+   * Runs the work on all the threads at the same time, and rethrows the first
+   * failure.
+   */
+  private void runAll(Work work) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      int number = thread;
+      futures.add(pool.submit(() -> {
+        start.await();
+        work.run(number);
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(60, TimeUnit.SECONDS);
+    }
+  }
+
+}
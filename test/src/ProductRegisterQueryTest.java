@@ -0,0 +1,152 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lists and queries the products of a register, also while other threads
+ * change them, and checks the answers against the products themselves.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ProductRegisterQueryTest {
+
+  @Test
+  void keywordWithSeveralWordsIsAPhrase() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Oak door, white", "Brand", 1, 1, 1, "Red", 1, 1);
+    register.createProduct("ID2", 10, "White door, oak", "Brand", 1, 1, 1, "Red", 1, 1);
+    register.createProduct("ID3", 10, "Oak doors", "Brand", 1, 1, 1, "Red", 1, 1);
+    register.createProduct("ID4", 10, "Oak-door", "Brand", 1, 1, 1, "Red", 1, 1);
+
+    assertEquals(List.of("ID1", "ID3"), keywordIds(register, "oak door", false, true));
+    assertEquals(List.of("ID1"), keywordIds(register, "oak door", false, false));
+    assertEquals(List.of("ID4"), keywordIds(register, "OAK-DOOR", false, true));
+    assertEquals(List.of("ID2"), keywordIds(register, "white door, oak", true, true));
+    assertEquals(List.of("ID1", "ID2", "ID3", "ID4"), keywordIds(register, "oak, door", true, true));
+
+    // A change of description is searched as the new phrase
+    register.changeDescription("ID2", "White oak door");
+    assertEquals(List.of("ID1", "ID2", "ID3"), keywordIds(register, "oak door", false, true));
+  }
+
+  @Test
+  void pagesListEveryProductInOrder() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 1000);
+    register.removeProduct("ID7");
+
+    for (ProductOrder order : ProductOrder.values()) {
+      List<ProductView> expected = new ArrayList<>();
+      register.forEachProduct(expected::add);
+      expected.sort(order.comparator());
+
+      assertEquals(ids(expected), ids(listAll(register, order, 37)));
+    }
+  }
+
+  @Test
+  void pagesNeverRepeatAProductWhileItChanges() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(2).populate(register, 2000);
+
+    // The prices keep moving, so products move in the price index while the
+    // pages are read
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread changer = new Thread(() -> {
+      for (int i = 0; !stop.get(); i++) {
+        register.changePrice("ID" + (i * 7 % 2000), i % 1000);
+      }
+    });
+    changer.start();
+    try {
+      for (int round = 0; round < 20; round++) {
+        for (ProductOrder order : ProductOrder.values()) {
+          List<ProductView> listed = listAll(register, order, 50);
+          Set<String> ids = new HashSet<>(ids(listed));
+          assertEquals(listed.size(), ids.size());
+          if (order == ProductOrder.ID) {
+            assertEquals(2000, listed.size());
+          }
+          for (int i = 1; i < listed.size(); i++) {
+            assertTrue(order.comparator().compare(listed.get(i - 1), listed.get(i)) < 0);
+          }
+        }
+      }
+    } finally {
+      stop.set(true);
+      changer.join();
+    }
+  }
+
+  @Test
+  void queryFindsEveryProductOnceWhileItMoves() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    for (int i = 0; i < 2000; i++) {
+      register.createProduct("ID" + i, 100 + i % 100, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    }
+    // Products outside the range, so the price index is the best candidate
+    for (int i = 0; i < 20_000; i++) {
+      register.createProduct("OTHER" + i, 1000, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    }
+
+    // The prices keep moving up inside the range, so a product can be found
+    // again further on in the index
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread changer = new Thread(() -> {
+      for (int i = 0; !stop.get(); i++) {
+        register.changePrice("ID" + (i % 2000), 100 + (i / 2000 + i) % 100);
+      }
+    });
+    changer.start();
+    try {
+      for (int round = 0; round < 200; round++) {
+        List<ProductView> found = register.query(new ProductQuery().priceBetween(100, 199));
+        Set<String> ids = new HashSet<>(ids(found));
+        assertEquals(found.size(), ids.size());
+        assertTrue(found.size() <= 2000);
+        for (ProductView product : found) {
+          assertTrue(product.getPrice() >= 100 && product.getPrice() <= 199);
+        }
+      }
+    } finally {
+      stop.set(true);
+      changer.join();
+    }
+    assertEquals(2000, register.query(new ProductQuery().priceBetween(100, 199)).size());
+  }
+
+  private static List<ProductView> listAll(ProductRegister register, ProductOrder order, int limit) {
+    List<ProductView> products = new ArrayList<>();
+    String cursor = null;
+    do {
+      ProductPage page = register.listProducts(order, cursor, limit);
+      products.addAll(page.getProducts());
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    return products;
+  }
+
+  private static List<String> ids(List<ProductView> products) {
+    List<String> ids = new ArrayList<>(products.size());
+    for (ProductView product : products) {
+      ids.add(product.getID());
+    }
+    return ids;
+  }
+
+  private static List<String> keywordIds(ProductRegister register, String keywords, boolean matchAll,
+      boolean partialMatch) {
+    return register.findByKeywords(keywords, matchAll, partialMatch).stream().map(ProductView::getID).sorted().toList();
+  }
+
+}
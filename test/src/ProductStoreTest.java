@@ -0,0 +1,115 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs the same changes and queries on every kind of product store, and
+ * compares the answers with a register that has the same products.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ProductStoreTest {
+
+  static Stream<Supplier<ProductStore>> stores() {
+    return Stream.of(ColumnarProductStore::new, OffHeapProductStore::new);
+  }
+
+  @ParameterizedTest
+  @MethodSource("stores")
+  void keepsTheValuesAndVersions(Supplier<ProductStore> kind) {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Oak,Door", "Brand", 1, 2, 3, "Red", 5, 3);
+    register.changePrice("ID1", 20);
+    ProductStore store = kind.get();
+    store.add(register.getProductByID("ID1"));
+
+    assertEquals(register.getProductByID("ID1").toString(), store.get("id1").toString());
+    assertEquals(2, store.get("ID1").getVersion());
+
+    // Every change counts the version up, like in the register
+    store.setDescription("ID1", "Pine,Door");
+    store.setQuantity("ID1", 7);
+    store.setPrice("ID1", 30);
+    ProductView product = store.get("ID1");
+    assertEquals("Pine,Door", product.getDescription());
+    assertEquals(7, product.getQuantity());
+    assertEquals(30, product.getPrice());
+    assertEquals("Brand", product.getBrandName());
+    assertEquals("Red", product.getColor());
+    assertEquals(5, product.getVersion());
+
+    store.remove("ID1");
+    assertThrows(NoSuchElementException.class, () -> store.get("ID1"));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  void offHeapStoreFillsAStringBufferToTheEnd() {
+    OffHeapProductStore store = new OffHeapProductStore();
+    // The id, brand name and color take 7, 5 and 5 bytes with their lengths,
+    // so the description ends exactly at the end of the first string buffer
+    String fill = "a".repeat((1 << 24) - 21);
+    store.add(new ProductView("ID1", 10, fill, "B", 1, 1, 1, "R", 5, Category.findByValue(1), 1));
+    store.add(new ProductView("ID2", 10, "Door", "B", 1, 1, 1, "R", 6, Category.findByValue(1), 1));
+    assertEquals(fill, store.get("ID1").getDescription());
+    assertEquals("Door", store.get("ID2").getDescription());
+
+    // A string that does not fit in a buffer leaves no row behind
+    String tooLong = "a".repeat(1 << 24);
+    assertThrows(IllegalArgumentException.class,
+        () -> store.add(new ProductView("ID3", 10, tooLong, "B", 1, 1, 1, "R", 7, Category.findByValue(1), 1)));
+    assertEquals(2, store.size());
+    assertEquals(11, store.totalQuantity(new ProductQuery()));
+    assertThrows(NoSuchElementException.class, () -> store.get("ID3"));
+  }
+
+  @ParameterizedTest
+  @MethodSource("stores")
+  void answersQueriesLikeTheRegister(Supplier<ProductStore> kind) {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 2000);
+    ProductStore store = kind.get();
+    register.forEachProduct(store::add);
+
+    // Removing moves the last product into the gap
+    for (int i = 0; i < 2000; i += 7) {
+      register.removeProduct("ID" + i);
+      store.remove("ID" + i);
+    }
+
+    List<ProductQuery> queries = List.of(
+        new ProductQuery(),
+        new ProductQuery().category(Category.LUMBER),
+        new ProductQuery().priceBetween(100, 500),
+        new ProductQuery().category(Category.DOORS).quantityBelow(50));
+    for (ProductQuery query : queries) {
+      List<ProductView> expected = register.query(query);
+      long quantity = 0;
+      long value = 0;
+      for (ProductView product : expected) {
+        quantity += product.getQuantity();
+        value += (long) product.getPrice() * product.getQuantity();
+      }
+      assertEquals(expected.size(), store.count(query));
+      assertEquals(quantity, store.totalQuantity(query));
+      assertEquals(value, store.stockValue(query));
+
+      List<String> found = new ArrayList<>();
+      store.forEachMatching(query, product -> found.add(product.toString()));
+      assertEquals(expected.stream().map(ProductView::toString).sorted().toList(), found.stream().sorted().toList());
+    }
+  }
+
+}
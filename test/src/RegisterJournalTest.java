@@ -0,0 +1,206 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes changes to a journal, copies the directory the way a crash would
+ * leave it, and checks that a new register restored from the copy has the
+ * same products.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class RegisterJournalTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void restoresSyncedChanges() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register)) {
+      new CatalogGenerator(1).populate(register, 200);
+      register.increaseProductInventory("ID1", 5);
+      register.changePrice("ID2", 77);
+      register.changeDescription("ID3", "Changed,Door");
+      register.removeProduct("ID4");
+      journal.sync();
+
+      // The process stops here without closing the journal
+      copy(directory.resolve("log"), directory.resolve("crash"));
+    }
+
+    ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+    RegisterJournal.open(directory.resolve("crash"), restored).close();
+    assertEquals(contents(register), contents(restored));
+    assertThrows(NoSuchElementException.class, () -> restored.getProductByID("ID4"));
+  }
+
+  @Test
+  void restoresFromSnapshotAndNewerSegments() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register)) {
+      new CatalogGenerator(2).populate(register, 200);
+      journal.snapshot();
+      register.increaseProductInventory("ID10", 3);
+      register.removeProduct("ID11");
+      register.createProduct("NEW1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+      journal.sync();
+      copy(directory.resolve("log"), directory.resolve("crash"));
+    }
+
+    ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+    RegisterJournal.open(directory.resolve("crash"), restored).close();
+    assertEquals(contents(register), contents(restored));
+  }
+
+  @Test
+  void restoresTheVersionsOfTheProducts() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register)) {
+      new CatalogGenerator(4).populate(register, 20);
+      register.changePrice("ID1", 5);
+      register.changePrice("ID1", 6);
+      journal.snapshot();
+      // Changes after the snapshot are in the segments
+      register.increaseProductInventory("ID1", 1);
+      register.changeDescription("ID2", "Changed");
+    }
+
+    ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+    RegisterJournal.open(directory.resolve("log"), restored).close();
+    assertEquals(4, restored.getProductByID("ID1").getVersion());
+    assertEquals(2, restored.getProductByID("ID2").getVersion());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(register.getProductByID("ID" + i).getVersion(), restored.getProductByID("ID" + i).getVersion());
+    }
+
+    // A change based on a version read before the restart still works
+    long version = register.getProductByID("ID3").getVersion();
+    assertTrue(restored.changePriceIfVersion("ID3", 9, version));
+  }
+
+  @Test
+  void snapshotIsTakenAtOnePointInTime() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(5).populate(register, 2000);
+    register.createProduct("FROM1", 10, "Door", "Brand", 1, 1, 1, "Red", 100_000, 1);
+    register.createProduct("TO1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register)) {
+      // Stock is moved between two products in batches, which change both at
+      // once, so a snapshot that is not taken at one point in time can see a
+      // total that never existed
+      Thread mover = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          register.applyInventoryBatch(
+              List.of(new InventoryAdjustment("FROM1", -1), new InventoryAdjustment("TO1", 1)));
+        }
+      });
+      mover.start();
+      for (int i = 0; mover.isAlive() && i < 20; i++) {
+        journal.snapshot();
+
+        // Restore the snapshot alone, without the segments after it
+        Path copy = directory.resolve("copy" + i);
+        Files.createDirectories(copy);
+        Files.copy(directory.resolve("log").resolve("snapshot.bin"), copy.resolve("snapshot.bin"));
+        ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+        RegisterJournal.open(copy, restored).close();
+        assertEquals(100_000,
+            restored.getProductByID("FROM1").getQuantity() + restored.getProductByID("TO1").getQuantity());
+      }
+      mover.join();
+    }
+  }
+
+  @Test
+  void keepsLongDescriptionsAndTurnsAwayTooLongOnes() throws IOException {
+    // Two bytes a character, so far more than the 64 KB a string could take
+    String longDescription = "\u00e9".repeat(100_000);
+    String tooLong = "a".repeat(Mutation.MAX_STRING_BYTES + 1);
+
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register)) {
+      register.createProduct("ID1", 10, longDescription, "Brand", 1, 1, 1, "Red", 5, 1);
+      register.createProduct("ID2", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+
+      // Neither changes the register, so the log and the register agree
+      assertThrows(IllegalArgumentException.class, () -> register.changeDescription("ID2", tooLong));
+      assertThrows(IllegalArgumentException.class,
+          () -> register.createProduct("ID3", 10, tooLong, "Brand", 1, 1, 1, "Red", 5, 1));
+      assertEquals("Door", register.getProductByID("ID2").getDescription());
+      assertThrows(NoSuchElementException.class, () -> register.getProductByID("ID3"));
+      journal.sync();
+    }
+
+    ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+    try (RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), restored)) {
+      assertEquals(longDescription, restored.getProductByID("ID1").getDescription());
+      assertEquals(contents(register), contents(restored));
+      journal.sync();
+    }
+  }
+
+  @Test
+  void cutsOffAChangeThatWasOnlyPartlyWritten() throws IOException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    RegisterJournal journal = RegisterJournal.open(directory.resolve("log"), register);
+    new CatalogGenerator(3).populate(register, 50);
+    journal.close();
+    List<String> expected = contents(register);
+
+    // Half a record at the end of the newest segment
+    Path segment;
+    try (Stream<Path> files = Files.list(directory.resolve("log"))) {
+      segment = files.filter(path -> path.getFileName().toString().endsWith(".log")).max(Path::compareTo).get();
+    }
+    Files.write(segment, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+    ProductRegister restored = new ProductRegister(ProductValidator.DEFAULT);
+    journal = RegisterJournal.open(directory.resolve("log"), restored);
+    assertEquals(expected, contents(restored));
+
+    // New changes are written after the cut, and are restored too
+    restored.increaseProductInventory("ID1", 1);
+    journal.close();
+
+    ProductRegister again = new ProductRegister(ProductValidator.DEFAULT);
+    RegisterJournal.open(directory.resolve("log"), again).close();
+    assertEquals(contents(restored), contents(again));
+  }
+
+  /**
+   * Returns every product of a register as text, in the order of the ids.
+   */
+  static List<String> contents(ProductRegister register) {
+    List<String> products = new ArrayList<>(register.printAllProducts());
+    Collections.sort(products);
+    return products;
+  }
+
+  private static void copy(Path from, Path to) throws IOException {
+    Files.createDirectories(to);
+    try (Stream<Path> files = Files.list(from)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.copy(file, to.resolve(file.getFileName()));
+      }
+    }
+  }
+
+}
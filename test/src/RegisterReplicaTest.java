@@ -0,0 +1,218 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.BindException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Starts a primary and replicas on the loopback interface, and checks that the
+ * replicas end up with the same products as the primary.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class RegisterReplicaTest {
+
+  private static final long TIMEOUT = 30_000;
+
+  @Test
+  void replicaConvergesWithThePrimary() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(1).populate(register, 500);
+
+    try (ReplicationPrimary primary = ReplicationPrimary.start(register, 0);
+        RegisterReplica replica = RegisterReplica.connect("localhost", primary.getPort())) {
+      // Changes made before and after the replica has loaded the snapshot
+      change(register, 0, 500);
+      assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+      change(register, 500, 1000);
+      assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+
+      assertEquals(RegisterJournalTest.contents(register), replica.printAllProducts().stream().sorted().toList());
+      assertEquals(register.getInventoryTotals().toString(), replica.getInventoryTotals().toString());
+    }
+  }
+
+  @Test
+  void replicaCatchesUpAfterReconnecting() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(2).populate(register, 200);
+
+    // The primary is closed in the middle of the test, so it is not a resource
+    ReplicationPrimary primary = ReplicationPrimary.start(register, 0);
+    int port = primary.getPort();
+    try (RegisterReplica replica = RegisterReplica.connect("localhost", port)) {
+      try {
+        change(register, 0, 100);
+        assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+      } finally {
+        primary.close();
+      }
+
+      // Make changes while there is no primary, and serve them on a new one
+      change(register, 100, 300);
+      ReplicationPrimary restarted = startOn(register, port);
+      try {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!RegisterJournalTest.contents(register).equals(replica.printAllProducts().stream().sorted().toList())) {
+          assertTrue(System.currentTimeMillis() < deadline, "The replica did not catch up");
+          Thread.sleep(10);
+        }
+      } finally {
+        restarted.close();
+      }
+      assertTrue(replica.getReplicationStats().getReconnects() >= 1);
+    }
+  }
+
+  @Test
+  void removalsDuringSnapshotAreNotKept() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+      new CatalogGenerator(round).populate(register, 300);
+
+      try (ReplicationPrimary primary = ReplicationPrimary.start(register, 0)) {
+        // Publishing a removal is made slow, so the replica is likely to open
+        // its snapshot while a removal is being published
+        register.addMutationListener(mutation -> {
+          if (mutation.getType() == Mutation.Type.REMOVE) {
+            LockSupport.parkNanos(200_000);
+          }
+        });
+
+        // The replica loads its snapshot while the products are removed
+        Thread remover = new Thread(() -> {
+          for (int i = 0; i < 300; i++) {
+            register.removeProduct("ID" + i);
+          }
+        });
+        remover.start();
+        try (RegisterReplica replica = RegisterReplica.connect("localhost", primary.getPort())) {
+          remover.join();
+          assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+          assertEquals(List.of(), replica.printAllProducts());
+          assertEquals(0, replica.getInventoryTotals().getProductCount());
+        }
+      }
+    }
+  }
+
+  @Test
+  void removedIdCreatedAgainIsReplicated() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(3).populate(register, 50);
+
+    try (ReplicationPrimary primary = ReplicationPrimary.start(register, 0);
+        RegisterReplica replica = RegisterReplica.connect("localhost", primary.getPort())) {
+      // One thread removes the products while others create them again
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+        int number = t;
+        threads[t] = new Thread(() -> {
+          for (int i = 0; i < 2000; i++) {
+            String id = "ID" + (i % 50);
+            try {
+              if (number == 0) {
+                register.removeProduct(id);
+              } else {
+                register.createProduct(id, number, "Door", "Brand", 1, 1, 1, "Red", i, 1);
+              }
+            } catch (IllegalArgumentException | NoSuchElementException e) {
+              // Already created or already removed
+            }
+          }
+        });
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+      assertEquals(RegisterJournalTest.contents(register), replica.printAllProducts().stream().sorted().toList());
+    }
+  }
+
+  @Test
+  void replicaConvergesWhileThePrimaryIsBusy() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    new CatalogGenerator(4).populate(register, 50_000);
+
+    // The stream keeps far fewer changes than are made while the snapshot is
+    // sent, so the changes after the snapshot have to be kept elsewhere
+    try (ReplicationPrimary primary = ReplicationPrimary.start(register, 0, 4096)) {
+      AtomicBoolean stop = new AtomicBoolean();
+      Thread writer = new Thread(() -> {
+        for (int i = 0; !stop.get(); i++) {
+          register.increaseProductInventory("ID" + (i % 50_000), 1);
+          if (i % 100 == 0) {
+            Thread.yield();
+          }
+        }
+      });
+      writer.start();
+      try (RegisterReplica replica = RegisterReplica.connect("localhost", primary.getPort())) {
+        // The replica catches up while the changes go on
+        Thread.sleep(500);
+        assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+        stop.set(true);
+        writer.join();
+
+        assertTrue(replica.awaitSequence(primary.getLatestSequence(), TIMEOUT));
+        assertEquals(1, replica.getReplicationStats().getSnapshots());
+        assertEquals(0, replica.getReplicationStats().getReconnects());
+        assertEquals(register.getInventoryTotals().toString(), replica.getInventoryTotals().toString());
+      } finally {
+        stop.set(true);
+        writer.join();
+      }
+    }
+  }
+
+  /**
+   * Starts a primary on a port that was just used. The replica may be using the
+   * port for a moment while it tries to reconnect, so binding is retried.
+   */
+  private static ReplicationPrimary startOn(ProductRegister register, int port) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (true) {
+      try {
+        return ReplicationPrimary.start(register, port);
+      } catch (BindException e) {
+        if (System.currentTimeMillis() >= deadline) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /**
+   * Makes changes number from to (exclusive) to the register. The same numbers
+   * always make the same changes.
+   */
+  static void change(ProductRegister register, int from, int to) {
+    for (int i = from; i < to; i++) {
+      String id = "ID" + (i * 7 % 200);
+      try {
+        switch (i % 5) {
+          case 0 -> register.changePrice(id, i);
+          case 1 -> register.changeDescription(id, "Changed," + i);
+          case 2 -> register.removeProduct(id);
+          case 3 -> register.createProduct(id, i, "Door", "Brand", 1, 1, 1, "Red", i, 1);
+          default -> register.increaseProductInventory(id, i);
+        }
+      } catch (IllegalArgumentException | NoSuchElementException e) {
+        // Already created or already removed
+      }
+    }
+  }
+
+}
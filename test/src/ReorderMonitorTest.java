@@ -0,0 +1,86 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Changes quantities and reorder points, also at the same time, and checks
+ * that the monitor lists exactly the products below their reorder point.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ReorderMonitorTest {
+
+  @Test
+  void listsTheProductsBelowTheirReorderPoint() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    register.createProduct("ID2", 10, "Door", "Brand", 1, 1, 1, "Red", 50, 1);
+    register.createProduct("ID3", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 2);
+
+    try (ReorderMonitor monitor = new ReorderMonitor(register, 100)) {
+      monitor.setCategoryThreshold(Category.findByValue(1), 10);
+      assertEquals(List.of("ID1"), ids(monitor));
+
+      // The product's own reorder point wins over the category's
+      monitor.setThreshold("ID2", 60);
+      monitor.setThreshold("ID1", 1);
+      assertEquals(List.of("ID2"), ids(monitor));
+
+      // Products created after the monitor get the category's reorder point
+      register.createProduct("ID4", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+      register.increaseProductInventory("ID2", 20);
+      register.decreaseProductInventory("ID3", 5);
+      assertEquals(List.of("ID4"), ids(monitor));
+
+      register.removeProduct("ID4");
+      assertEquals(List.of(), ids(monitor));
+    }
+  }
+
+  @Test
+  void reorderPointSetWhileTheQuantityChanges() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    for (int i = 0; i < 50; i++) {
+      register.createProduct("ID" + i, 10, "Door", "Brand", 1, 1, 1, "Red", 50, 1);
+    }
+
+    try (ReorderMonitor monitor = new ReorderMonitor(register, 10_000)) {
+      // The quantities go above and below the reorder point while it is set
+      // again and again, so a check made on an old quantity would be left
+      // behind
+      Thread changer = new Thread(() -> {
+        for (int i = 0; i < 20_000; i++) {
+          String id = "ID" + (i % 50);
+          if (i / 50 % 2 == 0) {
+            register.increaseProductInventory(id, 100);
+          } else {
+            register.decreaseProductInventory(id, 100);
+          }
+        }
+      });
+      changer.start();
+      while (changer.isAlive()) {
+        for (int i = 0; i < 50; i++) {
+          monitor.setThreshold("ID" + i, 100);
+        }
+      }
+      changer.join();
+
+      for (int i = 0; i < 50; i++) {
+        String id = "ID" + i;
+        boolean below = register.getProductByID(id).getQuantity() < 100;
+        assertEquals(below, ids(monitor).contains(id), id);
+      }
+    }
+  }
+
+  private static List<String> ids(ReorderMonitor monitor) {
+    return monitor.belowReorderPoint().stream().map(ReorderAlert::getID).sorted().toList();
+  }
+
+}
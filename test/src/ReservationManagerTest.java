@@ -0,0 +1,122 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reserves, commits, releases and expires holds on products, and checks the
+ * held and available quantities after each.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ReservationManagerTest {
+
+  @Test
+  void commitRemovesTheHeldQuantity() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+
+    try (ReservationManager manager = new ReservationManager(register)) {
+      Reservation reservation = manager.reserve("ID1", 4, 60_000);
+      assertEquals(6, manager.getAvailableQuantity("ID1"));
+      assertThrows(IllegalArgumentException.class, () -> manager.reserve("ID1", 7, 60_000));
+
+      manager.commit(reservation.getNumber());
+      assertEquals(6, register.getProductByID("ID1").getQuantity());
+      assertEquals(0, manager.getHeldQuantity("ID1"));
+      assertThrows(NoSuchElementException.class, () -> manager.commit(reservation.getNumber()));
+    }
+  }
+
+  @Test
+  void failedCommitKeepsTheReservation() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+
+    try (ReservationManager manager = new ReservationManager(register)) {
+      Reservation reservation = manager.reserve("ID1", 8, 60_000);
+
+      // The inventory is changed directly, past the hold
+      register.decreaseProductInventory("ID1", 5);
+      assertThrows(IllegalArgumentException.class, () -> manager.commit(reservation.getNumber()));
+      assertEquals(8, manager.getHeldQuantity("ID1"));
+      assertEquals(5, register.getProductByID("ID1").getQuantity());
+
+      // Once there is stock again it can be committed
+      register.increaseProductInventory("ID1", 5);
+      manager.commit(reservation.getNumber());
+      assertEquals(2, register.getProductByID("ID1").getQuantity());
+      assertEquals(0, manager.getHeldQuantity("ID1"));
+    }
+  }
+
+  @Test
+  void reservationsExpire() throws InterruptedException {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+
+    try (ReservationManager manager = new ReservationManager(register, 10, 16)) {
+      Reservation reservation = manager.reserve("ID1", 3, 50);
+      assertEquals(3, manager.getHeldQuantity("ID1"));
+
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (manager.getHeldQuantity("ID1") != 0) {
+        assertTrue(System.currentTimeMillis() < deadline, "The reservation did not expire");
+        Thread.sleep(10);
+      }
+      assertThrows(NoSuchElementException.class, () -> manager.release(reservation.getNumber()));
+      assertEquals(10, manager.getAvailableQuantity("ID1"));
+    }
+  }
+
+  @Test
+  void removingAProductEndsItsHolds() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+    register.createProduct("ID2", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+
+    try (ReservationManager manager = new ReservationManager(register)) {
+      Reservation first = manager.reserve("ID1", 4, 60_000);
+      Reservation second = manager.reserve("id1", 2, 60_000);
+      Reservation other = manager.reserve("ID2", 3, 60_000);
+
+      register.removeProduct("ID1");
+      assertEquals(0, manager.getHeldQuantity("ID1"));
+      assertThrows(NoSuchElementException.class, () -> manager.commit(first.getNumber()));
+
+      // A new product with the same id starts without holds, and the old
+      // reservations cannot change them
+      register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+      assertEquals(5, manager.getAvailableQuantity("ID1"));
+      Reservation again = manager.reserve("ID1", 5, 60_000);
+      assertThrows(NoSuchElementException.class, () -> manager.release(second.getNumber()));
+      assertEquals(5, manager.getHeldQuantity("ID1"));
+      manager.commit(again.getNumber());
+      assertEquals(0, register.getProductByID("ID1").getQuantity());
+
+      // The holds of other products are kept
+      assertEquals(3, manager.getHeldQuantity("ID2"));
+      manager.commit(other.getNumber());
+      assertEquals(7, register.getProductByID("ID2").getQuantity());
+    }
+  }
+
+  @Test
+  void timeToLiveHasToBePositive() {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 10, 1);
+
+    try (ReservationManager manager = new ReservationManager(register)) {
+      assertThrows(IllegalArgumentException.class, () -> manager.reserve("ID1", 1, 0));
+      assertThrows(IllegalArgumentException.class, () -> manager.reserve("ID1", 1, -5));
+      assertEquals(0, manager.getHeldQuantity("ID1"));
+    }
+  }
+
+}
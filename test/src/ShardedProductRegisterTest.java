@@ -0,0 +1,101 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Adds and removes shards, also while the register is changed, and checks
+ * that every product ends up once, in its own shard, with every change kept.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class ShardedProductRegisterTest {
+
+  private static final int PRODUCTS = 20_000;
+
+  @Test
+  void movesOnlyTheProductsWhoseShardChanges() {
+    ShardedProductRegister register = new ShardedProductRegister(ProductValidator.DEFAULT, 2);
+    for (int i = 0; i < PRODUCTS; i++) {
+      register.createProduct("ID" + i, 10, "Door", "Brand", 1, 1, 1, "Red", i, 1);
+    }
+
+    String name = register.addShard();
+    int owned = 0;
+    for (int i = 0; i < PRODUCTS; i++) {
+      String shard = register.getShardName("ID" + i);
+      assertEquals(i, register.getShard(shard).getProductByID("ID" + i).getQuantity());
+      if (shard.equals(name)) {
+        owned++;
+      }
+    }
+    assertEquals(owned, register.getShard(name).getInventoryTotals().getProductCount());
+    assertTrue(owned > 0 && owned < PRODUCTS);
+
+    register.removeShard("shard-0");
+    register.removeShard(name);
+    assertEquals(PRODUCTS, register.getShard("shard-1").getInventoryTotals().getProductCount());
+    assertThrows(IllegalStateException.class, () -> register.removeShard("shard-1"));
+  }
+
+  @Test
+  void changesAreKeptWhileShardsAreAddedAndRemoved() throws Exception {
+    ShardedProductRegister register = new ShardedProductRegister(ProductValidator.DEFAULT, 2);
+    for (int i = 0; i < PRODUCTS; i++) {
+      register.createProduct("ID" + i, 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+    }
+
+    // The writer counts one up on every product in turn, and creates new
+    // products, for as long as shards are moved
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicInteger changes = new AtomicInteger();
+    AtomicInteger created = new AtomicInteger();
+    Thread writer = new Thread(() -> {
+      while (!done.get()) {
+        register.increaseProductInventory("ID" + changes.get() % PRODUCTS, 1);
+        changes.incrementAndGet();
+        if (changes.get() % 10 == 0) {
+          register.createProduct("NEW" + created.get(), 10, "Door", "Brand", 1, 1, 1, "Red", 1, 1);
+          created.incrementAndGet();
+        }
+      }
+    });
+    writer.start();
+    int during;
+    try {
+      int before = changes.get();
+      String name = register.addShard();
+      during = changes.get() - before;
+      register.removeShard("shard-0");
+      register.addShard();
+      register.removeShard(name);
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+
+    // The writer is not kept waiting for the whole move
+    assertTrue(during > 1, "No change was made while the shard was added");
+
+    long quantity = 0;
+    for (String shard : register.getShardNames()) {
+      ProductRegister products = register.getShard(shard);
+      quantity += products.getInventoryTotals().getTotalQuantity();
+      products.forEachProduct(product -> assertEquals(shard, register.getShardName(product.getID())));
+    }
+    assertEquals(PRODUCTS + created.get(), register.getInventoryTotals().getProductCount());
+    assertEquals(changes.get() + created.get(), quantity);
+    for (int i = 0; i < PRODUCTS; i++) {
+      int expected = changes.get() / PRODUCTS + (i < changes.get() % PRODUCTS ? 1 : 0);
+      assertEquals(expected, register.getProductByID("ID" + i).getQuantity(), "ID" + i);
+    }
+  }
+
+}
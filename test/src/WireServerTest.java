@@ -0,0 +1,97 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Talks to a wire server over the loopback interface, and checks the answers
+ * and that a slow request does not hold up other connections.
+ *
+ * @author Kandidat 10009
+ *
+ */
+class WireServerTest {
+
+  @Test
+  void answersPipelinedRequestsInOrder() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 0, 1);
+
+    try (WireServer server = WireServer.start(register, 0, 1, 4);
+        WireClient client = WireClient.connect("localhost", server.getPort())) {
+      int[] numbers = new int[1000];
+      for (int i = 0; i < numbers.length; i++) {
+        numbers[i] = client.sendIncrease("ID1", 1);
+      }
+      for (int i = 0; i < numbers.length; i++) {
+        WireClient.Response response = client.receive();
+        assertEquals(numbers[i], response.getRequestNumber());
+        assertEquals(i + 1, response.getQuantity());
+      }
+      assertEquals(990, client.decreaseProductInventory("ID1", 10));
+    }
+  }
+
+  @Test
+  void rejectsQuantitiesThatAreNegativeOrTooLarge() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+
+    try (WireServer server = WireServer.start(register, 0, 1);
+        WireClient client = WireClient.connect("localhost", server.getPort())) {
+      // Negating this overflowed, and became a decrease of itself
+      assertThrows(IllegalArgumentException.class, () -> client.decreaseProductInventory("ID1", Integer.MIN_VALUE));
+      assertThrows(IllegalArgumentException.class, () -> client.decreaseProductInventory("ID1", -3));
+      assertThrows(IllegalArgumentException.class, () -> client.increaseProductInventory("ID1", -3));
+      assertThrows(IllegalArgumentException.class, () -> client.decreaseProductInventory("ID1", 6));
+      assertThrows(NoSuchElementException.class, () -> client.decreaseProductInventory("ID2", 1));
+      assertEquals(5, register.getProductByID("ID1").getQuantity());
+    }
+  }
+
+  @Test
+  @Timeout(30)
+  void slowRequestDoesNotHoldUpOtherConnections() throws Exception {
+    ProductRegister register = new ProductRegister(ProductValidator.DEFAULT);
+    register.createProduct("ID1", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+    register.createProduct("ID2", 10, "Door", "Brand", 1, 1, 1, "Red", 5, 1);
+
+    // One selector, so both connections are read by the same thread
+    try (WireServer server = WireServer.start(register, 0, 1, 2);
+        WireClient blocked = WireClient.connect("localhost", server.getPort());
+        WireClient other = WireClient.connect("localhost", server.getPort())) {
+      CountDownLatch locked = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      Thread holder = new Thread(() -> register.withProduct("ID1", product -> {
+        locked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }));
+      holder.start();
+      assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+      // This request waits for the lock of ID1
+      blocked.sendIncrease("ID1", 1);
+      blocked.flush();
+      try {
+        assertEquals(6, other.increaseProductInventory("ID2", 1));
+      } finally {
+        release.countDown();
+        holder.join();
+      }
+      assertEquals(6, blocked.receive().getQuantity());
+    }
+  }
+
+}